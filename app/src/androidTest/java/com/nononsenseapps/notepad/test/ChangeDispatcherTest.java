@@ -0,0 +1,175 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.nononsenseapps.notepad.database.ChangeDispatcher;
+import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class ChangeDispatcherTest extends AndroidTestCase {
+
+	@SmallTest
+	public void testCoalesce() {
+		final List<Uri> uris = ChangeDispatcher.coalesce(Arrays.asList(
+				Task.URI_TASK_HISTORY, Task.URI, Task.getUri(5),
+				TaskList.URI_WITH_COUNT, Notification.URI, Task.URI));
+		assertEquals(Arrays.asList(Task.URI, TaskList.URI_WITH_COUNT,
+				Notification.URI), uris);
+	}
+
+	@SmallTest
+	public void testHeldUntilRelease() {
+		final ChangeDispatcher dispatcher = ChangeDispatcher
+				.getInstance(getContext());
+		dispatcher.flush();
+		final long requested = dispatcher.getUrisRequested();
+		final long sent = dispatcher.getUrisSent();
+		final long widgets = dispatcher.getWidgetUpdatesSent();
+
+		dispatcher.hold();
+		for (int i = 0; i < 10; i++) {
+			dispatcher.notifyChange(Task.URI);
+			dispatcher.notifyChange(Task.getUri(i));
+			dispatcher.updateWidgets();
+		}
+		dispatcher.flush();
+		assertEquals(sent, dispatcher.getUrisSent());
+
+		dispatcher.release(true);
+		assertEquals(requested + 20, dispatcher.getUrisRequested());
+		assertEquals(sent + 1, dispatcher.getUrisSent());
+		assertEquals(widgets + 1, dispatcher.getWidgetUpdatesSent());
+	}
+
+	@SmallTest
+	public void testRollbackIsNotSent() {
+		final ChangeDispatcher dispatcher = ChangeDispatcher
+				.getInstance(getContext());
+		dispatcher.flush();
+		final long sent = dispatcher.getUrisSent();
+		final long dropped = dispatcher.getUrisDropped();
+		final long dispatches = dispatcher.getDispatches();
+
+		dispatcher.hold();
+		dispatcher.notifyChange(Task.getUri(1));
+		dispatcher.updateWidgets();
+		dispatcher.release(false);
+		dispatcher.flush();
+		assertEquals(sent, dispatcher.getUrisSent());
+		assertEquals(dropped + 1, dispatcher.getUrisDropped());
+		assertEquals(dispatches, dispatcher.getDispatches());
+	}
+
+	@SmallTest
+	public void testHoldIsPerThread() throws Exception {
+		final ChangeDispatcher dispatcher = ChangeDispatcher
+				.getInstance(getContext());
+		dispatcher.flush();
+		final long sent = dispatcher.getUrisSent();
+
+		dispatcher.hold();
+		try {
+			final Thread other = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					dispatcher.notifyChange(Task.getUri(2));
+					dispatcher.flush();
+				}
+			});
+			other.start();
+			other.join();
+			// Sent while this thread still holds its own changes
+			assertEquals(sent + 1, dispatcher.getUrisSent());
+			dispatcher.notifyChange(Task.getUri(3));
+			dispatcher.flush();
+			assertEquals(sent + 1, dispatcher.getUrisSent());
+		}
+		finally {
+			dispatcher.release(true);
+		}
+		assertEquals(sent + 2, dispatcher.getUrisSent());
+	}
+
+	@MediumTest
+	public void testBatchNotifiesOnce() throws Exception {
+		final ChangeDispatcher dispatcher = ChangeDispatcher
+				.getInstance(getContext());
+		final TaskList list = new TaskList();
+		list.title = "111aaDispatcherList";
+		list.save(getContext());
+		dispatcher.flush();
+		final long sent = dispatcher.getUrisSent();
+		final long dispatches = dispatcher.getDispatches();
+
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+		for (int i = 0; i < 50; i++) {
+			final Task t = new Task();
+			t.title = "dispatch" + i;
+			t.dblist = list._id;
+			ops.add(ContentProviderOperation.newInsert(Task.URI)
+					.withValues(t.getContent()).build());
+		}
+		getContext().getContentResolver().applyBatch(
+				MyContentProvider.AUTHORITY, ops);
+
+		// One dispatch with the task and list URIs, not one per insert
+		assertEquals(dispatches + 1, dispatcher.getDispatches());
+		assertTrue(dispatcher.getUrisSent() - sent <= 2);
+
+		list.delete(getContext());
+	}
+	@MediumTest
+	public void testOriginIsNotNotified() throws Exception {
+		final ChangeDispatcher dispatcher = ChangeDispatcher
+				.getInstance(getContext());
+		final ContentResolver resolver = getContext().getContentResolver();
+		final CountDownLatch originNotified = new CountDownLatch(1);
+		final CountDownLatch otherNotified = new CountDownLatch(1);
+		final ContentObserver origin = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				originNotified.countDown();
+			}
+		};
+		final ContentObserver other = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				otherNotified.countDown();
+			}
+		};
+		resolver.registerContentObserver(Task.URI, true, origin);
+		resolver.registerContentObserver(Task.URI, true, other);
+		try {
+			dispatcher.setOrigin(origin);
+			dispatcher.notifyChange(Task.getUri(1));
+			dispatcher.flush();
+			assertTrue(otherNotified.await(2, TimeUnit.SECONDS));
+			assertFalse(originNotified.await(200, TimeUnit.MILLISECONDS));
+
+			// Everyone else's changes still reach it
+			dispatcher.setOrigin(null);
+			dispatcher.notifyChange(Task.getUri(1));
+			dispatcher.flush();
+			assertTrue(originNotified.await(2, TimeUnit.SECONDS));
+		}
+		finally {
+			dispatcher.setOrigin(null);
+			resolver.unregisterContentObserver(origin);
+			resolver.unregisterContentObserver(other);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package com.nononsenseapps.notepad.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
+import com.nononsenseapps.notepad.database.SectionedDateCursor;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * The common database operations at 1k, 10k and 100k tasks, on a database
+ * created by DatabaseHandler with all the real tables, indices and
+ * triggers. Writes are done like the provider does them, without the
+ * provider itself, since it always uses the app's own database.
+ *
+ * Each size writes benchmark_[tasks].json to the external files directory
+ * of the test app, with the microseconds per operation. Compare them
+ * between releases to see if a change to the schema made something slower.
+ */
+public class DBBenchmarkSuiteTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+	private static final String PREFIX = "benchmark_suite_";
+	private static final int LISTS = 10;
+	// Timed repetitions of the single row operations
+	private static final int OPS = 100;
+	private static final int QUERIES = 20;
+	private static final String[] WORDS = { "milk", "bread", "meeting",
+			"call", "dentist", "invoice", "garden", "birthday", "report",
+			"train", "tickets", "laundry", "groceries", "project", "review",
+			"holiday", "pharmacy", "library", "taxes", "insurance" };
+
+	private Context context;
+	private SQLiteDatabase db;
+	private final Random random = new Random(1);
+	private final ArrayList<Long> lists = new ArrayList<Long>();
+	private JSONArray results;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		deleteDatabases();
+		db = new DatabaseHandler(context, PREFIX).getWritableDatabase();
+		for (int i = 0; i < LISTS; i++) {
+			final TaskList list = new TaskList();
+			list.title = "benchmark" + i;
+			list.insert(context, db, false);
+			lists.add(list._id);
+		}
+		results = new JSONArray();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		db.close();
+		deleteDatabases();
+		super.tearDown();
+	}
+
+	private void deleteDatabases() {
+		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+	}
+
+	private String words(final int count) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return sb.toString();
+	}
+
+	private Task newTask(final int i) {
+		final Task t = new Task();
+		t.dblist = lists.get(i % LISTS);
+		t.title = words(3) + i;
+		t.note = words(20);
+		if (i % 3 != 0) {
+			t.due = 1400000000000L + 3600000L * random.nextInt(24 * 60);
+		}
+		if (i % 4 == 0) {
+			t.completed = 1400000000000L;
+		}
+		return t;
+	}
+
+	/**
+	 * Inserts like the provider: make room at the top, then insert
+	 */
+	private void insert(final Task t) {
+		db.beginTransaction();
+		try {
+			Task.ensureRoomAtTop(db, t.dblist);
+			t.insert(context, db, false);
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+	}
+
+	private void result(final int size, final String op, final int count,
+			final long nanos) throws JSONException {
+		final long us = nanos / count / 1000;
+		results.put(new JSONObject().put("tasks", size).put("op", op)
+				.put("count", count).put("us_per_op", us));
+		Log.d(TAG, size + " tasks, " + op + ": " + us + " us");
+	}
+
+	private long idWhere(final String where, final String order) {
+		final Cursor c = db.query(Task.TABLE_NAME,
+				new String[] { Task.Columns._ID }, where,
+				new String[] { Long.toString(lists.get(0)) }, null, null,
+				order, "1");
+		try {
+			assertTrue(c.moveToFirst());
+			return c.getLong(0);
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	private Task taskWhere(final String where, final String order) {
+		final Cursor c = db.query(Task.TABLE_NAME, Task.Columns.FIELDS,
+				where, new String[] { Long.toString(lists.get(0)) }, null,
+				null, order, "1");
+		try {
+			assertTrue(c.moveToFirst());
+			return new Task(c);
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	private void run(final int size) throws JSONException, IOException {
+		final String inList = Task.Columns.DBLIST + " = ?";
+		long nanos;
+
+		// Bulk insert, one transaction per 500 like a large restore
+		nanos = System.nanoTime();
+		for (int i = 0; i < size; i += 500) {
+			db.beginTransaction();
+			try {
+				for (int j = i; j < Math.min(size, i + 500); j++) {
+					insert(newTask(j));
+				}
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+		result(size, "bulk_insert", size, System.nanoTime() - nanos);
+
+		nanos = System.nanoTime();
+		for (int i = 0; i < OPS; i++) {
+			insert(newTask(size + i * LISTS));
+		}
+		result(size, "insert", OPS, System.nanoTime() - nanos);
+
+		// Last task of the first list to the top, like a long drag
+		nanos = 0;
+		for (int i = 0; i < OPS; i++) {
+			final long top = taskWhere(inList, Task.Columns.LEFT).left;
+			final Task last = taskWhere(inList, Task.Columns.LEFT + " DESC");
+			final ContentValues values = last.getMoveValues(top);
+			final long start = System.nanoTime();
+			db.beginTransaction();
+			try {
+				assertEquals(1, last.moveItemLeft(db, values));
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+			nanos += System.nanoTime() - start;
+		}
+		result(size, "move", OPS, nanos);
+
+		nanos = 0;
+		for (int i = 0; i < OPS; i++) {
+			final long id = idWhere(inList + " AND " + Task.Columns.COMPLETED
+					+ " IS NULL", null);
+			final ContentValues values = new ContentValues();
+			values.put(Task.Columns.COMPLETED, System.currentTimeMillis());
+			final long start = System.nanoTime();
+			assertEquals(1, db.update(Task.TABLE_NAME, values,
+					Task.Columns._ID + " = ?",
+					new String[] { Long.toString(id) }));
+			nanos += System.nanoTime() - start;
+		}
+		result(size, "complete", OPS, nanos);
+
+		nanos = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			final Cursor c = new SectionedDateCursor(db.query(
+					Task.TABLE_NAME,
+					SectionedDateCursor
+							.requiredColumns(Task.Columns.LIST_FIELDS),
+					Task.Columns.DBLIST + " = ?",
+					new String[] { Long.toString(lists.get(i % LISTS)) },
+					null, null, Task.SECTIONED_DATE_ORDER), lists.get(i
+					% LISTS));
+			assertTrue(c.getCount() > 0);
+			c.close();
+		}
+		result(size, "sectioned_date_query", QUERIES, System.nanoTime()
+				- nanos);
+
+		nanos = System.nanoTime();
+		for (int i = 0; i < OPS; i++) {
+			final Cursor c = db.rawQuery(TaskList.SELECT_WITH_COUNT, null);
+			assertTrue(c.getCount() >= LISTS);
+			c.close();
+		}
+		result(size, "count_view", OPS, System.nanoTime() - nanos);
+
+		nanos = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			final Cursor c = db.rawQuery("SELECT " + Task.TABLE_NAME + "."
+					+ Task.Columns._ID + " FROM " + Task.TABLE_NAME + " JOIN "
+					+ Task.FTS_TABLE_NAME + " ON " + Task.TABLE_NAME + "."
+					+ Task.Columns._ID + " = " + Task.FTS_TABLE_NAME
+					+ ".docid WHERE " + Task.FTS_TABLE_NAME + " MATCH ?",
+					new String[] { WORDS[i % WORDS.length] + "*" });
+			assertTrue(c.getCount() > 0);
+			c.close();
+		}
+		result(size, "search", QUERIES, System.nanoTime() - nanos);
+
+		nanos = 0;
+		for (int i = 0; i < OPS; i++) {
+			final long id = idWhere(inList, null);
+			final long start = System.nanoTime();
+			assertEquals(1, db.delete(Task.TABLE_NAME, Task.Columns._ID
+					+ " = ?", new String[] { Long.toString(id) }));
+			nanos += System.nanoTime() - start;
+		}
+		result(size, "delete", OPS, nanos);
+
+		Task.verifyPositions(db, lists.get(0));
+		write(size);
+	}
+
+	private void write(final int size) throws IOException, JSONException {
+		File dir = context.getExternalFilesDir(null);
+		if (dir == null) {
+			dir = context.getFilesDir();
+		}
+		final File file = new File(dir, "benchmark_" + size + ".json");
+		final FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(new JSONObject().put("tasks", size)
+					.put("time", System.currentTimeMillis())
+					.put("results", results).toString(2));
+		}
+		finally {
+			writer.close();
+		}
+		Log.d(TAG, "Results in " + file.getPath());
+	}
+
+	@LargeTest
+	public void test1k() throws Exception {
+		run(1000);
+	}
+
+	@LargeTest
+	public void test10k() throws Exception {
+		run(10000);
+	}
+
+	@LargeTest
+	public void test100k() throws Exception {
+		run(100000);
+	}
+}
@@ -0,0 +1,140 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+
+import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Runs a sync sized write load beside repeated list queries. The reads
+ * should not have to wait for the writer to finish.
+ */
+public class DBConcurrencyTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps concurrency";
+	// Roughly a large first sync
+	private static final int BATCH_SIZE = 3000;
+
+	private Context context;
+	private ContentResolver resolver;
+	private TaskList list;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		resolver = context.getContentResolver();
+		list = new TaskList();
+		list.title = "111aaConcurrencyList";
+		list.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		super.tearDown();
+	}
+
+	private ArrayList<ContentProviderOperation> buildBatch() {
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			final Task t = new Task();
+			t.title = "concurrent" + i;
+			t.note = "Some text to make the rows a bit bigger " + i;
+			t.dblist = list._id;
+			ops.add(ContentProviderOperation.newInsert(Task.URI)
+					.withValues(t.getContent()).build());
+		}
+		return ops;
+	}
+
+	private void readList() {
+		Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " = ?",
+				new String[] { Long.toString(list._id) }, Task.Columns.LEFT);
+		// Force the whole window to be filled
+		c.getCount();
+		c.close();
+		c = resolver.query(TaskList.URI_WITH_COUNT, null, null, null, null);
+		c.getCount();
+		c.close();
+	}
+
+	@LargeTest
+	public void testReadsDuringWrites() throws Exception {
+		final long[] writeWindow = new long[2];
+		final Exception[] writeError = new Exception[1];
+		final ArrayList<ContentProviderOperation> ops = buildBatch();
+		final Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeWindow[0] = SystemClock.elapsedRealtime();
+				try {
+					resolver.applyBatch(MyContentProvider.AUTHORITY, ops);
+				}
+				catch (Exception e) {
+					writeError[0] = e;
+				}
+				writeWindow[1] = SystemClock.elapsedRealtime();
+			}
+		});
+
+		// Baseline without any writer
+		long idleTotal = 0;
+		for (int i = 0; i < 20; i++) {
+			final long start = SystemClock.elapsedRealtime();
+			readList();
+			idleTotal += SystemClock.elapsedRealtime() - start;
+		}
+
+		final ArrayList<long[]> reads = new ArrayList<long[]>();
+		writer.start();
+		while (writer.isAlive()) {
+			final long start = SystemClock.elapsedRealtime();
+			readList();
+			reads.add(new long[] { start, SystemClock.elapsedRealtime() });
+		}
+		writer.join();
+		assertNull("Writer failed: " + writeError[0], writeError[0]);
+
+		// Reads that both started and finished while the writer was busy
+		int overlapping = 0;
+		long maxLatency = 0;
+		long total = 0;
+		for (long[] read : reads) {
+			final long latency = read[1] - read[0];
+			maxLatency = Math.max(maxLatency, latency);
+			total += latency;
+			if (read[0] >= writeWindow[0] && read[1] <= writeWindow[1]) {
+				overlapping++;
+			}
+		}
+
+		Log.d(TAG, "wrote " + BATCH_SIZE + " tasks in "
+				+ (writeWindow[1] - writeWindow[0]) + " ms");
+		Log.d(TAG, "idle read avg: " + (idleTotal / 20) + " ms");
+		Log.d(TAG, "reads during writes: " + reads.size() + ", avg "
+				+ (total / Math.max(1, reads.size())) + " ms, max "
+				+ maxLatency + " ms");
+
+		// With a provider wide lock no read can complete while the batch runs
+		assertTrue("No reads completed while the writer was busy",
+				overlapping > 0);
+
+		final Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " = ?",
+				new String[] { Long.toString(list._id) }, null);
+		assertEquals(BATCH_SIZE, c.getCount());
+		c.close();
+	}
+}
@@ -0,0 +1,197 @@
+package com.nononsenseapps.notepad.test;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Repeated moves, like a long drag, with the cached move statements and
+ * with the queries built and compiled for every move as they used to be.
+ */
+public class DBMoveBenchmarkTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+	private static final int TASKS = 200;
+	private static final int MOVES = 500;
+
+	private Context context;
+	private ContentResolver resolver;
+	private SQLiteDatabase db;
+	private TaskList list;
+
+	// Per run
+	private long nanos;
+	private long allocs;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		resolver = context.getContentResolver();
+		db = DatabaseHandler.getInstance(context).getWritableDatabase();
+		list = new TaskList();
+		list.title = "111aaMoveBenchmarkList";
+		list.save(context);
+		final ContentValues[] values = new ContentValues[TASKS];
+		for (int i = 0; i < TASKS; i++) {
+			final Task t = new Task();
+			t.title = "move" + i;
+			t.dblist = list._id;
+			values[i] = t.getContent();
+		}
+		assertEquals(TASKS, resolver.bulkInsert(Task.URI, values));
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		super.tearDown();
+	}
+
+	private Task taskAt(final boolean last) {
+		final Cursor c = resolver.query(Task.getListUri(list._id),
+				Task.Columns.FIELDS, null, null, Task.Columns.LEFT
+						+ (last ? " DESC" : " ASC") + " LIMIT 1");
+		try {
+			assertTrue(c.moveToFirst());
+			return new Task(c);
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Moves the last task to the top, over and over. Only the moves
+	 * themselves are measured.
+	 */
+	private void run(final boolean cached) {
+		nanos = 0;
+		allocs = 0;
+		Debug.startAllocCounting();
+		try {
+			for (int i = 0; i < MOVES; i++) {
+				final Task first = taskAt(false);
+				final Task moving = taskAt(true);
+				final ContentValues values = moving
+						.getMoveValues(first.left);
+
+				db.beginTransaction();
+				try {
+					Debug.resetThreadAllocCount();
+					final long start = System.nanoTime();
+					final int result = cached ? moving.moveItemLeft(db,
+							values) : OldMove.moveItemLeft(db, moving,
+							first.left);
+					nanos += System.nanoTime() - start;
+					allocs += Debug.getThreadAllocCount();
+					assertEquals(1, result);
+					db.setTransactionSuccessful();
+				}
+				finally {
+					db.endTransaction();
+				}
+			}
+		}
+		finally {
+			Debug.stopAllocCounting();
+		}
+		Task.verifyPositions(db, list._id);
+	}
+
+	@LargeTest
+	public void testRepeatedMoves() {
+		// Warm up both
+		run(false);
+		run(true);
+
+		run(false);
+		final long oldUs = nanos / MOVES / 1000;
+		final long oldAllocs = allocs / MOVES;
+		run(true);
+		final long cachedUs = nanos / MOVES / 1000;
+		final long cachedAllocs = allocs / MOVES;
+
+		Log.d(TAG, "move in list of " + TASKS + ": " + oldUs + " us, "
+				+ oldAllocs + " allocations built each time, " + cachedUs
+				+ " us, " + cachedAllocs + " allocations cached");
+
+		assertTrue("Cached moves allocate " + cachedAllocs + " vs "
+				+ oldAllocs, cachedAllocs < oldAllocs);
+	}
+
+	/**
+	 * The move as it was, building each query with String.format and
+	 * compiling it for every call.
+	 */
+	private static class OldMove {
+
+		static int moveItemLeft(final SQLiteDatabase db, final Task t,
+				final long edgeVal) {
+			final long targetId = queryLong(db, String.format(
+					"SELECT %1$s FROM %2$s WHERE %3$s = ? AND %4$s = ?",
+					Task.Columns._ID, Task.TABLE_NAME, Task.Columns.DBLIST,
+					Task.Columns.LEFT), -1, Long.toString(t.dblist),
+					Long.toString(edgeVal));
+			if (targetId < 1 || targetId == t._id) {
+				return 0;
+			}
+			long pos = findGap(db, t, targetId);
+			if (pos < 0) {
+				Task.rebalanceList(db, t.dblist);
+				pos = findGap(db, t, targetId);
+			}
+			if (pos < 0) {
+				return 0;
+			}
+			final ContentValues posValues = new ContentValues();
+			posValues.put(Task.Columns.LEFT, pos);
+			posValues.put(Task.Columns.RIGHT, pos + 1);
+			return db.update(Task.TABLE_NAME, posValues, Task.Columns._ID
+					+ " = ?", new String[] { Long.toString(t._id) });
+		}
+
+		static long findGap(final SQLiteDatabase db, final Task t,
+				final long targetId) {
+			final long hi = queryLong(db, String.format(
+					"SELECT %1$s FROM %2$s WHERE %3$s = ?", Task.Columns.LEFT,
+					Task.TABLE_NAME, Task.Columns._ID), -1,
+					Long.toString(targetId));
+			final long lo = queryLong(db, String.format(
+					"SELECT %1$s FROM %2$s WHERE %3$s = ? AND %4$s < ?"
+							+ " AND %5$s IS NOT ? ORDER BY %4$s DESC LIMIT 1",
+					Task.Columns.RIGHT, Task.TABLE_NAME, Task.Columns.DBLIST,
+					Task.Columns.LEFT, Task.Columns._ID), 0,
+					Long.toString(t.dblist), Long.toString(hi),
+					Long.toString(t._id));
+			if (hi - lo < 3) {
+				return -1;
+			}
+			return lo + (hi - lo) / 2;
+		}
+
+		static long queryLong(final SQLiteDatabase db, final String sql,
+				final long defaultValue, final String... args) {
+			final Cursor c = db.rawQuery(sql, args);
+			try {
+				if (c.moveToFirst() && !c.isNull(0)) {
+					return c.getLong(0);
+				}
+				return defaultValue;
+			}
+			finally {
+				c.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.nononsenseapps.notepad.database.ChangeDispatcher;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+/**
+ * Editing a task should only make loaders of that task's list requery, not
+ * every open list.
+ */
+public class DBNotificationScopeTest extends AndroidTestCase {
+
+	private static final int LISTS = 3;
+	// Observers are called on another thread
+	private static final long DELIVERY_MS = 500;
+
+	private ContentResolver resolver;
+	private final ArrayList<TaskList> lists = new ArrayList<TaskList>();
+	private final ArrayList<Task> tasks = new ArrayList<Task>();
+	private final ArrayList<Counter> counters = new ArrayList<Counter>();
+
+	private static class Counter extends ContentObserver {
+		final AtomicInteger count = new AtomicInteger();
+
+		Counter() {
+			super(null);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			count.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		resolver = getContext().getContentResolver();
+		for (int i = 0; i < LISTS; i++) {
+			final TaskList list = new TaskList();
+			list.title = "111aaScopeList" + i;
+			list.save(getContext());
+			lists.add(list);
+			for (int j = 0; j < 5; j++) {
+				final Task t = new Task();
+				t.title = "scope" + i + "_" + j;
+				t.dblist = list._id;
+				t.save(getContext());
+				tasks.add(t);
+			}
+		}
+		ChangeDispatcher.getInstance(getContext()).flush();
+		Thread.sleep(DELIVERY_MS);
+
+		// Open lists, like the list fragments do
+		for (TaskList list : lists) {
+			final Counter counter = new Counter();
+			final Cursor c = resolver.query(Task.getListUri(list._id),
+					Task.Columns.FIELDS, null, null, Task.Columns.LEFT);
+			assertEquals(5, c.getCount());
+			c.close();
+			resolver.registerContentObserver(Task.getListUri(list._id), true,
+					counter);
+			counters.add(counter);
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		for (Counter counter : counters) {
+			resolver.unregisterContentObserver(counter);
+		}
+		for (TaskList list : lists) {
+			list.delete(getContext());
+		}
+		super.tearDown();
+	}
+
+	private int[] requeries() throws InterruptedException {
+		ChangeDispatcher.getInstance(getContext()).flush();
+		Thread.sleep(DELIVERY_MS);
+		final int[] result = new int[LISTS];
+		for (int i = 0; i < LISTS; i++) {
+			result[i] = counters.get(i).count.getAndSet(0);
+		}
+		return result;
+	}
+
+	@MediumTest
+	public void testEditRequeriesOneList() throws Exception {
+		final Task t = tasks.get(0);
+		t.title = "scope edited";
+		resolver.update(t.getUri(), t.getContent(), null, null);
+
+		final int[] requeries = requeries();
+		assertEquals(1, requeries[0]);
+		assertEquals(0, requeries[1]);
+		assertEquals(0, requeries[2]);
+	}
+
+	@MediumTest
+	public void testMoveRequeriesBothLists() throws Exception {
+		final Task t = tasks.get(0);
+		t.dblist = lists.get(1)._id;
+		resolver.update(t.getUri(), t.getContent(), null, null);
+
+		final int[] requeries = requeries();
+		assertEquals(1, requeries[0]);
+		assertEquals(1, requeries[1]);
+		assertEquals(0, requeries[2]);
+	}
+
+	@MediumTest
+	public void testInsertAndDelete() throws Exception {
+		final Task t = new Task();
+		t.title = "scope new";
+		t.dblist = lists.get(2)._id;
+		t.save(getContext());
+		assertEquals(1, requeries()[2]);
+
+		resolver.delete(t.getUri(), null, null);
+		final int[] requeries = requeries();
+		assertEquals(0, requeries[0]);
+		assertEquals(0, requeries[1]);
+		assertEquals(1, requeries[2]);
+	}
+}
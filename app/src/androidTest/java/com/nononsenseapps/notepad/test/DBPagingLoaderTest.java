@@ -0,0 +1,162 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.nononsenseapps.notepad.database.PagingCursorLoader;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.Loader;
+import android.support.v4.content.Loader.OnLoadCompleteListener;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+/**
+ * Loading page by page must give the same rows in the same order as one
+ * query, also when many rows share a key and some keys are null.
+ */
+public class DBPagingLoaderTest extends AndroidTestCase {
+
+	private static final int TASKS = 2 * PagingCursorLoader.PAGE_SIZE + 50;
+
+	private ContentResolver resolver;
+	private TaskList list;
+	private Handler main;
+
+	// Set on the main thread
+	private volatile Cursor loaded;
+	private volatile CountDownLatch latch;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		resolver = getContext().getContentResolver();
+		main = new Handler(Looper.getMainLooper());
+		list = new TaskList();
+		list.title = "111aaPagingList";
+		list.save(getContext());
+		final ContentValues[] values = new ContentValues[TASKS];
+		for (int i = 0; i < TASKS; i++) {
+			final Task t = new Task();
+			t.title = "paging" + i;
+			t.dblist = list._id;
+			// Few distinct values, so pages end inside a run of equal keys
+			if (i % 4 != 0) {
+				t.due = 1000L * (i % 7);
+			}
+			values[i] = t.getContent();
+		}
+		assertEquals(TASKS, resolver.bulkInsert(Task.URI, values));
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(getContext());
+		super.tearDown();
+	}
+
+	private ArrayList<Long> idsOf(final Cursor c) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		c.moveToPosition(-1);
+		while (c.moveToNext()) {
+			ids.add(c.getLong(c.getColumnIndex(Task.Columns._ID)));
+		}
+		return ids;
+	}
+
+	private ArrayList<Long> expected(final String order) {
+		final Cursor c = resolver.query(Task.getListUri(list._id),
+				Task.Columns.LIST_FIELDS, null, null, order);
+		try {
+			return idsOf(c);
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Runs on the main thread and waits for the loader to deliver
+	 */
+	private Cursor await(final Runnable action) throws InterruptedException {
+		latch = new CountDownLatch(1);
+		main.post(action);
+		assertTrue("Loader did not deliver",
+				latch.await(10, TimeUnit.SECONDS));
+		return loaded;
+	}
+
+	private ArrayList<Long> loadAll(final PagingCursorLoader loader)
+			throws InterruptedException {
+		Cursor c = await(new Runnable() {
+			@Override
+			public void run() {
+				loader.registerListener(1, new OnLoadCompleteListener<Cursor>() {
+					@Override
+					public void onLoadComplete(Loader<Cursor> l, Cursor data) {
+						loaded = data;
+						latch.countDown();
+					}
+				});
+				loader.startLoading();
+			}
+		});
+		assertEquals(PagingCursorLoader.PAGE_SIZE, c.getCount());
+
+		int pages = 1;
+		while (!loader.isComplete()) {
+			c = await(new Runnable() {
+				@Override
+				public void run() {
+					loader.loadMore();
+				}
+			});
+			pages++;
+			assertTrue(pages <= TASKS / PagingCursorLoader.PAGE_SIZE + 1);
+		}
+		final ArrayList<Long> ids = idsOf(c);
+		main.post(new Runnable() {
+			@Override
+			public void run() {
+				loader.reset();
+			}
+		});
+		return ids;
+	}
+
+	@MediumTest
+	public void testDueNullsFirst() throws InterruptedException {
+		final PagingCursorLoader loader = new PagingCursorLoader(getContext(),
+				Task.getListUri(list._id), Task.Columns.LIST_FIELDS, null,
+				null, Task.Columns.DUE, false, true);
+		assertEquals(expected(Task.Columns.DUE + ", " + Task.Columns._ID),
+				loadAll(loader));
+	}
+
+	@MediumTest
+	public void testDueDescendingNullsLast() throws InterruptedException {
+		final PagingCursorLoader loader = new PagingCursorLoader(getContext(),
+				Task.URI, Task.Columns.LIST_FIELDS, Task.Columns.DBLIST
+						+ " = ?", new String[] { Long.toString(list._id) },
+				Task.Columns.DUE, true, true);
+		assertEquals(expected(Task.Columns.DUE + " DESC, " + Task.Columns._ID
+				+ " DESC"), loadAll(loader));
+	}
+
+	@MediumTest
+	public void testManual() throws InterruptedException {
+		final PagingCursorLoader loader = new PagingCursorLoader(getContext(),
+				Task.getListUri(list._id), Task.Columns.LIST_FIELDS, null,
+				null, Task.Columns.LEFT, false, false);
+		final ArrayList<Long> ids = loadAll(loader);
+		assertEquals(TASKS, ids.size());
+		assertEquals(expected(Task.Columns.LEFT), ids);
+	}
+}
@@ -0,0 +1,85 @@
+package com.nononsenseapps.notepad.test;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Measures the latency of a single task insert as the list grows. The
+ * position check in the triggers should not make it grow with the list.
+ */
+public class DBPositionBenchmarkTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+	private static final int SAMPLES = 100;
+
+	private Context context;
+	private ContentResolver resolver;
+	private TaskList list;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		resolver = context.getContentResolver();
+		list = new TaskList();
+		list.title = "111aaBenchmarkList";
+		list.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		super.tearDown();
+	}
+
+	private void fillListTo(final int count, final int current) {
+		final ContentValues[] values = new ContentValues[count - current];
+		for (int i = 0; i < values.length; i++) {
+			final Task t = new Task();
+			t.title = "filler" + (current + i);
+			t.dblist = list._id;
+			values[i] = t.getContent();
+		}
+		assertEquals(values.length, resolver.bulkInsert(Task.URI, values));
+	}
+
+	/**
+	 * Returns the average latency in microseconds
+	 */
+	private long timeInserts() {
+		final long start = System.nanoTime();
+		for (int i = 0; i < SAMPLES; i++) {
+			final Task t = new Task();
+			t.title = "sample" + i;
+			t.dblist = list._id;
+			assertNotNull(resolver.insert(Task.URI, t.getContent()));
+		}
+		return (System.nanoTime() - start) / SAMPLES / 1000;
+	}
+
+	@LargeTest
+	public void testInsertLatency() {
+		final int[] sizes = { 1000, 10000, 50000 };
+		final long[] latencies = new long[sizes.length];
+		int current = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			fillListTo(sizes[i], current);
+			latencies[i] = timeInserts();
+			current = sizes[i] + SAMPLES;
+			Log.d(TAG, "insert at " + sizes[i] + " tasks: " + latencies[i]
+					+ " us");
+		}
+
+		// Whole list scans would make this grow 50 times
+		assertTrue("Insert latency grows with the list: " + latencies[0]
+				+ " us -> " + latencies[2] + " us",
+				latencies[2] < 10 * Math.max(latencies[0], 100));
+	}
+}
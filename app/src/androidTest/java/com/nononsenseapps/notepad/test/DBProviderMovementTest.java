@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.Random;
 
 import com.nononsenseapps.notepad.database.DAO;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 
@@ -14,6 +15,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 import android.util.Log;
@@ -64,55 +66,21 @@ public class DBProviderMovementTest extends AndroidTestCase {
 	}
 
 	private void assertTaskLeftRightAreSequential(final long listId) {
-		// Get ordered
+		// Positions are sparse, but must be ordered and never overlap
 		ArrayList<Task> tasks = getTasks(listId);
 		long prev = 0;
+		HashSet<Long> positions = new HashSet<Long>();
 		for (Task t : tasks) {
 			assertTrue("Left must be less than right! " + t.left + " !< "
 					+ t.right, t.left < t.right);
-			assertTrue("Previous item must have smaller left",
+			assertTrue("Previous item must end before this one starts",
 					prev < (long) t.left);
-			if (t.right == t.left + 1) {
-				prev = t.right;
-			}
-			else {
-				prev = t.left;
-			}
-		}
-
-		// Test maximum value
-		Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
-				Task.Columns.DBLIST + " IS ?",
-				new String[] { Long.toString(listId) }, Task.Columns.RIGHT
-						+ " DESC");
-		assertCursorGood(c);
-		HashSet<Long> positions = new HashSet<Long>();
-		if (c.getCount() > 0) {
-			// Right most will be twice the number of tasks
-			assertTrue(c.moveToFirst());
-			final Task last = new Task(c);
+			assertEquals("Width should be 1", 1, t.right - t.left);
+			prev = t.right;
 
-			assertTrue(String.format("%d != 2 * %d", last.right, c.getCount()),
-					last.right == 2 * c.getCount());
-
-			// Make sure there are no duplicates and such
-			for (long i = 1; i <= c.getCount() * 2; i++) {
-				positions.add(i);
-			}
-
-			positions.remove(last.left);
-			positions.remove(last.right);
-
-			while (c.moveToNext()) {
-				Task task = new Task(c);
-				positions.remove(task.left);
-				positions.remove(task.right);
-			}
+			assertTrue("Duplicate position " + t.left, positions.add(t.left));
+			assertTrue("Duplicate position " + t.right, positions.add(t.right));
 		}
-		c.close();
-
-		assertEquals("Must be duplicate positions in the list", 0,
-				positions.size());
 	}
 
 	private TaskList insertList() {
@@ -263,18 +231,22 @@ public class DBProviderMovementTest extends AndroidTestCase {
 
 		assertNotNull("Couldnt find the moved task", newone);
 
+		int newPos = -1;
+		for (int i = 0; i < newtasks.size(); i++) {
+			if (newtasks.get(i)._id == movingTask._id) {
+				newPos = i;
+			}
+		}
 		if (targetTask.left < movingTask.left) {
-			assertEquals("Left value does not equal target", targetTask.left,
-					newone.left);
-			assertEquals("Right value does not equal target left + 1",
-					targetTask.left + 1, (long) newone.right);
+			assertEquals("Moved task should be right before target",
+					targetTask._id, newtasks.get(newPos + 1)._id);
 		}
 		else if (targetTask.right > movingTask.right) {
-			assertEquals("Left value does not equal target right - 1",
-					targetTask.right - 1, (long) newone.left);
-			assertEquals("Right value does not equal target", targetTask.right,
-					newone.right);
+			assertEquals("Moved task should be right after target",
+					targetTask._id, newtasks.get(newPos - 1)._id);
 		}
+		assertEquals("Moved task should end up at target index", toPos,
+				newPos);
 
 		assertEquals("Width should be 1 after a move", 1, newone.right
 				- newone.left);
@@ -422,6 +394,73 @@ public class DBProviderMovementTest extends AndroidTestCase {
 		deleteList(tl);
 	}
 
+	public void testMoveIntoSameGapRebalances() {
+		// Every move halves the gap before the target, so this will
+		// run out of room several times and force rebalancing
+		final TaskList tl = insertList();
+		int count = 5;
+		insertTasks(tl._id, count);
+
+		for (int i = 0; i < 64; i++) {
+			moveAndAssert(tl, count - 1, 1);
+		}
+
+		deleteList(tl);
+	}
+
+	public void testInsertGoesOnTop() {
+		final TaskList tl = insertList();
+		ArrayList<Task> tasks = insertTasks(tl._id, 5);
+		ArrayList<Task> ordered = getTasks(tl._id);
+		for (int i = 0; i < tasks.size(); i++) {
+			assertEquals("Newest task should be first",
+					tasks.get(tasks.size() - 1 - i)._id, ordered.get(i)._id);
+		}
+		deleteList(tl);
+	}
+
+	public void testCorruptPositionsAreRejected() {
+		final TaskList tl = insertList();
+		insertTasks(tl._id, 3);
+		// Read back to get the positions
+		final ArrayList<Task> tasks = getTasks(tl._id);
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getWritableDatabase();
+		final String[] id = new String[] { Long.toString(tasks.get(0)._id) };
+		final Task other = tasks.get(1);
+
+		final ContentValues values = new ContentValues();
+		// Same position as another task
+		values.put(Task.Columns.LEFT, other.left);
+		values.put(Task.Columns.RIGHT, other.right);
+		assertUpdateFails(db, values, id);
+		// Overlapping another task
+		values.put(Task.Columns.LEFT, other.left - 1);
+		values.put(Task.Columns.RIGHT, other.left);
+		assertUpdateFails(db, values, id);
+		// Wrong width
+		values.put(Task.Columns.LEFT, other.right + 5);
+		values.put(Task.Columns.RIGHT, other.right + 10);
+		assertUpdateFails(db, values, id);
+
+		assertTaskLeftRightAreSequential(tl._id);
+		Task.verifyPositions(db, tl._id);
+
+		deleteList(tl);
+	}
+
+	private void assertUpdateFails(final SQLiteDatabase db,
+			final ContentValues values, final String[] id) {
+		boolean failed = false;
+		try {
+			db.update(Task.TABLE_NAME, values, Task.Columns._ID + " = ?", id);
+		}
+		catch (SQLiteConstraintException e) {
+			failed = true;
+		}
+		assertTrue("Corrupt position was accepted: " + values, failed);
+	}
+
 	public void testMoveTaskToList() {
 		final TaskList tl = insertList();
 		final TaskList tl2 = insertList();
@@ -462,6 +501,53 @@ public class DBProviderMovementTest extends AndroidTestCase {
 		deleteList(tl2);
 	}
 
+	public void testMoveManyToListKeepsOrder() {
+		final TaskList tl = insertList();
+		final TaskList tl2 = insertList();
+		insertTasks(tl._id, 200);
+		insertTasks(tl2._id, 5);
+		final ArrayList<Task> from = getTasks(tl._id);
+		final ArrayList<Task> to = getTasks(tl2._id);
+
+		// Every other task, top to bottom
+		final ArrayList<Long> moved = new ArrayList<Long>();
+		for (int i = 0; i < from.size(); i += 2) {
+			moved.add(from.get(i)._id);
+		}
+		final long[] ids = new long[moved.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = moved.get(i);
+		}
+		final String whereId = new StringBuilder(Task.Columns._ID)
+				.append(" IN (").append(DAO.arrayToCommaString(ids))
+				.append(")").toString();
+
+		assertEquals(ids.length, resolver.update(
+				Task.getMoveToListUri(tl2._id), new ContentValues(), whereId,
+				null));
+		// Already there, nothing to do
+		assertEquals(0, resolver.update(Task.getMoveToListUri(tl2._id),
+				new ContentValues(), whereId, null));
+
+		assertTaskLeftRightAreSequential(tl._id);
+		assertTaskLeftRightAreSequential(tl2._id);
+		assertTasksCountIs(tl._id, from.size() - ids.length);
+
+		// Moved ones on top in their old order, then the ones already there
+		final ArrayList<Task> result = getTasks(tl2._id);
+		assertEquals(ids.length + to.size(), result.size());
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(ids[i], result.get(i)._id);
+		}
+		for (int i = 0; i < to.size(); i++) {
+			assertEquals(to.get(i)._id, result.get(ids.length + i)._id);
+		}
+
+		// Clean up
+		deleteList(tl);
+		deleteList(tl2);
+	}
+
 //	public void testIndents() {
 //		final TaskList tl = insertList();
 //		int count = 7;
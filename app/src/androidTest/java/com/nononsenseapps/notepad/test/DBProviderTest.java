@@ -4,12 +4,20 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.MediumTest;
@@ -120,4 +128,253 @@ public class DBProviderTest extends AndroidTestCase {
 				Task.Columns.HISTORY_COLUMNS, Task.Columns.HIST_TASK_ID
 						+ " IS ?", new String[] { Long.toString(t._id) }, 0);
 	}
+
+	private Long getOpenCount(final TaskList list) {
+		final Cursor c = resolver.query(TaskList.URI_WITH_COUNT,
+				new String[] { TaskList.Columns.VIEW_COUNT },
+				TaskList.Columns._ID + " = ?",
+				new String[] { Long.toString(list._id) }, null);
+		try {
+			assertTrue(c.moveToFirst());
+			return c.isNull(0) ? null : c.getLong(0);
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	@MediumTest
+	public void testListCounts() {
+		final TaskList list = getNewList();
+		final TaskList other = getNewList();
+		assertNull(getOpenCount(list));
+
+		final List<Task> tasks = insertSomeTasks(list, 3);
+		assertEquals(Long.valueOf(3), getOpenCount(list));
+
+		// Completing and uncompleting
+		Task t = tasks.get(0);
+		t.completed = Calendar.getInstance().getTimeInMillis();
+		t.save(context);
+		assertEquals(Long.valueOf(2), getOpenCount(list));
+		t.completed = null;
+		t.save(context);
+		assertEquals(Long.valueOf(3), getOpenCount(list));
+
+		// Moving to another list
+		t.dblist = other._id;
+		t.save(context);
+		assertEquals(Long.valueOf(2), getOpenCount(list));
+		assertEquals(Long.valueOf(1), getOpenCount(other));
+
+		// Completed tasks do not count when deleted
+		t = tasks.get(1);
+		t.completed = Calendar.getInstance().getTimeInMillis();
+		t.save(context);
+		t.delete(context);
+		tasks.get(2).delete(context);
+		assertNull(getOpenCount(list));
+
+		list.delete(context);
+		other.delete(context);
+	}
+
+	/**
+	 * The provider only checks the rows it writes, see Task.verifyPositions
+	 */
+	private void verifyPositions(final long listId) {
+		Task.verifyPositions(DatabaseHandler.getInstance(context)
+				.getReadableDatabase(), listId);
+	}
+
+	@MediumTest
+	public void testBulkInsert() {
+		final TaskList list = getNewList();
+		final int taskCount = 50;
+		final ContentValues[] values = new ContentValues[taskCount];
+		for (int i = 0; i < taskCount; i++) {
+			Task t = new Task();
+			t.title = "bulkTask" + i;
+			t.dblist = list._id;
+			values[i] = t.getContent();
+		}
+
+		assertEquals(taskCount, resolver.bulkInsert(Task.URI, values));
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(list._id) }, taskCount);
+		verifyPositions(list._id);
+
+		// A failing row should roll back the entire batch
+		final Task bad = new Task();
+		bad.title = "bulkTaskBad";
+		bad.dblist = 92525L;
+		values[taskCount - 1] = bad.getContent();
+		assertEquals(0, resolver.bulkInsert(Task.URI, values));
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(list._id) }, taskCount);
+		verifyPositions(list._id);
+
+		list.delete(context);
+	}
+
+	private int count(final Uri uri, final String where,
+			final String... whereArgs) {
+		final Cursor c = resolver.query(uri,
+				new String[] { Task.Columns._ID }, where, whereArgs, null);
+		try {
+			return c.getCount();
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	private long getSchemaVersion() {
+		return DatabaseUtils.longForQuery(DatabaseHandler.getInstance(context)
+				.getReadableDatabase(), "PRAGMA schema_version", null);
+	}
+
+	@MediumTest
+	public void testDeleteCompletedInBulk() {
+		final TaskList list = getNewList();
+		final String listId = Long.toString(list._id);
+		final int open = 20;
+		final int completed = 100;
+		final ContentValues[] values = new ContentValues[open + completed];
+		for (int i = 0; i < values.length; i++) {
+			Task t = new Task();
+			t.title = "bulkdeleted" + (i < completed ? " finished" : " open");
+			t.dblist = list._id;
+			if (i < completed) {
+				t.completed = Calendar.getInstance().getTimeInMillis();
+			}
+			values[i] = t.getContent();
+		}
+		assertEquals(values.length, resolver.bulkInsert(Task.URI, values));
+		assertEquals(completed, count(Task.URI_SEARCH, null, "finished"));
+		final long schemaVersion = getSchemaVersion();
+
+		assertEquals(completed, resolver.delete(Task.URI,
+				Task.Columns.COMPLETED + " IS NOT NULL AND "
+						+ Task.Columns.DBLIST + " = ?",
+				new String[] { listId }));
+
+		assertEquals(open, count(Task.URI, Task.Columns.DBLIST + " IS ?",
+				listId));
+		assertEquals(Long.valueOf(open), getOpenCount(list));
+		// In the trash, and out of the search index
+		assertEquals(completed, count(Task.URI_DELETED_QUERY,
+				Task.Columns.DBLIST + " IS ?", listId));
+		assertEquals(0, count(Task.URI_SEARCH, null, "finished"));
+		assertEquals(open, count(Task.URI_SEARCH, null, "bulkdeleted"));
+
+		// No DDL, compiled statements stay valid
+		assertEquals(schemaVersion, getSchemaVersion());
+
+		// The triggers still work for the next delete
+		resolver.delete(Task.URI, Task.Columns.DBLIST + " = ?",
+				new String[] { listId });
+		assertEquals(open + completed, count(Task.URI_DELETED_QUERY,
+				Task.Columns.DBLIST + " IS ?", listId));
+		assertEquals(0, count(Task.URI_SEARCH, null, "bulkdeleted"));
+
+		resolver.delete(Task.URI_DELETED_QUERY, Task.Columns.DBLIST + " IS ?",
+				new String[] { listId });
+		list.delete(context);
+	}
+
+	@MediumTest
+	public void testApplyBatch() throws Exception {
+		final TaskList list = getNewList();
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+
+		Task t = new Task();
+		t.title = "batchTask";
+		t.dblist = list._id;
+		ops.add(ContentProviderOperation.newInsert(Task.URI)
+				.withValues(t.getContent()).build());
+		Notification n = new Notification(-1);
+		n.time = Calendar.getInstance().getTimeInMillis();
+		final ContentValues nValues = n.getContent();
+		nValues.remove(Notification.Columns.TASKID);
+		ops.add(ContentProviderOperation.newInsert(Notification.URI)
+				.withValues(nValues)
+				.withValueBackReference(Notification.Columns.TASKID, 0)
+				.build());
+
+		final ContentProviderResult[] results = resolver.applyBatch(
+				MyContentProvider.AUTHORITY, ops);
+		assertEquals(2, results.length);
+		final long taskId = Long.parseLong(results[0].uri
+				.getLastPathSegment());
+		assertUriReturnsResult(Notification.URI, Notification.Columns.FIELDS,
+				Notification.Columns.TASKID + " IS ?",
+				new String[] { Long.toString(taskId) }, 1);
+
+		// Faulty operation means nothing is committed
+		ops.clear();
+		ops.add(ContentProviderOperation.newInsert(Task.URI)
+				.withValues(t.getContent()).build());
+		ops.add(ContentProviderOperation.newUpdate(Task.getUri(taskId))
+				.withValues(t.getContent()).withExpectedCount(2).build());
+		boolean thrown = false;
+		try {
+			resolver.applyBatch(MyContentProvider.AUTHORITY, ops);
+		}
+		catch (OperationApplicationException e) {
+			thrown = true;
+		}
+		assertTrue("Batch should have failed", thrown);
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(list._id) }, 1);
+		verifyPositions(list._id);
+
+		list.delete(context);
+	}
+
+	private String getListNote(final Task t) {
+		final Cursor c = resolver.query(Task.getListUri(t.dblist),
+				Task.Columns.LIST_FIELDS, Task.Columns._ID + " = ?",
+				new String[] { Long.toString(t._id) }, null);
+		try {
+			assertTrue(c.moveToFirst());
+			return new Task(c).note;
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	@MediumTest
+	public void testNotePreview() {
+		final TaskList list = getNewList();
+		final StringBuilder note = new StringBuilder();
+		while (note.length() < 3 * Task.PREVIEW_LENGTH) {
+			note.append("A line of a long note\n");
+		}
+		final Task t = new Task();
+		t.dblist = list._id;
+		t.title = "preview";
+		t.note = note.toString();
+		t.save(context);
+
+		assertEquals(note.substring(0, Task.PREVIEW_LENGTH), getListNote(t));
+
+		t.note = "short";
+		t.save(context);
+		assertEquals("short", getListNote(t));
+
+		// Locked notes are not shown in lists
+		t.locked = true;
+		t.save(context);
+		assertEquals("", getListNote(t));
+		t.locked = false;
+		t.save(context);
+		assertEquals("short", getListNote(t));
+
+		list.delete(context);
+	}
 }
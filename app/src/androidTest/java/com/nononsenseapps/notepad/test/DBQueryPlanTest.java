@@ -0,0 +1,163 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.RemoteTaskList;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import android.app.SearchManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+/**
+ * Runs the query of every URI code in MyContentProvider.query through
+ * EXPLAIN QUERY PLAN and makes sure none of them scan the big tables.
+ */
+public class DBQueryPlanTest extends AndroidTestCase {
+
+	// These grow with the number of tasks
+	private static final List<String> BIG_TABLES = Arrays.asList(
+			Task.TABLE_NAME, Task.HISTORY_TABLE_NAME, Notification.TABLE_NAME,
+			RemoteTask.TABLE_NAME);
+
+	// Newer SQLite versions drop the TABLE keyword
+	private static final Pattern SCAN = Pattern
+			.compile("^SCAN (?:TABLE )?(\\w+)(.*)$");
+
+	private Context context;
+	private ContentResolver resolver;
+	private final ArrayList<String> queries = new ArrayList<String>();
+	private final DatabaseHandler.QueryListener recorder = new DatabaseHandler.QueryListener() {
+		@Override
+		public void onQuery(String sql) {
+			synchronized (queries) {
+				queries.add(sql);
+			}
+		}
+	};
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		resolver = context.getContentResolver();
+		DatabaseHandler.setQueryListener(recorder);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		DatabaseHandler.setQueryListener(null);
+		super.tearDown();
+	}
+
+	private void assertNoBigScans(final Uri uri, final String[] projection,
+			final String where, final String... whereArgs) {
+		synchronized (queries) {
+			queries.clear();
+		}
+		final Cursor c = resolver.query(uri, projection, where,
+				whereArgs.length == 0 ? null : whereArgs, null);
+		assertNotNull("Query returned null: " + uri, c);
+		c.close();
+
+		final ArrayList<String> sqls;
+		synchronized (queries) {
+			sqls = new ArrayList<String>(queries);
+		}
+		assertFalse("No query was recorded for " + uri, sqls.isEmpty());
+
+		// Don't record the explains
+		DatabaseHandler.setQueryListener(null);
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getReadableDatabase();
+		try {
+			for (String sql : sqls) {
+				final Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql,
+						null);
+				final int detail = plan.getColumnIndex("detail");
+				while (plan.moveToNext()) {
+					final Matcher m = SCAN.matcher(plan.getString(detail));
+					// Scanning a covering index only reads the index
+					if (m.matches() && BIG_TABLES.contains(m.group(1))
+							&& !m.group(2).contains("COVERING INDEX")) {
+						fail(uri + " scans " + m.group(1) + ": "
+								+ plan.getString(detail) + "\n" + sql);
+					}
+				}
+				plan.close();
+			}
+		}
+		finally {
+			DatabaseHandler.setQueryListener(recorder);
+		}
+	}
+
+	@MediumTest
+	public void testQueryPlans() {
+		final String id = "1";
+		final String[] list = { id };
+
+		assertNoBigScans(TaskList.URI, TaskList.Columns.FIELDS, null);
+		assertNoBigScans(TaskList.getUri(1), TaskList.Columns.FIELDS, null);
+		assertNoBigScans(TaskList.URI_WITH_COUNT, TaskList.Columns.FIELDS,
+				null);
+
+		assertNoBigScans(Task.URI, Task.Columns.FIELDS, Task.Columns.DBLIST
+				+ " = ?", list);
+		assertNoBigScans(Task.getUri(1), Task.Columns.FIELDS, null);
+		assertNoBigScans(Task.URI, Task.Columns.FIELDS, Task.Columns.DBLIST
+				+ " = ? AND " + Task.Columns.COMPLETED + " IS NULL", list);
+		assertNoBigScans(Task.URI_SECTIONED_BY_DATE, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " = ?", list);
+		assertNoBigScans(Task.URI_TASK_HISTORY,
+				Task.Columns.HISTORY_COLUMNS_UPDATED, Task.Columns.HIST_TASK_ID
+						+ " = ?", id);
+		assertNoBigScans(Task.URI_DELETED_QUERY, Task.Columns.DELETEFIELDS,
+				null, "test");
+		assertNoBigScans(Task.URI_SEARCH, Task.Columns.FIELDS, null, "test");
+		assertNoBigScans(
+				Uri.parse("content://" + MyContentProvider.AUTHORITY + "/"
+						+ SearchManager.SUGGEST_URI_PATH_QUERY), null, null,
+				"test");
+
+		assertNoBigScans(Notification.URI, Notification.Columns.FIELDS,
+				Notification.Columns.TASKID + " = ?", id);
+		assertNoBigScans(Notification.getUri(1), Notification.Columns.FIELDS,
+				null);
+		assertNoBigScans(Notification.URI_WITH_TASK_PATH, null,
+				Notification.Columns.TIME + " <= ? AND "
+						+ Notification.Columns.RADIUS + " IS NULL", id);
+		assertNoBigScans(
+				Uri.withAppendedPath(Notification.URI_WITH_TASK_PATH, id),
+				null, null);
+
+		assertNoBigScans(RemoteTaskList.URI, RemoteTaskList.Columns.FIELDS,
+				RemoteTaskList.Columns.SERVICE + " = ? AND "
+						+ RemoteTaskList.Columns.ACCOUNT + " = ?", "service",
+				"account");
+		assertNoBigScans(RemoteTask.URI, RemoteTask.Columns.FIELDS,
+				RemoteTask.Columns.SERVICE + " = ? AND "
+						+ RemoteTask.Columns.ACCOUNT + " = ? AND "
+						+ RemoteTask.Columns.LISTDBID + " = ?", "service",
+				"account", id);
+		assertNoBigScans(RemoteTask.URI, RemoteTask.Columns.FIELDS,
+				RemoteTask.Columns.DBID + " = ?", id);
+
+		// The legacy task URIs return every task by design and are not
+		// checked here.
+	}
+}
@@ -0,0 +1,162 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.HashMap;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.util.LongMap;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Heap churn of loading 20k tasks as objects in a HashMap, as objects in a
+ * LongMap, and with a row reader. In memory, with the task columns only.
+ */
+public class DBRowReaderBenchmarkTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+	private static final int TASKS = 20000;
+
+	private SQLiteDatabase db;
+
+	// Per run
+	private long allocs;
+	private long allocBytes;
+	private long millis;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		db = SQLiteDatabase.create(null);
+		db.execSQL("CREATE TABLE " + Task.TABLE_NAME + " ("
+				+ Task.Columns._ID + " INTEGER PRIMARY KEY, "
+				+ Task.Columns.TITLE + " TEXT, " + Task.Columns.NOTE
+				+ " TEXT, " + Task.Columns.COMPLETED + " INTEGER, "
+				+ Task.Columns.DUE + " INTEGER, " + Task.Columns.UPDATED
+				+ " INTEGER, " + Task.Columns.LEFT + " INTEGER, "
+				+ Task.Columns.RIGHT + " INTEGER, " + Task.Columns.DBLIST
+				+ " INTEGER, " + Task.Columns.LOCKED + " INTEGER)");
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO "
+				+ Task.TABLE_NAME + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		db.beginTransaction();
+		try {
+			for (int i = 1; i <= TASKS; i++) {
+				insert.bindLong(1, i);
+				insert.bindString(2, "task " + i);
+				insert.bindString(3, "note of task " + i);
+				if (i % 3 == 0) {
+					insert.bindLong(4, 1000L * i);
+				}
+				else {
+					insert.bindNull(4);
+				}
+				insert.bindLong(5, 2000L * i);
+				insert.bindLong(6, 3000L * i);
+				insert.bindLong(7, 1000L + 2 * i);
+				insert.bindLong(8, 1001L + 2 * i);
+				insert.bindLong(9, 1 + i % 5);
+				insert.bindLong(10, 0);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+			insert.close();
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	private Cursor query() {
+		final Cursor c = db.query(Task.TABLE_NAME, Task.Columns.FIELDS, null,
+				null, null, null, null);
+		// Fill the window before measuring
+		c.getCount();
+		return c;
+	}
+
+	private void start() {
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		Debug.resetThreadAllocSize();
+		millis = System.currentTimeMillis();
+	}
+
+	private void stop() {
+		millis = System.currentTimeMillis() - millis;
+		allocs = Debug.getThreadAllocCount();
+		allocBytes = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+	}
+
+	private String result(final String what) {
+		return what + ": " + allocs + " allocations, " + allocBytes / 1024
+				+ " kB, " + millis + " ms";
+	}
+
+	@LargeTest
+	public void testLoadTasks() {
+		Cursor c = query();
+		start();
+		final HashMap<Long, Task> hashMap = new HashMap<Long, Task>();
+		while (c.moveToNext()) {
+			final Task task = new Task(c);
+			hashMap.put(task._id, task);
+		}
+		stop();
+		c.close();
+		assertEquals(TASKS, hashMap.size());
+		final long hashAllocs = allocs;
+		Log.d(TAG, result(TASKS + " tasks into HashMap<Long, Task>"));
+
+		c = query();
+		start();
+		final LongMap<Task> longMap = new LongMap<Task>(c.getCount());
+		while (c.moveToNext()) {
+			final Task task = new Task(c);
+			longMap.put(task._id, task);
+		}
+		stop();
+		c.close();
+		assertEquals(TASKS, longMap.size());
+		final long longMapAllocs = allocs;
+		Log.d(TAG, result(TASKS + " tasks into LongMap<Task>"));
+
+		// What the dashclock extension does: look at due and completed, and
+		// only keep a few
+		c = query();
+		start();
+		final Task.Reader reader = new Task.Reader(c);
+		final LongMap<Task> kept = new LongMap<Task>();
+		long dueSum = 0;
+		while (reader.moveToNext()) {
+			if (reader.isCompleted()) {
+				continue;
+			}
+			dueSum += reader.getDue();
+			if (reader.getId() % 1000 == 0) {
+				kept.put(reader.getId(), reader.readInto(new Task()));
+			}
+		}
+		stop();
+		reader.close();
+		assertTrue(dueSum > 0);
+		Log.d(TAG, result(TASKS + " tasks with Task.Reader, " + kept.size()
+				+ " kept"));
+
+		assertTrue("LongMap " + longMapAllocs + " vs HashMap " + hashAllocs,
+				longMapAllocs < hashAllocs);
+		assertTrue("Reader " + allocs + " vs objects " + longMapAllocs,
+				allocs * 10 < longMapAllocs);
+	}
+}
@@ -0,0 +1,123 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.Random;
+
+import com.nononsenseapps.notepad.database.Task;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Compares the old FTS3 search table, which kept its own copy of every note,
+ * with the FTS4 index on the task table. Both are built in memory from the
+ * same 50 000 notes.
+ */
+public class DBSearchBenchmarkTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+	private static final int NOTES = 50000;
+	private static final String[] WORDS = { "milk", "bread", "meeting",
+			"call", "dentist", "invoice", "garden", "birthday", "report",
+			"train", "tickets", "laundry", "groceries", "project", "review",
+			"holiday", "pharmacy", "library", "taxes", "insurance" };
+	private static final String[] QUERIES = { "milk*", "me*", "dentist* call*",
+			"ta*", "in* re*" };
+
+	private SQLiteDatabase createTasks() {
+		final SQLiteDatabase db = SQLiteDatabase.create(null);
+		for (String table : new String[] { Task.TABLE_NAME,
+				Task.DELETE_TABLE_NAME }) {
+			db.execSQL("CREATE TABLE " + table + " (" + Task.Columns._ID
+					+ " INTEGER PRIMARY KEY, " + Task.Columns.TITLE + " TEXT, "
+					+ Task.Columns.NOTE + " TEXT)");
+		}
+
+		final Random random = new Random(1);
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO "
+				+ Task.TABLE_NAME + " (" + Task.Columns.TITLE + ", "
+				+ Task.Columns.NOTE + ") VALUES (?, ?)");
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < NOTES; i++) {
+				insert.bindString(1, WORDS[random.nextInt(WORDS.length)] + " "
+						+ i);
+				final StringBuilder note = new StringBuilder();
+				for (int w = 0; w < 40; w++) {
+					note.append(WORDS[random.nextInt(WORDS.length)])
+							.append(' ');
+				}
+				insert.bindString(2, note.toString());
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+		insert.close();
+		return db;
+	}
+
+	private static long sizeOf(final SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+				* DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+	}
+
+	/**
+	 * Returns the average latency of the queries in microseconds
+	 */
+	private static long timeQueries(final SQLiteDatabase db, final String sql) {
+		final long start = System.nanoTime();
+		for (String query : QUERIES) {
+			final Cursor c = db.rawQuery(sql, new String[] { query });
+			assertTrue(c.getCount() > 0);
+			c.close();
+		}
+		return (System.nanoTime() - start) / QUERIES.length / 1000;
+	}
+
+	@LargeTest
+	public void testExternalContentIndex() {
+		final SQLiteDatabase fts3 = createTasks();
+		final long tasksOnly = sizeOf(fts3);
+		fts3.execSQL("CREATE VIRTUAL TABLE fts3_task USING FTS3("
+				+ Task.Columns._ID + ", " + Task.Columns.TITLE + ", "
+				+ Task.Columns.NOTE + ")");
+		fts3.execSQL("INSERT INTO fts3_task SELECT " + Task.Columns._ID + ", "
+				+ Task.Columns.TITLE + ", " + Task.Columns.NOTE + " FROM "
+				+ Task.TABLE_NAME);
+		final long fts3Size = sizeOf(fts3) - tasksOnly;
+		final long fts3Latency = timeQueries(fts3, "SELECT * FROM "
+				+ Task.TABLE_NAME + " WHERE " + Task.Columns._ID + " IN (SELECT "
+				+ Task.Columns._ID + " FROM fts3_task WHERE fts3_task MATCH ?)");
+		fts3.close();
+
+		final SQLiteDatabase fts4 = createTasks();
+		final boolean external = Task.supportsExternalContent(fts4);
+		Task.createSearchTables(fts4);
+		final long fts4Size = sizeOf(fts4) - tasksOnly;
+		final long fts4Latency = timeQueries(fts4, "SELECT " + Task.TABLE_NAME
+				+ ".*, snippet(" + Task.FTS_TABLE_NAME + "), matchinfo("
+				+ Task.FTS_TABLE_NAME + ", 'pcx') FROM " + Task.TABLE_NAME
+				+ " JOIN " + Task.FTS_TABLE_NAME + " ON " + Task.TABLE_NAME + "."
+				+ Task.Columns._ID + " = " + Task.FTS_TABLE_NAME
+				+ ".docid WHERE " + Task.FTS_TABLE_NAME + " MATCH ?");
+		fts4.close();
+
+		Log.d(TAG, "search index for " + NOTES + " notes: FTS3 " + fts3Size
+				/ 1024 + " kB, " + fts3Latency + " us per query; FTS4"
+				+ (external ? " external content " : " ") + fts4Size / 1024
+				+ " kB, " + fts4Latency + " us per query");
+
+		if (external) {
+			// The notes are no longer stored twice
+			assertTrue("FTS4 index " + fts4Size + " not smaller than FTS3 "
+					+ fts3Size, fts4Size < fts3Size);
+		}
+	}
+}
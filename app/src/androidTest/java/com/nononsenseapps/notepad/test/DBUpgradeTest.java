@@ -1,9 +1,11 @@
 package com.nononsenseapps.notepad.test;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.DatabaseHandler.MigrationListener;
 import com.nononsenseapps.notepad.database.LegacyDBHelper;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
 import com.nononsenseapps.notepad.database.Notification;
@@ -14,10 +16,13 @@ import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
+import android.util.Log;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -33,6 +38,98 @@ public class DBUpgradeTest extends AndroidTestCase {
 
 	private Context context;
 
+	/*
+	 * The schema of version 15, the last one with dense positions, as its
+	 * onCreate made it. The renumbering triggers for deletes and list moves
+	 * are left out, the upgrade drops them before they could matter.
+	 */
+	private static final String[] VERSION_15 = {
+			"CREATE TABLE tasklist(_id INTEGER PRIMARY KEY,title TEXT NOT "
+					+ "NULL DEFAULT '',updated INTEGER,tasktype TEXT DEFAULT "
+					+ "NULL,sorting TEXT DEFAULT NULL)",
+			"CREATE TABLE task(_id INTEGER PRIMARY KEY,title TEXT NOT "
+					+ "NULL DEFAULT '',note TEXT NOT NULL DEFAULT '',completed "
+					+ "INTEGER DEFAULT NULL,updated INTEGER DEFAULT NULL,due "
+					+ "INTEGER DEFAULT NULL,locked INTEGER NOT NULL DEFAULT 0,lft "
+					+ "INTEGER NOT NULL DEFAULT 1,rgt INTEGER NOT NULL DEFAULT "
+					+ "2,dblist INTEGER NOT NULL, CHECK(lft > 0), CHECK(rgt > 1), "
+					+ "FOREIGN KEY(dblist) REFERENCES tasklist(_id) ON DELETE "
+					+ "CASCADE)",
+			"CREATE TABLE deleted_task(_id INTEGER PRIMARY KEY,title TEXT "
+					+ "NOT NULL DEFAULT '',note TEXT NOT NULL DEFAULT '',completed "
+					+ "INTEGER DEFAULT NULL,due INTEGER DEFAULT NULL,dblist INTEGER "
+					+ "DEFAULT NULL,deletedtime TIMESTAMP NOT NULL DEFAULT "
+					+ "current_timestamp)",
+			"CREATE TABLE history(_id INTEGER PRIMARY KEY,taskid INTEGER "
+					+ "NOT NULL,title TEXT NOT NULL DEFAULT '',note TEXT NOT NULL "
+					+ "DEFAULT '',updated TIMESTAMP NOT NULL DEFAULT "
+					+ "current_timestamp, FOREIGN KEY(taskid ) REFERENCES task ( "
+					+ "_id) ON DELETE CASCADE )",
+			"CREATE TABLE remotetasklist(_id INTEGER PRIMARY KEY,account "
+					+ "TEXT NOT NULL,service TEXT NOT NULL,dbid INTEGER NOT "
+					+ "NULL,updated INTEGER NOT NULL,remoteid TEXT NOT NULL,field1 "
+					+ "TEXT,field2 TEXT,field3 TEXT,field4 TEXT,field5 TEXT)",
+			"CREATE TABLE remotetask(_id INTEGER PRIMARY KEY,account TEXT "
+					+ "NOT NULL,service TEXT NOT NULL,dbid INTEGER NOT NULL,updated "
+					+ "INTEGER NOT NULL,remoteid TEXT NOT NULL,listdbid INTEGER NOT "
+					+ "NULL,field1 TEXT,field2 TEXT,field3 TEXT,field4 TEXT,field5 "
+					+ "TEXT)",
+			"CREATE TABLE notification(_id INTEGER PRIMARY KEY,time "
+					+ "INTEGER,permanent INTEGER NOT NULL DEFAULT 0,taskid "
+					+ "INTEGER,repeats INTEGER NOT NULL DEFAULT 0,locationname "
+					+ "TEXT,latitude REAL, longitude REAL, radius REAL, FOREIGN "
+					+ "KEY(taskid) REFERENCES task(_id) ON DELETE CASCADE)",
+			"CREATE TRIGGER task_pre_insert BEFORE INSERT ON task BEGIN "
+					+ "UPDATE task SET rgt = rgt + 2, lft = lft + 2 WHERE lft >= "
+					+ "new.lft AND dblist IS new.dblist; END;",
+			"CREATE TRIGGER task_pre_delete BEFORE DELETE ON task BEGIN "
+					+ "INSERT INTO deleted_task (title,note,completed,due,dblist) "
+					+ "VALUES(old.title,old.note,old.completed,old.due,old.dblist); "
+					+ "END;",
+			"CREATE TRIGGER trigger_insert_history AFTER INSERT ON task "
+					+ "BEGIN INSERT INTO history (taskid,title,note) VALUES "
+					+ "(new._id,new.title,new.note); END;",
+			"CREATE TRIGGER trigger_update_history AFTER UPDATE OF "
+					+ "title,note ON task WHEN old.title IS NOT new.title OR "
+					+ "old.note IS NOT new.note BEGIN INSERT INTO history "
+					+ "(taskid,title,note) VALUES (new._id,new.title,new.note); "
+					+ "END;",
+			"CREATE TRIGGER cascade_trigger_delete_remotetask AFTER "
+					+ "DELETE ON remotetasklist BEGIN DELETE FROM remotetask WHERE "
+					+ "listdbid IS old.dbid AND account IS old.account AND service "
+					+ "IS old.service; END;",
+			"CREATE TRIGGER trigger_real_deletemark_remotetask AFTER "
+					+ "DELETE ON task BEGIN UPDATE remotetask SET field1 = "
+					+ "'deleted' WHERE dbid IS old._id; END;",
+			"CREATE TRIGGER trigger_real_deletemark_remotetasklist AFTER "
+					+ "DELETE ON tasklist BEGIN UPDATE remotetasklist SET field1 = "
+					+ "'deleted' WHERE dbid IS old._id; END;",
+			"CREATE TRIGGER trigger_move_list_remotetask AFTER UPDATE OF "
+					+ "dblist ON task WHEN old.dblist IS NOT new.dblist BEGIN "
+					+ "UPDATE remotetask SET field1 = 'deleted', dbid = -99 WHERE "
+					+ "dbid IS old._id; END;",
+			"CREATE VIRTUAL TABLE fts3_task USING FTS3(_id, title, note);",
+			"CREATE TRIGGER task_fts3_insert AFTER INSERT ON task BEGIN "
+					+ "INSERT INTO fts3_task (_id,title,note) VALUES "
+					+ "(new._id,new.title,new.note); END;",
+			"CREATE TRIGGER task_fts3_update AFTER UPDATE OF title,note "
+					+ "ON task BEGIN UPDATE fts3_task SET title = new.title,note = "
+					+ "new.note WHERE _id IS new._id; END;",
+			"CREATE TRIGGER task_fts3_delete AFTER DELETE ON task BEGIN "
+					+ "DELETE FROM fts3_task WHERE _id IS old._id; END;",
+			"CREATE VIRTUAL TABLE fts3_deleted_task USING FTS3(_id, "
+					+ "title, note);",
+			"CREATE TRIGGER deletedtask_fts3_insert AFTER INSERT ON "
+					+ "deleted_task BEGIN INSERT INTO fts3_deleted_task "
+					+ "(_id,title,note) VALUES (new._id,new.title,new.note); END;",
+			"CREATE TRIGGER deletedtask_fts3_update AFTER UPDATE OF "
+					+ "title,note ON deleted_task BEGIN UPDATE fts3_deleted_task "
+					+ "SET title = new.title,note = new.note WHERE _id IS new._id; "
+					+ "END;",
+			"CREATE TRIGGER deletedtask_fts3_delete AFTER DELETE ON "
+					+ "deleted_task BEGIN DELETE FROM fts3_deleted_task WHERE _id "
+					+ "IS old._id; END;" };
+
 	@Override
 	public void setUp() throws Exception {
 		super.setUp();
@@ -251,6 +348,42 @@ public class DBUpgradeTest extends AndroidTestCase {
 
 	@MediumTest
 	public void testExistingUpgrade() {
+		upgrade();
+	}
+
+	/**
+	 * 20 000 notes in 4 lists
+	 */
+	@LargeTest
+	public void testLargeUpgrade() {
+		numOfLegacyLists = 4;
+		numOfLegacyNotes = 5000;
+		final int[] progress = new int[2];
+		DatabaseHandler.setMigrationListener(new MigrationListener() {
+			@Override
+			public void onProgress(int notesCopied, int notesTotal) {
+				assertTrue(notesCopied >= progress[0]);
+				progress[0] = notesCopied;
+				progress[1] = notesTotal;
+			}
+		});
+		try {
+			final long millis = upgrade();
+			Log.d("nononsenseapps benchmark", "Copied "
+					+ (numOfLegacyLists * numOfLegacyNotes)
+					+ " legacy notes in " + millis + " ms");
+		}
+		finally {
+			DatabaseHandler.setMigrationListener(null);
+		}
+		assertEquals(numOfLegacyLists * numOfLegacyNotes, progress[0]);
+		assertEquals(numOfLegacyLists * numOfLegacyNotes, progress[1]);
+	}
+
+	/**
+	 * Returns the time it took to open the new database
+	 */
+	private long upgrade() {
 		// First delete test databases if they exist
 		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
 		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
@@ -277,7 +410,9 @@ public class DBUpgradeTest extends AndroidTestCase {
 		c.close();
 
 		// Check that new database correctly converts old
+		final long start = System.currentTimeMillis();
 		final SQLiteDatabase db = new DatabaseHandler(context, PREFIX).getReadableDatabase();
+		final long millis = System.currentTimeMillis() - start;
 		
 		c = db.query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS, null, null,
 				null, null, null);
@@ -302,6 +437,21 @@ public class DBUpgradeTest extends AndroidTestCase {
 		// TODO examine details
 		c.close();
 
+		// What the triggers do for new tasks
+		Task.verifyAllPositions(db);
+		assertEquals(numOfLegacyLists * numOfLegacyNotes,
+				DatabaseUtils.queryNumEntries(db, Task.HISTORY_TABLE_NAME));
+		assertEquals(numOfLegacyLists * numOfLegacyNotes,
+				DatabaseUtils.longForQuery(db, "SELECT SUM("
+						+ TaskList.Columns.OPEN_COUNT + ") FROM "
+						+ TaskList.TABLE_NAME, null));
+		assertEquals(0, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME,
+				Task.Columns.PREVIEW + " != " + Task.Columns.NOTE));
+		assertEquals(numOfLegacyLists * numOfLegacyNotes,
+				DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+						+ Task.FTS_TABLE_NAME + " WHERE "
+						+ Task.FTS_TABLE_NAME + " MATCH 'defaulttext'", null));
+
 		db.close();
 		legacyDB.close();
 		
@@ -311,5 +461,105 @@ public class DBUpgradeTest extends AndroidTestCase {
 						+ LegacyDBHelper.LEGACY_DATABASE_NAME));
 		assertTrue("Could not delete database",
 				context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME));
+		return millis;
+	}
+
+	private ArrayList<Long> idsByPosition(final SQLiteDatabase db,
+			final long listId) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final Cursor c = db.query(Task.TABLE_NAME,
+				new String[] { Task.Columns._ID }, Task.Columns.DBLIST
+						+ " = ?", new String[] { Long.toString(listId) },
+				null, null, Task.Columns.LEFT);
+		while (c.moveToNext()) {
+			ids.add(c.getLong(0));
+		}
+		c.close();
+		return ids;
+	}
+
+	/**
+	 * Upgrading from version 15 spreads out the dense positions, keeping the
+	 * order of every list, and runs all later steps on the result.
+	 */
+	@MediumTest
+	public void testUpgradeFrom15() {
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		final SQLiteDatabase old = context.openOrCreateDatabase(PREFIX
+				+ DatabaseHandler.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		for (String sql : VERSION_15) {
+			old.execSQL(sql);
+		}
+		final ArrayList<Long> lists = new ArrayList<Long>();
+		final ArrayList<ArrayList<Long>> orders = new ArrayList<ArrayList<Long>>(
+				numOfLegacyLists);
+		final ContentValues values = new ContentValues();
+		int open = 0;
+		for (int i = 0; i < numOfLegacyLists; i++) {
+			values.clear();
+			values.put(TaskList.Columns.TITLE, "List" + i);
+			final long listId = old.insert(TaskList.TABLE_NAME, null, values);
+			assertTrue(listId > 0);
+			lists.add(listId);
+			for (int j = 0; j < numOfLegacyNotes; j++) {
+				values.clear();
+				values.put(Task.Columns.TITLE, "default" + j);
+				values.put(Task.Columns.NOTE, "defaulttext");
+				values.put(Task.Columns.DBLIST, listId);
+				if (j % 2 == 0) {
+					values.put(Task.Columns.COMPLETED,
+							System.currentTimeMillis());
+				}
+				else {
+					open++;
+				}
+				// Left 1, the trigger renumbers the rest like version 15 did
+				assertTrue(old.insert(Task.TABLE_NAME, null, values) > 0);
+			}
+			orders.add(idsByPosition(old, listId));
+		}
+		old.setVersion(15);
+		old.close();
+
+		final SQLiteDatabase db = new DatabaseHandler(context, PREFIX)
+				.getWritableDatabase();
+		try {
+			Task.verifyAllPositions(db);
+			for (int i = 0; i < lists.size(); i++) {
+				assertEquals(orders.get(i), idsByPosition(db, lists.get(i)));
+				assertEquals(Task.POS_BASE, DatabaseUtils.longForQuery(db,
+						"SELECT MIN(" + Task.Columns.LEFT + ") FROM "
+								+ Task.TABLE_NAME + " WHERE "
+								+ Task.Columns.DBLIST + " = ?",
+						new String[] { Long.toString(lists.get(i)) }));
+			}
+			assertEquals(open, DatabaseUtils.longForQuery(db, "SELECT SUM("
+					+ TaskList.Columns.OPEN_COUNT + ") FROM "
+					+ TaskList.TABLE_NAME, null));
+			assertEquals(0, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME,
+					Task.Columns.PREVIEW + " != " + Task.Columns.NOTE));
+			assertEquals(numOfLegacyLists * numOfLegacyNotes,
+					DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+							+ Task.FTS_TABLE_NAME + " WHERE "
+							+ Task.FTS_TABLE_NAME + " MATCH 'defaulttext'",
+							null));
+
+			// Spreading out the already sparse positions again
+			db.beginTransaction();
+			try {
+				Task.rebalanceList(db, lists.get(0));
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+			Task.verifyPositions(db, lists.get(0));
+			assertEquals(orders.get(0), idsByPosition(db, lists.get(0)));
+		}
+		finally {
+			db.close();
+		}
+		assertTrue("Could not delete database",
+				context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME));
 	}
 }
@@ -0,0 +1,58 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import com.nononsenseapps.util.LongMap;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class LongMapTest extends AndroidTestCase {
+
+	@SmallTest
+	public void testSameAsHashMap() {
+		final Random random = new Random(3);
+		final LongMap<String> map = new LongMap<String>();
+		final HashMap<Long, String> expected = new HashMap<Long, String>();
+		for (int i = 0; i < 20000; i++) {
+			// Small range, so there are many removes of present keys
+			final long key = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			else {
+				final String value = "v" + i;
+				assertEquals(expected.put(key, value), map.put(key, value));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (long key = -1000; key < 1000; key++) {
+			assertEquals(expected.get(key), map.get(key));
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+		final long[] keys = map.keys();
+		assertEquals(expected.size(), keys.length);
+		for (long key : keys) {
+			assertTrue(expected.containsKey(key));
+		}
+		assertEquals(expected.size(), map.values().size());
+	}
+
+	@SmallTest
+	public void testLargeIds() {
+		final LongMap<Long> map = new LongMap<Long>(4);
+		for (long i = 0; i < 1000; i++) {
+			map.put(i << 32, i);
+			map.put(Long.MIN_VALUE + i, -i);
+		}
+		assertEquals(2000, map.size());
+		for (long i = 0; i < 1000; i++) {
+			assertEquals(Long.valueOf(i), map.get(i << 32));
+			assertEquals(Long.valueOf(-i), map.get(Long.MIN_VALUE + i));
+		}
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(0));
+	}
+}
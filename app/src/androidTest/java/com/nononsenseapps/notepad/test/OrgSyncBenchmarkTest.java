@@ -0,0 +1,225 @@
+package com.nononsenseapps.notepad.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.RemoteTaskList;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.sync.orgsync.SDSynchronizer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * A full org sync of 100 files against a private directory, with one worker
+ * and with the default number of workers. Times the first import, a sync
+ * after every file was changed outside the app, and a sync after a task in
+ * every list was changed in the app.
+ */
+public class OrgSyncBenchmarkTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+	private static final String ACCOUNT = "orgbenchmark";
+	private static final int FILES = 100;
+	private static final int NODES = 20;
+
+	private Context context;
+	private ContentResolver resolver;
+	private File dir;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		resolver = context.getContentResolver();
+		dir = context.getDir("ORGSYNCBENCHMARK", Context.MODE_PRIVATE);
+		clean();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		clean();
+		super.tearDown();
+	}
+
+	private void clean() {
+		final Cursor c = resolver.query(RemoteTaskList.URI,
+				new String[] { RemoteTaskList.Columns.DBID },
+				RemoteTaskList.Columns.SERVICE + " = ?",
+				new String[] { ACCOUNT }, null);
+		try {
+			while (c.moveToNext()) {
+				// Tasks go with it
+				resolver.delete(TaskList.getUri(c.getLong(0)), null, null);
+			}
+		}
+		finally {
+			c.close();
+		}
+		resolver.delete(RemoteTaskList.URI, RemoteTaskList.Columns.SERVICE
+				+ " = ?", new String[] { ACCOUNT });
+		resolver.delete(RemoteTask.URI, RemoteTask.Columns.SERVICE + " = ?",
+				new String[] { ACCOUNT });
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+	}
+
+	private void writeFiles() throws IOException {
+		for (int i = 0; i < FILES; i++) {
+			final StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < NODES; j++) {
+				sb.append(j % 4 == 0 ? "* DONE " : "* TODO ")
+						.append("Task ").append(j).append(" of file ")
+						.append(i).append('\n');
+				sb.append("  Some notes about task ").append(j)
+						.append(", long enough to look like a real one.\n");
+			}
+			final FileWriter writer = new FileWriter(new File(dir,
+					"benchmark" + i + ".org"));
+			try {
+				writer.write(sb.toString());
+			}
+			finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Adds a node to the end of every file, like an edit outside the app.
+	 */
+	private void appendToFiles() throws IOException {
+		for (int i = 0; i < FILES; i++) {
+			final FileWriter writer = new FileWriter(new File(dir,
+					"benchmark" + i + ".org"), true);
+			try {
+				writer.write("* TODO Added outside the app\n");
+			}
+			finally {
+				writer.close();
+			}
+		}
+	}
+
+	private ArrayList<Long> getLists() {
+		final ArrayList<Long> lists = new ArrayList<Long>();
+		final Cursor c = resolver.query(RemoteTaskList.URI,
+				new String[] { RemoteTaskList.Columns.DBID },
+				RemoteTaskList.Columns.SERVICE + " = ?",
+				new String[] { ACCOUNT }, null);
+		try {
+			while (c.moveToNext()) {
+				lists.add(c.getLong(0));
+			}
+		}
+		finally {
+			c.close();
+		}
+		return lists;
+	}
+
+	private int countTasks(final ArrayList<Long> lists) {
+		int count = 0;
+		for (long list : lists) {
+			final Cursor c = resolver.query(Task.URI,
+					new String[] { Task.Columns._ID }, Task.Columns.DBLIST
+							+ " = ?", new String[] { Long.toString(list) },
+					null);
+			count += c.getCount();
+			c.close();
+		}
+		return count;
+	}
+
+	private long sync(final int workers) throws Exception {
+		final BenchmarkSynchronizer synchronizer = new BenchmarkSynchronizer(
+				context, workers);
+		final long start = System.nanoTime();
+		synchronizer.fullSync();
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private void run(final int workers) throws Exception {
+		clean();
+		writeFiles();
+
+		final long imported = sync(workers);
+		final ArrayList<Long> lists = getLists();
+		assertEquals(FILES, lists.size());
+		assertEquals(FILES * NODES, countTasks(lists));
+
+		// Every file changed by someone else
+		appendToFiles();
+		final long remote = sync(workers);
+		assertEquals(FILES * (NODES + 1), countTasks(lists));
+
+		// A task in every list changed in the app
+		for (long list : lists) {
+			final ContentValues values = new ContentValues();
+			values.put(Task.Columns.TITLE, "Changed in the app");
+			assertEquals(1, resolver.update(Task.URI, values, Task.Columns._ID
+					+ " = (SELECT MIN(" + Task.Columns._ID + ") FROM "
+					+ Task.TABLE_NAME + " WHERE " + Task.Columns.DBLIST
+					+ " = ?)", new String[] { Long.toString(list) }));
+		}
+		final long local = sync(workers);
+
+		Log.d(TAG, FILES + " org files, " + workers + " workers: import "
+				+ imported + " ms, remote changes " + remote
+				+ " ms, local changes " + local + " ms");
+	}
+
+	@LargeTest
+	public void testSync() throws Exception {
+		run(1);
+		run(new BenchmarkSynchronizer(context, 0).getDefaultWorkerCount());
+	}
+
+	class BenchmarkSynchronizer extends SDSynchronizer {
+
+		private final int workers;
+
+		/**
+		 * @param workers Threads to sync with, 0 for the default.
+		 */
+		public BenchmarkSynchronizer(final Context context, final int workers) {
+			super(context);
+			this.workers = workers;
+			ORG_DIR = dir.getPath();
+		}
+
+		@Override
+		public boolean isConfigured() {
+			return true;
+		}
+
+		@Override
+		public String getServiceName() {
+			return ACCOUNT;
+		}
+
+		@Override
+		public String getAccountName() {
+			return ACCOUNT;
+		}
+
+		@Override
+		protected int getWorkerCount() {
+			return workers > 0 ? workers : super.getWorkerCount();
+		}
+
+		public int getDefaultWorkerCount() {
+			return super.getWorkerCount();
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package com.nononsenseapps.notepad.test;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Pair;
 
 import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.RemoteTaskList;
@@ -15,10 +17,16 @@ import com.nononsenseapps.notepad.sync.orgsync.SDSynchronizer;
 
 import org.cowboyprogrammer.org.OrgFile;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test the synchronizer code.
@@ -753,9 +761,273 @@ public class OrgSyncTest extends AndroidTestCase {
         }
     }
 
+    private void sync(final TestSynchronizer synchronizer) {
+        try {
+            synchronizer.fullSync();
+        } catch (Exception e) {
+            assertTrue(e.getLocalizedMessage(), false);
+        }
+    }
+
+    /**
+     * Files and lists which have not changed since the last sync are
+     * neither read nor written.
+     */
+    public void testUnchangedIsSkipped() {
+        testFreshSimple();
+        final TaskList list = getTaskLists().get(0);
+        final File org = new File(DIR, OrgConverter.getTitleAsFilename(list));
+        // Old enough for its modification time to be trusted
+        assertTrue(org.setLastModified(System.currentTimeMillis() - 60000));
+
+        TestSynchronizer synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals("Should compare content once", 1,
+                synchronizer.getGetRemoteCount());
+        assertEquals(0, synchronizer.getPutRemoteCount());
+
+        synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals("Unchanged file should not be read", 0,
+                synchronizer.getGetRemoteCount());
+        assertEquals(0, synchronizer.getPutRemoteCount());
+
+        // A change in the list is synced
+        final Task task = getTasks(list._id).get(0);
+        task.title = "Changed title";
+        task.save(getContext());
+        synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals(1, synchronizer.getGetRemoteCount());
+        assertEquals(1, synchronizer.getPutRemoteCount());
+
+        // A touched file is compared by content, then skipped again
+        assertTrue(org.setLastModified(System.currentTimeMillis() - 60000));
+        synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals(1, synchronizer.getGetRemoteCount());
+        assertEquals(0, synchronizer.getPutRemoteCount());
+        synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals(0, synchronizer.getGetRemoteCount());
+    }
+
+    /**
+     * A file edited while a sync has it read must not be remembered as
+     * unchanged, so the next sync reads it again.
+     */
+    public void testEditAfterReadIsSynced() throws Exception {
+        testFreshSimple();
+        final TaskList list = getTaskLists().get(0);
+        final int taskCount = getTasks(list._id).size();
+        final File org = new File(DIR, OrgConverter.getTitleAsFilename(list));
+        // An edit which only changes the database, so the file is parsed
+        // but not written
+        final TestSynchronizer reader = new TestSynchronizer(getContext());
+        final StringBuilder content = new StringBuilder();
+        final BufferedReader br = reader.getRemoteFile(org.getName());
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                content.append(line.replace("Task1", "Task1 edited"))
+                        .append("\n");
+            }
+        } finally {
+            br.close();
+        }
+        final FileWriter edit = new FileWriter(org);
+        try {
+            edit.write(content.toString());
+        } finally {
+            edit.close();
+        }
+        assertTrue(org.setLastModified(System.currentTimeMillis() - 60000));
+
+        TestSynchronizer synchronizer = new TestSynchronizer(getContext());
+        synchronizer.afterRead = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final FileWriter writer = new FileWriter(org, true);
+                    try {
+                        writer.write("\n* Added after the read\n");
+                    } finally {
+                        writer.close();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                // Old enough to be trusted, but not the stamp that was read
+                assertTrue(org.setLastModified(System.currentTimeMillis()
+                        - 30000));
+            }
+        };
+        sync(synchronizer);
+        assertEquals(1, synchronizer.getGetRemoteCount());
+        assertEquals(0, synchronizer.getPutRemoteCount());
+        final ArrayList<Task> tasks = getTasks(list._id);
+        assertEquals(taskCount, tasks.size());
+        boolean edited = false;
+        for (Task task : tasks) {
+            edited |= "Task1 edited".equals(task.title);
+        }
+        assertTrue(edited);
+
+        synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals("Edited file should be read", 1,
+                synchronizer.getGetRemoteCount());
+        assertEquals(taskCount + 1, getTasks(list._id).size());
+    }
+
+    /**
+     * A task edited after the sync wrote its list must not be remembered as
+     * synced, so the next sync writes it to the file.
+     */
+    public void testEditAfterBatchIsSynced() {
+        testFreshSimple();
+        final TaskList list = getTaskLists().get(0);
+        final ArrayList<Task> tasks = getTasks(list._id);
+        final Task synced = tasks.get(0);
+        synced.title = "Synced title";
+        synced.save(getContext());
+        final Task late = tasks.get(1);
+
+        TestSynchronizer synchronizer = new TestSynchronizer(getContext());
+        synchronizer.afterBatch = new Runnable() {
+            @Override
+            public void run() {
+                late.title = "Late title";
+                // Older than the other edits, like a restored task
+                late.save(getContext(), 1);
+            }
+        };
+        sync(synchronizer);
+        assertEquals(1, synchronizer.getPutRemoteCount());
+
+        synchronizer = new TestSynchronizer(getContext());
+        sync(synchronizer);
+        assertEquals("Late edit should be written", 1,
+                synchronizer.getPutRemoteCount());
+    }
+
+    private RemoteTask newRemote(final long dbid, final long listdbid,
+                                 final String remoteId, final String service) {
+        final RemoteTask remote = new RemoteTask(dbid, listdbid, remoteId,
+                1L, service);
+        remote.service = service;
+        remote.save(getContext());
+        return remote;
+    }
+
+    /**
+     * Tasks come with their remote row of the service, remote rows without
+     * a task in their list come alone.
+     */
+    public void testTasksWithRemotesQuery() {
+        final TaskList list = new TaskList();
+        list.title = "Joined";
+        list.save(getContext());
+        final Task synced = new Task();
+        synced.title = "Synced";
+        synced.dblist = list._id;
+        synced.save(getContext());
+        final Task other = new Task();
+        other.title = "Other service";
+        other.dblist = list._id;
+        other.save(getContext());
+        newRemote(synced._id, list._id, "AAAA", ACCOUNT);
+        newRemote(other._id, list._id, "BBBB", "someoneelse");
+        newRemote(-99, list._id, "CCCC", ACCOUNT);
+
+        final Cursor c = getContext().getContentResolver().query(
+                RemoteTask.getWithTaskUri(ACCOUNT, ACCOUNT),
+                RemoteTask.Columns.WITH_TASK_FIELDS,
+                RemoteTask.Columns.SYNC_LIST + " = ?",
+                new String[]{Long.toString(list._id)}, null);
+        int withRemote = 0;
+        int taskOnly = 0;
+        int remoteOnly = 0;
+        try {
+            while (c.moveToNext()) {
+                assertEquals(list._id, c.getLong(0));
+                final boolean hasTask = !c.isNull(RemoteTask.Columns
+                        .WITH_TASK_TASK_OFFSET);
+                final boolean hasRemote = !c.isNull(RemoteTask.Columns
+                        .WITH_TASK_REMOTE_OFFSET);
+                final Task task = hasTask ? new Task(c, RemoteTask.Columns
+                        .WITH_TASK_TASK_OFFSET) : null;
+                final RemoteTask remote = hasRemote ? new RemoteTask(c,
+                        RemoteTask.Columns.WITH_TASK_REMOTE_OFFSET) : null;
+                if (hasTask && hasRemote) {
+                    withRemote++;
+                    assertEquals(synced._id, task._id);
+                    assertEquals("AAAA", remote.remoteId);
+                } else if (hasTask) {
+                    taskOnly++;
+                    assertEquals(other._id, task._id);
+                } else {
+                    remoteOnly++;
+                    assertEquals("CCCC", remote.remoteId);
+                }
+            }
+        } finally {
+            c.close();
+        }
+        assertEquals(1, withRemote);
+        assertEquals(1, taskOnly);
+        assertEquals(1, remoteOnly);
+    }
+
+    /**
+     * A file is only written if its content changed since it was read, and
+     * then replaced as a whole.
+     */
+    public void testWriteOnlyChanged() throws Exception {
+        testFreshSimple();
+        final TaskList list = getTaskLists().get(0);
+        // So the file is read again
+        list.save(getContext(), list.updated + 1000);
+
+        final TestSynchronizer synchronizer = new TestSynchronizer(getContext());
+        final List<OrgFile> files = synchronizer.readFiles();
+        assertEquals(1, files.size());
+        final OrgFile file = files.get(0);
+
+        synchronizer.putIfChanged(file);
+        assertEquals("Same content should not be written", 0,
+                synchronizer.getPutRemoteCount());
+
+        file.getSubNodes().get(0).setTitle("Changed title");
+        synchronizer.putIfChanged(file);
+        assertEquals(1, synchronizer.getPutRemoteCount());
+
+        for (String name : new File(DIR).list()) {
+            assertFalse("Temporary file left: " + name, name.endsWith(".tmp"));
+        }
+        final BufferedReader reader = synchronizer.getRemoteFile(file
+                .getFilename());
+        final StringBuilder content = new StringBuilder();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append("\n");
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(file.treeToString().trim(), content.toString().trim());
+    }
+
     class TestSynchronizer extends SDSynchronizer {
 
-        private int putRemoteCount = 0;
+        // Called from the sync workers
+        private final AtomicInteger putRemoteCount = new AtomicInteger();
+        private final AtomicInteger getRemoteCount = new AtomicInteger();
+        // Run right after a file was read, before it is parsed
+        volatile Runnable afterRead = null;
+        // Run once, right after the next batch was applied
+        Runnable afterBatch = null;
 
         public TestSynchronizer(Context context) {
             super(context);
@@ -784,21 +1056,83 @@ public class OrgSyncTest extends AndroidTestCase {
 
         /**
          * Replaces the file on the remote end with the given content.
-         *
-         * @param orgFile The file to save. Uses the filename stored in the object.
+         * Both putRemoteFile end up here.
          */
         @Override
-        public void putRemoteFile(OrgFile orgFile) throws IOException {
-            putRemoteCount += 1;
-            super.putRemoteFile(orgFile);
+        protected void putRemoteFile(OrgFile orgFile, String content) throws
+                IOException {
+            putRemoteCount.incrementAndGet();
+            super.putRemoteFile(orgFile, content);
+        }
+
+        /**
+         * @return The files which would be synced now.
+         */
+        public List<OrgFile> readFiles() throws Exception {
+            final List<OrgFile> files = new ArrayList<OrgFile>();
+            final ExecutorService workers = newWorkerPool();
+            try {
+                for (Pair<OrgFile, Pair<RemoteTaskList, TaskList>> pair :
+                        getFilesAndDBEntries(workers)) {
+                    if (pair.first != null) {
+                        files.add(pair.first);
+                    }
+                }
+            } finally {
+                workers.shutdown();
+            }
+            return files;
+        }
+
+        @Override
+        protected void applyBatch(ArrayList<ContentProviderOperation> ops,
+                                  long listId) throws IOException {
+            super.applyBatch(ops, listId);
+            if (afterBatch != null) {
+                afterBatch.run();
+                afterBatch = null;
+            }
+        }
+
+        public String putIfChanged(OrgFile orgFile) throws IOException {
+            return putRemoteFileIfChanged(orgFile);
         }
 
         public int getPutRemoteCount() {
-            return putRemoteCount;
+            return putRemoteCount.get();
+        }
+
+        @Override
+        public BufferedReader getRemoteFile(String filename) {
+            getRemoteCount.incrementAndGet();
+            final BufferedReader reader = super.getRemoteFile(filename);
+            if (afterRead == null || reader == null) {
+                return reader;
+            }
+            final StringBuilder content = new StringBuilder();
+            try {
+                try {
+                    final char[] buffer = new char[8192];
+                    int read;
+                    while ((read = reader.read(buffer)) != -1) {
+                        content.append(buffer, 0, read);
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            afterRead.run();
+            return new BufferedReader(new StringReader(content.toString()));
+        }
+
+        public int getGetRemoteCount() {
+            return getRemoteCount.get();
         }
 
         public void setPutRemoteCount(final int putRemoteCount) {
-            this.putRemoteCount = putRemoteCount;
+            this.putRemoteCount.set(putRemoteCount);
         }
     }
 }
@@ -0,0 +1,59 @@
+package com.nononsenseapps.notepad.test;
+
+import com.nononsenseapps.notepad.database.QueryStats;
+import com.nononsenseapps.notepad.database.Task;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class QueryStatsTest extends AndroidTestCase {
+
+	private boolean wasEnabled;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		wasEnabled = QueryStats.isEnabled();
+		QueryStats.clear();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		QueryStats.setEnabled(wasEnabled);
+		QueryStats.clear();
+		super.tearDown();
+	}
+
+	private void query() {
+		final Cursor c = getContext().getContentResolver().query(Task.URI,
+				Task.Columns.FIELDS, null, null, null);
+		c.close();
+	}
+
+	@SmallTest
+	public void testRecordsOnlyWhenEnabled() {
+		QueryStats.setEnabled(false);
+		query();
+		assertFalse(QueryStats.report().contains("query " + Task.BASEURICODE));
+
+		QueryStats.setEnabled(true);
+		query();
+		query();
+		assertTrue(QueryStats.report().contains(
+				"query " + Task.BASEURICODE + " " + Task.URI.getPath() + ": 2,"));
+	}
+
+	@SmallTest
+	public void testSlowLog() {
+		final Uri uri = Task.getUri(1);
+		QueryStats.record(QueryStats.UPDATE, Task.BASEITEMCODE, uri,
+				"slow_selection", null, (QueryStats.SLOW_MS + 1) * 1000000, 1);
+		QueryStats.record(QueryStats.UPDATE, Task.BASEITEMCODE, uri,
+				"fast_selection", null, 1000, 1);
+		final String report = QueryStats.report();
+		assertTrue(report.contains("slow_selection"));
+		assertFalse(report.contains("fast_selection"));
+	}
+}
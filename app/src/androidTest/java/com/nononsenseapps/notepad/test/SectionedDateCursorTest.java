@@ -0,0 +1,89 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+
+import com.nononsenseapps.notepad.database.SectionedDateCursor;
+import com.nononsenseapps.notepad.database.Task;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class SectionedDateCursorTest extends AndroidTestCase {
+
+	private static final String[] COLUMNS = { Task.Columns._ID,
+			Task.Columns.TITLE, Task.Columns.COMPLETED, Task.Columns.DUE,
+			Task.Columns.DBLIST };
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private long id = 1;
+
+	private void addTask(final MatrixCursor c, final Long due,
+			final Long completed) {
+		c.addRow(new Object[] { id, "task" + id, completed, due, 7L });
+		id++;
+	}
+
+	private ArrayList<String> titles(final Cursor c) {
+		final ArrayList<String> result = new ArrayList<String>();
+		while (c.moveToNext()) {
+			result.add(c.getString(1));
+		}
+		return result;
+	}
+
+	@SmallTest
+	public void testHeaders() {
+		final long now = Calendar.getInstance().getTimeInMillis();
+		// Already in SECTIONED_DATE_ORDER
+		final MatrixCursor tasks = new MatrixCursor(COLUMNS);
+		addTask(tasks, now - 2 * DAY, null);
+		addTask(tasks, now - DAY, null);
+		addTask(tasks, now + 8 * DAY, null);
+		addTask(tasks, null, null);
+		addTask(tasks, now, now);
+
+		final SectionedDateCursor c = new SectionedDateCursor(tasks, 7L);
+		final ArrayList<String> titles = titles(c);
+
+		final ArrayList<String> expected = new ArrayList<String>();
+		expected.add(Task.HEADER_KEY_OVERDUE);
+		expected.add("task1");
+		expected.add("task2");
+		expected.add(Task.HEADER_KEY_LATER);
+		expected.add("task3");
+		expected.add(Task.HEADER_KEY_NODATE);
+		expected.add("task4");
+		expected.add(Task.HEADER_KEY_COMPLETE);
+		expected.add("task5");
+		assertEquals(expected, titles);
+		assertEquals(expected.size(), c.getCount());
+
+		// Header rows
+		assertTrue(c.moveToFirst());
+		assertEquals(-1, c.getLong(0));
+		assertEquals(7, c.getLong(4));
+		assertTrue(c.isNull(2));
+		assertTrue(c.moveToPosition(7));
+		assertEquals(-1, c.getLong(0));
+		assertEquals(1, c.getLong(2));
+		// Task rows come from the wrapped cursor
+		assertTrue(c.moveToPosition(8));
+		assertEquals(5, c.getLong(0));
+		assertFalse(c.moveToNext());
+		assertTrue(c.isAfterLast());
+		c.close();
+	}
+
+	@SmallTest
+	public void testEmpty() {
+		final SectionedDateCursor c = new SectionedDateCursor(
+				new MatrixCursor(COLUMNS), null);
+		assertEquals(0, c.getCount());
+		assertFalse(c.moveToFirst());
+		c.close();
+	}
+}
@@ -0,0 +1,202 @@
+package com.nononsenseapps.notepad.test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+/**
+ * Compaction of the note history on a synthetic edit log, in memory with
+ * the same history table and triggers as the app.
+ */
+public class TaskHistoryTest extends AndroidTestCase {
+
+	private static final String TAG = "nononsenseapps benchmark";
+
+	private SQLiteDatabase db;
+	private final Random random = new Random(1);
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		db = SQLiteDatabase.create(null);
+		db.execSQL("CREATE TABLE " + Task.TABLE_NAME + " (" + Task.Columns._ID
+				+ " INTEGER PRIMARY KEY, " + Task.Columns.TITLE + " TEXT, "
+				+ Task.Columns.NOTE + " TEXT)");
+		db.execSQL(Task.CREATE_HISTORY_TABLE);
+		db.execSQL(Task.CREATE_HISTORY_INDEX);
+		db.execSQL(Task.CREATE_HISTORY_INSERT_TRIGGER);
+		db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	private String randomText(final int length) {
+		final StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append("word").append(random.nextInt(1000)).append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Small edits at random places, like typing in the editor. Returns every
+	 * version of the note, oldest first.
+	 */
+	private ArrayList<String> editLog(final long id, final int noteLength,
+			final int edits) {
+		final ArrayList<String> versions = new ArrayList<String>();
+		String note = randomText(noteLength);
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns._ID, id);
+		values.put(Task.Columns.TITLE, "task " + id);
+		values.put(Task.Columns.NOTE, note);
+		db.insert(Task.TABLE_NAME, null, values);
+		versions.add(note);
+		moreEdits(id, versions, edits);
+		return versions;
+	}
+
+	private void moreEdits(final long id, final ArrayList<String> versions,
+			final int edits) {
+		String note = versions.get(versions.size() - 1);
+		final ContentValues values = new ContentValues();
+		for (int i = 0; i < edits; i++) {
+			final int at = random.nextInt(note.length());
+			final int removed = Math.min(random.nextInt(20), note.length()
+					- at);
+			note = note.substring(0, at) + randomText(random.nextInt(30))
+					+ note.substring(at + removed);
+			values.put(Task.Columns.NOTE, note);
+			db.update(Task.TABLE_NAME, values, Task.Columns._ID + " = ?",
+					new String[] { Long.toString(id) });
+			versions.add(note);
+		}
+	}
+
+	private Cursor history(final long id) {
+		return db.query(Task.HISTORY_TABLE_NAME,
+				Task.Columns.HISTORY_COLUMNS_UPDATED, Task.Columns.HIST_TASK_ID
+						+ " = ?", new String[] { Long.toString(id) }, null,
+				null, Task.Columns._ID);
+	}
+
+	private void assertAllVersions(final long id,
+			final ArrayList<String> versions) {
+		final Cursor c = history(id);
+		try {
+			assertEquals(versions.size(), c.getCount());
+			for (int i = 0; i < versions.size(); i++) {
+				final String[] version = TaskHistory.rebuild(c, i);
+				assertEquals("task " + id, version[0]);
+				assertEquals("Version " + i, versions.get(i), version[1]);
+			}
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	private long size() {
+		db.execSQL("VACUUM");
+		return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+				* DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+	}
+
+	@SmallTest
+	public void testDiffPatch() {
+		final String[][] pairs = { { "", "" }, { "", "abc" }, { "abc", "" },
+				{ "abc", "abc" }, { "hello world", "hello brave world" },
+				{ "aaa", "aa" }, { "a,b,c", "a,,c" }, { "x", "y" } };
+		for (String[] pair : pairs) {
+			assertEquals(pair[1],
+					TaskHistory.patch(pair[0], TaskHistory.diff(pair[0], pair[1])));
+		}
+	}
+
+	@SmallTest
+	public void testCompactKeepsVersions() {
+		final ArrayList<String> versions = editLog(1, 500, 40);
+		TaskHistory.compact(db, 0);
+		assertAllVersions(1, versions);
+
+		// Edits after a compaction, and compacting twice
+		moreEdits(1, versions, 10);
+		TaskHistory.compact(db, 0);
+		assertAllVersions(1, versions);
+
+		// Newest is full, and there is a keyframe every interval
+		final Cursor c = history(1);
+		try {
+			c.moveToLast();
+			assertEquals(0,
+					c.getInt(c.getColumnIndex(Task.Columns.HIST_DELTA)));
+			c.moveToPosition(TaskHistory.KEYFRAME_INTERVAL);
+			assertEquals(0,
+					c.getInt(c.getColumnIndex(Task.Columns.HIST_DELTA)));
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	@SmallTest
+	public void testRetention() {
+		final ArrayList<String> versions = editLog(1, 200, 20);
+		TaskHistory.compact(db, 0);
+		// Make the first ten versions old
+		db.execSQL("UPDATE " + Task.HISTORY_TABLE_NAME + " SET "
+				+ Task.Columns.UPDATED + " = datetime('now', '-40 days')"
+				+ " WHERE " + Task.Columns._ID + " IN (SELECT "
+				+ Task.Columns._ID + " FROM " + Task.HISTORY_TABLE_NAME
+				+ " ORDER BY " + Task.Columns._ID + " LIMIT 10)");
+		TaskHistory.compact(db, 30);
+		assertAllVersions(1, new ArrayList<String>(versions.subList(10,
+				versions.size())));
+
+		// The newest version is never removed
+		db.execSQL("UPDATE " + Task.HISTORY_TABLE_NAME + " SET "
+				+ Task.Columns.UPDATED + " = datetime('now', '-40 days')");
+		TaskHistory.compact(db, 30);
+		assertAllVersions(1, new ArrayList<String>(versions.subList(
+				versions.size() - 1, versions.size())));
+	}
+
+	@LargeTest
+	public void testSizeReduction() {
+		final int tasks = 20;
+		final ArrayList<ArrayList<String>> logs = new ArrayList<ArrayList<String>>();
+		for (int i = 1; i <= tasks; i++) {
+			logs.add(editLog(i, 4000, 200));
+		}
+		final long before = size();
+		final long start = System.nanoTime();
+		TaskHistory.compact(db, 0);
+		final long compactMs = (System.nanoTime() - start) / 1000000;
+		final long after = size();
+
+		Log.d(TAG, "history of " + tasks + " notes with 200 edits each: "
+				+ before / 1024 + " kB full, " + after / 1024
+				+ " kB compacted in " + compactMs + " ms");
+
+		for (int i = 1; i <= tasks; i++) {
+			assertAllVersions(i, logs.get(i - 1));
+		}
+		assertTrue("Compacted history " + after + " not below a quarter of "
+				+ before, after * 4 < before);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.helpers;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
+
+/**
+ * Compacts the note history once a day, and removes versions older than the
+ * retention set in the preferences.
+ */
+public class HistoryCompactionService extends IntentService {
+
+	private static final String TAG = "nononsenseapps HistoryCompaction";
+	// Unique ID for schedule
+	private static final int scheduleCode = 4711;
+
+	public HistoryCompactionService() {
+		super("HistoryCompactionService");
+	}
+
+	/**
+	 * Schedule daily compaction. Does not wake the device up.
+	 */
+	public static void schedule(final Context context) {
+		final AlarmManager alarmManager = (AlarmManager) context
+				.getSystemService(Context.ALARM_SERVICE);
+		final PendingIntent operation = PendingIntent.getService(context,
+				scheduleCode, new Intent(context,
+						HistoryCompactionService.class),
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+				SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+				AlarmManager.INTERVAL_DAY, operation);
+	}
+
+	/**
+	 * Days of history to keep, 0 to keep all
+	 */
+	public static int getRetentionDays(final Context context) {
+		try {
+			return Integer.parseInt(PreferenceManager
+					.getDefaultSharedPreferences(context).getString(
+							context.getString(R.string.pref_history_retention),
+							"0"));
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		final long start = SystemClock.elapsedRealtime();
+		final int changed = TaskHistory.compact(DatabaseHandler
+				.getInstance(this).getWritableDatabase(),
+				getRetentionDays(this));
+		if (changed > 0) {
+			getContentResolver().notifyChange(Task.URI_TASK_HISTORY, null,
+					false);
+		}
+		Log.d(TAG, "Compacted " + changed + " history rows in "
+				+ (SystemClock.elapsedRealtime() - start) + " ms");
+	}
+}
@@ -21,10 +21,14 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.net.Uri;
 
+import java.util.Collection;
+
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.ChangeDispatcher;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.widget.ListWidgetConfig;
 import com.nononsenseapps.notepad.widget.ListWidgetProvider;
 import com.nononsenseapps.notepad.widget.WidgetPrefs;
 
@@ -41,7 +45,7 @@ public class UpdateNotifier {
 	 */
 	public static void notifyChangeNote(Context context) {
 		notifyChange(context, Task.URI);
-		updateWidgets(context);
+		ChangeDispatcher.getInstance(context).updateWidgets();
 	}
 
 	/**
@@ -62,7 +66,7 @@ public class UpdateNotifier {
 	 */
 	public static void notifyChangeList(Context context) {
 		notifyChange(context, TaskList.URI);
-		updateWidgets(context);
+		ChangeDispatcher.getInstance(context).updateWidgets();
 	}
 
 	/**
@@ -85,9 +89,11 @@ public class UpdateNotifier {
 	 */
 	private static void notifyChange(Context context, Uri uri) {
 		if (uri != null) {
-			context.getContentResolver().notifyChange(uri, null, false);
-			SyncHelper.requestSyncIf(context, SyncHelper.ONCHANGE);
-			context.getContentResolver().notifyChange(Notification.URI, null);
+			final ChangeDispatcher dispatcher = ChangeDispatcher
+					.getInstance(context);
+			dispatcher.notifyChange(uri);
+			dispatcher.requestSync();
+			dispatcher.notifyChange(Notification.URI);
 		}
 	}
 
@@ -98,6 +104,15 @@ public class UpdateNotifier {
 	 * Update all widgets's views as this database has changed somehow
 	 */
 	public static void updateWidgets(Context context) {
+		updateWidgets(context, null);
+	}
+
+	/**
+	 * Like updateWidgets, but only widgets that show one of the given lists
+	 * or all lists are updated. Null lists means all widgets.
+	 */
+	public static void updateWidgets(Context context,
+			Collection<Long> lists) {
 		final AppWidgetManager appWidgetManager = AppWidgetManager
 				.getInstance(context);
 		int[] appWidgetIds = appWidgetManager
@@ -115,11 +130,19 @@ public class UpdateNotifier {
 			// Only update widgets that exist
 			for (int widgetId : appWidgetIds) {
 				final WidgetPrefs prefs = new WidgetPrefs(context, widgetId);
-				if (prefs.isPresent()) {
+				if (prefs.isPresent()
+						&& (lists == null || showsAnyOf(prefs, lists))) {
 					appWidgetManager.notifyAppWidgetViewDataChanged(widgetId,
 							R.id.notesList);
 				}
 			}
 		}
 	}
+
+	private static boolean showsAnyOf(final WidgetPrefs prefs,
+			final Collection<Long> lists) {
+		final long listId = prefs.getLong(ListWidgetConfig.KEY_LIST,
+				ListWidgetConfig.ALL_LISTS_ID);
+		return listId < 1 || lists.contains(listId);
+	}
 }
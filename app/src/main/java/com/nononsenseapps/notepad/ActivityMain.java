@@ -55,6 +55,7 @@ import android.widget.Toast;
 import com.github.espiandev.showcaseview.ShowcaseView;
 import com.github.espiandev.showcaseview.ShowcaseView.ConfigOptions;
 import com.nononsenseapps.helpers.ActivityHelper;
+import com.nononsenseapps.helpers.HistoryCompactionService;
 import com.nononsenseapps.helpers.NotificationHelper;
 import com.nononsenseapps.helpers.SyncHelper;
 import com.nononsenseapps.helpers.SyncStatusMonitor;
@@ -432,6 +433,8 @@ public class ActivityMain extends FragmentActivity
         NotificationHelper.schedule(this);
         // Schedule syncs
         BackgroundSyncScheduler.scheduleSync(this);
+        // Schedule history compaction
+        HistoryCompactionService.schedule(this);
     }
 
     @Override
@@ -916,9 +919,6 @@ public class ActivityMain extends FragmentActivity
                 );
         adapter.setExtraData(extraData);
 
-        // Load count of tasks in each one
-        Log.d("nononsenseapps drawer", TaskList.CREATE_COUNT_VIEW);
-
         // Adapter for list titles and ids
         // final SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
         // R.layout.simple_light_list_item_1, null,
@@ -12,6 +12,7 @@ import com.nononsenseapps.helpers.ActivityHelper;
 import com.nononsenseapps.helpers.TimeFormatter;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
 import com.nononsenseapps.utils.views.TitleNoteTextView;
 
 import android.os.Bundle;
@@ -125,7 +126,7 @@ public class ActivityTaskHistory extends FragmentActivity {
 						return new CursorLoader(ActivityTaskHistory.this,
 								Task.URI_TASK_HISTORY,
 								Task.Columns.HISTORY_COLUMNS_UPDATED,
-								Task.Columns.HIST_TASK_ID + " IS ?",
+								Task.Columns.HIST_TASK_ID + " = ?",
 								new String[] { Long.toString(mTaskID) }, null);
 					}
 
@@ -151,9 +152,11 @@ public class ActivityTaskHistory extends FragmentActivity {
 	void onSeekBarChanged(int progress) {
 		if (mCursor != null) {
 			if (progress < mCursor.getCount()) {
+				// Older versions are stored as deltas
+				final String[] version = TaskHistory.rebuild(mCursor, progress);
+				taskText.setTextTitle(version[0]);
+				taskText.setTextRest(version[1]);
 				mCursor.moveToPosition(progress);
-				taskText.setTextTitle(mCursor.getString(1));
-				taskText.setTextRest(mCursor.getString(2));
 				try {
 					timestamp.setText(timeFormatter.format(dbTimeParser
 							.parse(mCursor.getString(3))));
@@ -26,7 +26,7 @@ public class TasksExtension extends DashClockExtension {
 			.append(Task.Columns.DUE).append(" IS '' THEN 1 ELSE 0 END, ")
 			.append(Task.Columns.DUE).toString();
 	private static final String WHERE_LIST_IS_AND = Task.Columns.DBLIST
-			+ " IS ? AND ";
+			+ " = ? AND ";
 	private static final String WHERE_DATE_IS = new StringBuilder(
 			Task.Columns.COMPLETED).append(" IS NULL AND ")
 			.append(Task.Columns.DUE).append(" IS NOT NULL AND ")
@@ -78,18 +78,8 @@ public class TasksExtension extends DashClockExtension {
 
 		final boolean showHeader = prefs.getBoolean("show_header", true);
 
-		final ArrayList<Task> notes = getNotesFromDB(listId, upperLimit);
-
-		// Show overdue?
-		if (!showOverdue) {
-			removeOverdue(notes);
-		}
-
-		if (showSingle && notes.size() > 1) {
-			final Task first = notes.get(0);
-			notes.clear();
-			notes.add(first);
-		}
+		final ArrayList<Task> notes = getNotesFromDB(listId, upperLimit,
+				showOverdue, showSingle ? 1 : Integer.MAX_VALUE);
 
 		if (notes.isEmpty()) {
 			publishUpdate(null);
@@ -135,15 +125,6 @@ public class TasksExtension extends DashClockExtension {
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void removeOverdue(final ArrayList<Task> notes) {
-		for (Task note : (ArrayList<Task>) notes.clone()) {
-			if (note.due != null
-					&& note.due < Calendar.getInstance().getTimeInMillis())
-				notes.remove(note);
-		}
-	}
-
 	private String getBody(final ArrayList<Task> notes, final boolean showHeader) {
 		String result = "";
 		if (notes.size() == 1) {
@@ -173,9 +154,11 @@ public class TasksExtension extends DashClockExtension {
 
 	/**
 	 * Return a list of notes respecting the constraints set in preferences.
+	 * Rows are checked before a Task is made of them, so skipped overdue
+	 * notes and notes past max cost nothing.
 	 */
 	private ArrayList<Task> getNotesFromDB(final long list,
-			final String upperLimit) {
+			final String upperLimit, final boolean showOverdue, final int max) {
 		// WHERE_LIST_IS, toA(list)
 		String where = "";
 		String[] whereArgs = new String[0];
@@ -188,14 +171,19 @@ public class TasksExtension extends DashClockExtension {
 		whereArgs = getUpperQueryLimitWhereArgs(whereArgs, upperLimit);
 
 		final Cursor cursor = getContentResolver().query(Task.URI,
-				Task.Columns.FIELDS, where, whereArgs, DUEDATE_SORT_TYPE);
+				Task.Columns.LIST_FIELDS, where, whereArgs, DUEDATE_SORT_TYPE);
 
 		final ArrayList<Task> result = new ArrayList<Task>();
 		if (cursor != null) {
-			while (cursor.moveToNext()) {
-				result.add(new Task(cursor));
+			final Task.Reader reader = new Task.Reader(cursor);
+			final long now = Calendar.getInstance().getTimeInMillis();
+			while (result.size() < max && reader.moveToNext()) {
+				if (!showOverdue && reader.hasDue() && reader.getDue() < now) {
+					continue;
+				}
+				result.add(reader.readInto(new Task()));
 			}
-			cursor.close();
+			reader.close();
 		}
 
 		return result;
@@ -209,7 +197,7 @@ public class TasksExtension extends DashClockExtension {
 
 		if (list > -1) {
 			final Cursor cursor = getContentResolver().query(TaskList.URI,
-					TaskList.Columns.FIELDS, TaskList.Columns._ID + " IS ?",
+					TaskList.Columns.FIELDS, TaskList.Columns._ID + " = ?",
 					new String[] { Long.toString(list) }, null);
 			if (cursor != null) {
 				if (!cursor.isClosed() && !cursor.isAfterLast()) {
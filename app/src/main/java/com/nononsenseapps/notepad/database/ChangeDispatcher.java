@@ -0,0 +1,342 @@
+package com.nononsenseapps.notepad.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nononsenseapps.helpers.SyncHelper;
+import com.nononsenseapps.helpers.UpdateNotifier;
+
+/**
+ * Collects change notifications and sends them together. Changes are held
+ * for a short window, or until the transaction that holds them ends, and then
+ * every touched URI is notified once. Changes of a rolled back transaction
+ * are not sent. A URI is left out if one of its parents
+ * is notified, since observers of descendants are notified anyway. Widgets
+ * and sync are likewise requested at most once per dispatch.
+ */
+public class ChangeDispatcher {
+
+	// Changes within this many milliseconds are sent together
+	public static final long WINDOW_MS = 100;
+
+	private static ChangeDispatcher singleton;
+
+	public static synchronized ChangeDispatcher getInstance(
+			final Context context) {
+		if (singleton == null) {
+			singleton = new ChangeDispatcher(context.getApplicationContext());
+		}
+		return singleton;
+	}
+
+	private final Context mContext;
+	private final Handler mHandler;
+	private final ThreadLocal<ContentObserver> mOrigin = new ThreadLocal<ContentObserver>();
+	// Changes made by the calling thread while it holds, see hold
+	private final ThreadLocal<Held> mHeld = new ThreadLocal<Held>();
+	private final Runnable mFlush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	// Guarded by this
+	private final Pending mPending = new Pending();
+	private boolean mScheduled = false;
+
+	private long mUrisRequested = 0;
+	private long mUrisSent = 0;
+	private long mUrisDropped = 0;
+	private long mWidgetsRequested = 0;
+	private long mWidgetsSent = 0;
+	private long mDispatches = 0;
+
+	/**
+	 * Changes waiting to be sent.
+	 */
+	private static class Pending {
+		final LinkedHashSet<Uri> uris = new LinkedHashSet<Uri>();
+		// Who made each change, null if several or unknown
+		final HashMap<Uri, ContentObserver> origins = new HashMap<Uri, ContentObserver>();
+		boolean widgets = false;
+		// Lists whose widgets need updating, unless all of them do
+		final LinkedHashSet<Long> widgetLists = new LinkedHashSet<Long>();
+		boolean sync = false;
+
+		void addUri(final Uri uri, final ContentObserver origin) {
+			if (uris.add(uri)) {
+				origins.put(uri, origin);
+			}
+			else if (origins.get(uri) != origin) {
+				origins.put(uri, null);
+			}
+		}
+
+		void addWidgets() {
+			widgets = true;
+			widgetLists.clear();
+		}
+
+		void addWidgets(final long listId) {
+			if (!widgets) {
+				widgetLists.add(listId);
+			}
+		}
+
+		void addAll(final Pending other) {
+			for (Uri uri : other.uris) {
+				addUri(uri, other.origins.get(uri));
+			}
+			if (other.widgets) {
+				addWidgets();
+			}
+			for (long listId : other.widgetLists) {
+				addWidgets(listId);
+			}
+			sync |= other.sync;
+		}
+
+		/**
+		 * The origin of the URI and of all pending URIs below it, if they
+		 * share one.
+		 */
+		ContentObserver originOf(final Uri uri) {
+			final ContentObserver origin = origins.get(uri);
+			final String path = uri.toString() + "/";
+			for (Uri other : uris) {
+				if (other.toString().startsWith(path)
+						&& origins.get(other) != origin) {
+					return null;
+				}
+			}
+			return origin;
+		}
+
+		void clear() {
+			uris.clear();
+			origins.clear();
+			widgets = false;
+			widgetLists.clear();
+			sync = false;
+		}
+	}
+
+	/**
+	 * The holds of one thread and what it changed during them.
+	 */
+	private static class Held extends Pending {
+		int holds = 0;
+		boolean failed = false;
+	}
+
+	private ChangeDispatcher(final Context context) {
+		mContext = context;
+		mHandler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * @return where changes made by the calling thread go, the pending
+	 *         changes of everyone unless it holds.
+	 */
+	private Pending target() {
+		final Held held = mHeld.get();
+		return held != null ? held : mPending;
+	}
+
+	public synchronized void notifyChange(final Uri uri) {
+		mUrisRequested++;
+		target().addUri(uri, mOrigin.get());
+		schedule();
+	}
+
+	/**
+	 * Changes made on the calling thread from now on are not sent to the
+	 * observer, until this is called again with null. Lets a sync see
+	 * everyone's changes but its own. The observer must not deliver self
+	 * notifications.
+	 */
+	public void setOrigin(final ContentObserver observer) {
+		if (observer == null) {
+			mOrigin.remove();
+		}
+		else {
+			mOrigin.set(observer);
+		}
+	}
+
+	public synchronized void updateWidgets() {
+		mWidgetsRequested++;
+		target().addWidgets();
+		schedule();
+	}
+
+	/**
+	 * Only widgets showing this list, or all lists, are updated.
+	 */
+	public synchronized void updateWidgets(final long listId) {
+		mWidgetsRequested++;
+		target().addWidgets(listId);
+		schedule();
+	}
+
+	public synchronized void requestSync() {
+		target().sync = true;
+		schedule();
+	}
+
+	/**
+	 * Changes made on the calling thread are kept apart until the matching
+	 * release. Meant to span a transaction. Other threads are not held up.
+	 */
+	public void hold() {
+		Held held = mHeld.get();
+		if (held == null) {
+			held = new Held();
+			mHeld.set(held);
+		}
+		held.holds++;
+	}
+
+	/**
+	 * Ends a hold of the calling thread. When its last hold ends, everything
+	 * it collected is sent right away if the transaction was committed, and
+	 * dropped if any of its holds was released without a commit: the
+	 * changes were rolled back.
+	 */
+	public void release(final boolean committed) {
+		final Held held = mHeld.get();
+		held.holds--;
+		held.failed |= !committed;
+		if (held.holds > 0) {
+			return;
+		}
+		mHeld.remove();
+		synchronized (this) {
+			if (held.failed) {
+				mUrisDropped += held.uris.size();
+				return;
+			}
+			mPending.addAll(held);
+		}
+		flush();
+	}
+
+	private void schedule() {
+		if (mHeld.get() == null && !mScheduled) {
+			mScheduled = true;
+			mHandler.postDelayed(mFlush, WINDOW_MS);
+		}
+	}
+
+	/**
+	 * Sends everything collected so far, except what held threads collect.
+	 */
+	public void flush() {
+		final List<Uri> uris;
+		final ArrayList<ContentObserver> origins;
+		final boolean widgets;
+		final ArrayList<Long> widgetLists;
+		final boolean sync;
+		synchronized (this) {
+			if (mScheduled) {
+				mHandler.removeCallbacks(mFlush);
+				mScheduled = false;
+			}
+			uris = coalesce(mPending.uris);
+			origins = new ArrayList<ContentObserver>(uris.size());
+			for (Uri uri : uris) {
+				origins.add(mPending.originOf(uri));
+			}
+			widgets = mPending.widgets || !mPending.widgetLists.isEmpty();
+			widgetLists = mPending.widgets ? null : new ArrayList<Long>(
+					mPending.widgetLists);
+			sync = mPending.sync;
+			mPending.clear();
+			if (uris.isEmpty() && !widgets && !sync) {
+				return;
+			}
+			mUrisSent += uris.size();
+			mWidgetsSent += widgets ? 1 : 0;
+			mDispatches++;
+		}
+
+		// Outside the lock, observers may call back into the provider
+		for (int i = 0; i < uris.size(); i++) {
+			DAO.notifyProviderOnChange(mContext, uris.get(i), origins.get(i));
+		}
+		if (widgets) {
+			UpdateNotifier.updateWidgets(mContext, widgetLists);
+		}
+		if (sync) {
+			SyncHelper.requestSyncIf(mContext, SyncHelper.ONCHANGE);
+		}
+	}
+
+	/**
+	 * Returns the URIs without those that have a parent among them, in the
+	 * order they were given.
+	 */
+	public static List<Uri> coalesce(final Collection<Uri> uris) {
+		final ArrayList<Uri> result = new ArrayList<Uri>(uris.size());
+		for (Uri uri : uris) {
+			boolean covered = false;
+			final String path = uri.toString();
+			for (Uri other : uris) {
+				if (path.startsWith(other.toString() + "/")) {
+					covered = true;
+					break;
+				}
+			}
+			if (!covered && !result.contains(uri)) {
+				result.add(uri);
+			}
+		}
+		return result;
+	}
+
+	public synchronized long getUrisRequested() {
+		return mUrisRequested;
+	}
+
+	public synchronized long getUrisSent() {
+		return mUrisSent;
+	}
+
+	/**
+	 * Notifications that were not sent because another covered them
+	 */
+	public synchronized long getUrisCoalesced() {
+		return mUrisRequested - mUrisSent - mUrisDropped
+				- mPending.uris.size();
+	}
+
+	/**
+	 * Notifications that were not sent because their transaction was rolled
+	 * back
+	 */
+	public synchronized long getUrisDropped() {
+		return mUrisDropped;
+	}
+
+	public synchronized long getWidgetUpdatesRequested() {
+		return mWidgetsRequested;
+	}
+
+	public synchronized long getWidgetUpdatesSent() {
+		return mWidgetsSent;
+	}
+
+	public synchronized long getDispatches() {
+		return mDispatches;
+	}
+}
@@ -5,6 +5,7 @@ import java.util.List;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
@@ -14,7 +15,7 @@ import android.util.Log;
 
 public abstract class DAO {
 
-	private static final String whereIdIs = "" + BaseColumns._ID + " IS ?";
+	private static final String whereIdIs = "" + BaseColumns._ID + " = ?";
 
 	/**
 	 * Append where is id ? to string
@@ -26,7 +27,7 @@ public abstract class DAO {
 			sb.append(orgWhere);
 			sb.append(") AND ");
 		}
-		sb.append(BaseColumns._ID).append(" IS ?");
+		sb.append(BaseColumns._ID).append(" = ?");
 		return sb.toString();
 	}
 
@@ -229,6 +230,15 @@ public abstract class DAO {
 
 	public synchronized Uri insert(final Context context,
 			final SQLiteDatabase db) {
+		return insert(context, db, true);
+	}
+
+	/**
+	 * Same as insert, but observers are only notified if notify is true. The
+	 * provider notifies on its own so it passes false here.
+	 */
+	public synchronized Uri insert(final Context context,
+			final SQLiteDatabase db, final boolean notify) {
 		Uri retval = null;
 		db.beginTransaction();
 		try {
@@ -253,7 +263,7 @@ public abstract class DAO {
 			db.endTransaction();
 		}
 
-		if (retval != null) {
+		if (retval != null && notify) {
 			notifyProviderOnChange(context);
 		}
 		return retval;
@@ -261,7 +271,7 @@ public abstract class DAO {
 
 	public synchronized int remove(final Context context,
 			final SQLiteDatabase db) {
-		final int result = db.delete(getTableName(), BaseColumns._ID + " IS ?",
+		final int result = db.delete(getTableName(), BaseColumns._ID + " = ?",
 				new String[] { Long.toString(_id) });
 
 		if (result > 1) {
@@ -273,8 +283,17 @@ public abstract class DAO {
 
 	public static void notifyProviderOnChange(final Context context,
 			final Uri uri) {
+		notifyProviderOnChange(context, uri, null);
+	}
+
+	/**
+	 * @param origin The observer that made the change, or null. It is not
+	 *            notified unless it delivers self notifications.
+	 */
+	public static void notifyProviderOnChange(final Context context,
+			final Uri uri, final ContentObserver origin) {
 		try {
-			context.getContentResolver().notifyChange(uri, null, false);
+			context.getContentResolver().notifyChange(uri, origin, false);
 		}
 		catch (UnsupportedOperationException e) {
 			// Catch this for test suite. Mock provider cant notify
@@ -345,4 +364,43 @@ public abstract class DAO {
 		else
 			return 0;
 	}
+
+	/**
+	 * Reads the rows of a cursor without creating an object for each. The
+	 * cursor must have the class' Columns.FIELDS projection. Primitive
+	 * columns are read straight from the current row, and readInto fills an
+	 * object that can be reused for every row.
+	 */
+	public static abstract class RowReader<T extends DAO> {
+		protected final Cursor c;
+
+		protected RowReader(final Cursor c) {
+			this.c = c;
+		}
+
+		public boolean moveToNext() {
+			return c.moveToNext();
+		}
+
+		public int getCount() {
+			return c.getCount();
+		}
+
+		public void close() {
+			c.close();
+		}
+
+		public long getId() {
+			return c.getLong(0);
+		}
+
+		/**
+		 * Fills the object with the current row and returns it
+		 */
+		public abstract T readInto(final T item);
+
+		protected long getLong(final int column, final long ifNull) {
+			return c.isNull(column) ? ifNull : c.getLong(column);
+		}
+	}
 }
@@ -2,21 +2,25 @@ package com.nononsenseapps.notepad.database;
 
 import java.text.ParseException;
 import java.util.Calendar;
-import java.util.HashMap;
 
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTask;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
 
+import com.nononsenseapps.util.LongMap;
 import com.nononsenseapps.utils.time.RFC3339Date;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 
@@ -24,16 +28,51 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
 	private static DatabaseHandler singleton;
 
-	public static DatabaseHandler getInstance(final Context context) {
+	public static synchronized DatabaseHandler getInstance(final Context context) {
 		if (singleton == null) {
 			singleton = new DatabaseHandler(context);
 		}
 		return singleton;
 	}
 
-	private static final int DATABASE_VERSION = 15;
+	private static final int DATABASE_VERSION = 24;
 	public static final String DATABASE_NAME = "nononsense_notes.db";
 
+	/**
+	 * Gets the SQL of every query that produces a cursor. Meant for tests and
+	 * diagnostics.
+	 */
+	public interface QueryListener {
+		void onQuery(String sql);
+	}
+
+	private static volatile QueryListener queryListener = null;
+
+	/**
+	 * Set to null to stop listening.
+	 */
+	public static void setQueryListener(final QueryListener listener) {
+		queryListener = listener;
+	}
+
+	private static final SQLiteDatabase.CursorFactory cursorFactory = new SQLiteDatabase.CursorFactory() {
+		// SQLiteQuery.toString() is this followed by the sql
+		private static final String PREFIX = "SQLiteQuery: ";
+
+		@Override
+		public Cursor newCursor(SQLiteDatabase db,
+				SQLiteCursorDriver masterQuery, String editTable,
+				SQLiteQuery query) {
+			final QueryListener listener = queryListener;
+			if (listener != null) {
+				final String sql = query.toString();
+				listener.onQuery(sql.startsWith(PREFIX) ? sql
+						.substring(PREFIX.length()) : sql);
+			}
+			return new SQLiteCursor(masterQuery, editTable, query);
+		}
+	};
+
 	private final Context context;
 	private final String testPrefix;
 
@@ -48,7 +87,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * Use only for JUNIT tests
 	 */
 	public DatabaseHandler(Context context, String testPrefix) {
-		super(context, testPrefix + DATABASE_NAME, null, DATABASE_VERSION);
+		super(context, testPrefix + DATABASE_NAME, cursorFactory,
+				DATABASE_VERSION);
 		// Good idea to have the context that doesn't die with the window
 		this.context = context.getApplicationContext();
 		this.testPrefix = testPrefix;
@@ -63,6 +103,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			// db.setForeignKeyConstraintsEnabled(true);
 			// This works everywhere
 			db.execSQL("PRAGMA foreign_keys=ON;");
+			// Readers do not block on, or get blocked by, the writer
+			db.enableWriteAheadLogging();
 		}
 	}
 
@@ -75,15 +117,31 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		db.execSQL(Notification.CREATE_TABLE);
 		db.execSQL(RemoteTaskList.CREATE_TABLE);
 		db.execSQL(RemoteTask.CREATE_TABLE);
+		db.execSQL(Task.CREATE_BULK_DELETE_TABLE);
 
 		db.execSQL(Notification.CREATE_JOINED_VIEW);
 
-		db.execSQL(Task.TRIGGER_PRE_INSERT);
+		db.execSQL(Task.CREATE_POSITION_INDEX);
+		createIndices(db);
+
+		// Before the triggers, which it does the work of at the end
+		initializedDB(db);
+
+		db.execSQL(Task.TRIGGER_POST_INSERT);
 		db.execSQL(Task.TRIGGER_PRE_DELETE);
-		db.execSQL(Task.TRIGGER_POST_DELETE);
 		db.execSQL(Task.TRIGGER_MOVE_LIST);
+		db.execSQL(Task.TRIGGER_POST_MOVE);
+		db.execSQL(TaskList.TRIGGER_COUNT_INSERT);
+		db.execSQL(TaskList.TRIGGER_COUNT_DELETE);
+		db.execSQL(TaskList.TRIGGER_COUNT_UPDATE);
+		db.execSQL(TaskList.TRIGGER_WRITES_INSERT);
+		db.execSQL(TaskList.TRIGGER_WRITES_DELETE);
+		db.execSQL(TaskList.TRIGGER_WRITES_UPDATE);
+		db.execSQL(TaskList.TRIGGER_WRITES_LIST);
 		db.execSQL(Task.CREATE_HISTORY_INSERT_TRIGGER);
 		db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
+		db.execSQL(Task.TRIGGER_PREVIEW_INSERT);
+		db.execSQL(Task.TRIGGER_PREVIEW_UPDATE);
 
 		db.execSQL(RemoteTask.TRIGGER_LISTDELETE_CASCADE);
 		// Mark as deleted when real item deleted
@@ -92,19 +150,24 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		// Create move list trigger
 		db.execSQL(RemoteTask.TRIGGER_MOVE_LIST);
 
-		// Search tables
-		db.execSQL(Task.CREATE_FTS3_TABLE);
-		db.execSQL(Task.CREATE_FTS3_INSERT_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_UPDATE_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETE_TRIGGER);
-
-		// Delete search tables
-		db.execSQL(Task.CREATE_FTS3_DELETE_TABLE);
-		db.execSQL(Task.CREATE_FTS3_DELETED_INSERT_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETED_UPDATE_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETED_DELETE_TRIGGER);
+		// Search tables for tasks and deleted tasks, indexing what was copied
+		Task.createSearchTables(db);
+	}
 
-		initializedDB(db);
+	/**
+	 * Secondary indices for the common access paths. Partial indices would
+	 * need SQLite 3.8 (Android 5.0), so these are plain.
+	 */
+	private static void createIndices(final SQLiteDatabase db) {
+		db.execSQL(Task.CREATE_LIST_DUE_INDEX);
+		db.execSQL(Task.CREATE_DUE_INDEX);
+		db.execSQL(Task.CREATE_HISTORY_INDEX);
+		db.execSQL(Notification.CREATE_TASKID_INDEX);
+		db.execSQL(Notification.CREATE_TIME_INDEX);
+		db.execSQL(RemoteTask.CREATE_SYNC_INDEX);
+		db.execSQL(RemoteTask.CREATE_DBID_INDEX);
+		db.execSQL(RemoteTaskList.CREATE_SYNC_INDEX);
+		db.execSQL(RemoteTaskList.CREATE_DBID_INDEX);
 	}
 
 	public static Cursor getLegacyLists(final SQLiteDatabase legacyDB) {
@@ -148,15 +211,17 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 										null);
 	}
 
+	/**
+	 * Copies the legacy database, if there is one, and creates the first list
+	 * if there are none. Runs before the task triggers exist: notes are
+	 * inserted with their positions by one compiled statement, and what the
+	 * triggers would have done row by row is done for all rows afterwards.
+	 */
 	private void initializedDB(final SQLiteDatabase db) throws SQLiteException {
-		// Load legacy DB if it exists
-		// Open database and copy information
-		// Remember to do try except
-
 		db.beginTransaction();
 		try {
-			final HashMap<Long, Long> listIDMap = new HashMap<Long, Long>();
-			final HashMap<Long, Long> taskIDMap = new HashMap<Long, Long>();
+			final LongMap<Long> listIDMap = new LongMap<Long>();
+			final LongMap<Long> taskIDMap = new LongMap<Long>();
 			final LegacyDBHelper legacyDBHelper = new LegacyDBHelper(context, testPrefix);
 			final SQLiteDatabase legacyDB = legacyDBHelper.getReadableDatabase();
 
@@ -185,54 +250,13 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
 			// Then notes
 			if (!listIDMap.isEmpty()) {
-				// query
 				c = getLegacyNotes(legacyDB);
-
-				// iterate over notes
-				while (!c.isClosed() && c.moveToNext()) {
-					Task t = new Task();
-					t.title = c.getString(1);
-					t.note = c.getString(2);
-
-					if (t.note.contains("[locked]")) {
-						t.locked = true;
-						t.note = t.note.replace("[locked]", "");
-					}
-
-					try {
-						t.due = RFC3339Date.parseRFC3339Date(c.getString(3)).getTime();
-					} catch (Exception e) {
-					}
-
-					// completed must be converted
-					if (c.getString(4) != null && "completed".equals(c.getString(4))) {
-						t.setAsCompleted();
-					}
-					t.dblist = listIDMap.get(c.getLong(5));
-
-					t.updated = c.getLong(6);
-
-					// insert
-					// Just make extra sure list exists
-					if (t.dblist != null) {
-						t.insert(context, db);
-
-						// put in idmap
-						taskIDMap.put(c.getLong(0), t._id);
-					}
-
-					// gtask
-					GoogleTask gt = null;
-					if (!c.isNull(7) && !c.getString(7).isEmpty() && !c.isNull(8)
-													&& !c.getString(8).isEmpty()) {
-						gt = new GoogleTask(t, c.getString(8));
-						gt.remoteId = c.getString(7);
-						gt.updated = t.updated;
-						gt.insert(context, db);
-					}
-
+				try {
+					copyLegacyNotes(db, c, listIDMap, taskIDMap);
+				}
+				finally {
+					c.close();
 				}
-				c.close();
 			}
 
 			// Then notifications
@@ -241,8 +265,9 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
 				while (!c.isClosed() && c.moveToNext()) {
 					// Make sure id exists
-					if (taskIDMap.containsValue(c.getLong(2))) {
-						Notification n = new Notification(taskIDMap.get(c.getLong(2)));
+					final Long taskId = taskIDMap.get(c.getLong(2));
+					if (taskId != null) {
+						Notification n = new Notification(taskId);
 						n.time = c.getLong(0);
 						// permanent was not supported at the time
 						// insert
@@ -288,10 +313,133 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			}
 		}
 		c.close();
+
+		db.execSQL(Task.FILL_HISTORY);
+		db.execSQL(Task.FILL_PREVIEW);
+		db.execSQL(TaskList.RECOUNT_OPEN);
+
 		db.setTransactionSuccessful();
 		db.endTransaction();
 	}
 
+	/**
+	 * Progress of copying the legacy database on first start
+	 */
+	public interface MigrationListener {
+		void onProgress(int notesCopied, int notesTotal);
+	}
+
+	private static volatile MigrationListener migrationListener = null;
+
+	/**
+	 * Set to null to stop listening.
+	 */
+	public static void setMigrationListener(final MigrationListener listener) {
+		migrationListener = listener;
+	}
+
+	// Notes copied between progress reports
+	private static final int PROGRESS_STEP = 500;
+
+	/**
+	 * Streams the legacy notes into the task table with one compiled insert.
+	 * Each note is placed above the previous one in its list, which is where
+	 * the insert trigger would have put it.
+	 */
+	private void copyLegacyNotes(final SQLiteDatabase db, final Cursor c,
+			final LongMap<Long> listIDMap, final LongMap<Long> taskIDMap) {
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO "
+				+ Task.TABLE_NAME + " (" + Task.Columns.TITLE + ", "
+				+ Task.Columns.NOTE + ", " + Task.Columns.LOCKED + ", "
+				+ Task.Columns.DUE + ", " + Task.Columns.COMPLETED + ", "
+				+ Task.Columns.DBLIST + ", " + Task.Columns.UPDATED + ", "
+				+ Task.Columns.LEFT + ", " + Task.Columns.RIGHT
+				+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		// Left position of the next note in each list
+		final LongMap<Long> nextLeft = new LongMap<Long>(listIDMap.size());
+		final long now = Calendar.getInstance().getTimeInMillis();
+		final MigrationListener listener = migrationListener;
+		final int total = listener == null ? 0 : c.getCount();
+		int copied = 0;
+		try {
+			while (c.moveToNext()) {
+				final Long listId = listIDMap.get(c.getLong(5));
+				// Just make extra sure list exists
+				if (listId == null) {
+					continue;
+				}
+
+				final Task t = new Task();
+				t.title = c.isNull(1) ? "" : c.getString(1);
+				t.note = c.isNull(2) ? "" : c.getString(2);
+				if (t.note.contains("[locked]")) {
+					t.locked = true;
+					t.note = t.note.replace("[locked]", "");
+				}
+				try {
+					t.due = RFC3339Date.parseRFC3339Date(c.getString(3)).getTime();
+				} catch (Exception e) {
+				}
+				// completed must be converted
+				if ("completed".equals(c.getString(4))) {
+					t.completed = now;
+				}
+				t.dblist = listId;
+				t.updated = c.getLong(6);
+
+				Long left = nextLeft.get(listId);
+				if (left == null) {
+					left = Task.POS_BASE;
+				}
+				nextLeft.put(listId, left - Task.POS_GAP);
+
+				insert.bindString(1, t.title);
+				insert.bindString(2, t.note);
+				insert.bindLong(3, t.locked ? 1 : 0);
+				if (t.due == null) {
+					insert.bindNull(4);
+				}
+				else {
+					insert.bindLong(4, t.due);
+				}
+				if (t.completed == null) {
+					insert.bindNull(5);
+				}
+				else {
+					insert.bindLong(5, t.completed);
+				}
+				insert.bindLong(6, listId);
+				insert.bindLong(7, t.updated);
+				insert.bindLong(8, left);
+				insert.bindLong(9, left + 1);
+				t._id = insert.executeInsert();
+				if (t._id == -1) {
+					throw new SQLException("Insert failed in " + Task.TABLE_NAME);
+				}
+				taskIDMap.put(c.getLong(0), t._id);
+
+				// gtask
+				if (!c.isNull(7) && !c.getString(7).isEmpty() && !c.isNull(8)
+												&& !c.getString(8).isEmpty()) {
+					final GoogleTask gt = new GoogleTask(t, c.getString(8));
+					gt.remoteId = c.getString(7);
+					gt.updated = t.updated;
+					db.insertOrThrow(RemoteTask.TABLE_NAME, null, gt.getContent());
+				}
+
+				if (listener != null && ++copied % PROGRESS_STEP == 0) {
+					listener.onProgress(copied, total);
+				}
+			}
+		}
+		finally {
+			insert.close();
+		}
+		if (listener != null) {
+			listener.onProgress(copied, total);
+		}
+	}
+
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		if (oldVersion < 10) {
@@ -315,9 +463,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(RemoteTaskList.TRIGGER_REALDELETE_MARK);
 		}
 		if (oldVersion < 12) {
-			// Recreate trigger
+			// Trigger no longer exists, see version 18
 			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
-			db.execSQL(Task.TRIGGER_POST_DELETE);
 		}
 		if (oldVersion < 13) {
 			// Create move list trigger
@@ -334,6 +481,78 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			// Drop view, changing to temporary view instead
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
 		}
+		if (oldVersion < 16) {
+			// Sparse positions, triggers no longer renumber the list
+			db.execSQL("DROP TRIGGER IF EXISTS task_pre_insert");
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_insert");
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_"
+					+ Task.TABLE_NAME);
+			db.execSQL(Task.CREATE_POSITION_INDEX);
+			db.execSQL(Task.TRIGGER_POST_INSERT);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+			// Spread out the existing positions
+			Task.rebalanceAllLists(db);
+		}
+		if (oldVersion < 17) {
+			createIndices(db);
+		}
+		if (oldVersion < 18) {
+			// Check only the written row instead of counting the whole list
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_insert");
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_"
+					+ Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_POST_INSERT);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+			db.execSQL(Task.TRIGGER_POST_MOVE);
+		}
+		if (oldVersion < 19) {
+			// Counters instead of counting every task when reading lists
+			db.execSQL("ALTER TABLE " + TaskList.TABLE_NAME + " ADD COLUMN "
+					+ TaskList.Columns.OPEN_COUNT
+					+ " INTEGER NOT NULL DEFAULT 0");
+			db.execSQL(TaskList.RECOUNT_OPEN);
+			db.execSQL(TaskList.TRIGGER_COUNT_INSERT);
+			db.execSQL(TaskList.TRIGGER_COUNT_DELETE);
+			db.execSQL(TaskList.TRIGGER_COUNT_UPDATE);
+		}
+		if (oldVersion < 20) {
+			// FTS4 indexes on the task tables instead of FTS3 copies
+			Task.dropLegacySearchTables(db);
+			Task.createSearchTables(db);
+		}
+		if (oldVersion < 21) {
+			// Existing history rows are full versions
+			db.execSQL("ALTER TABLE " + Task.HISTORY_TABLE_NAME
+					+ " ADD COLUMN " + Task.Columns.HIST_DELTA
+					+ " INTEGER NOT NULL DEFAULT 0");
+		}
+		if (oldVersion < 22) {
+			db.execSQL("ALTER TABLE " + Task.TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.PREVIEW + " TEXT NOT NULL DEFAULT ''");
+			db.execSQL("UPDATE " + Task.TABLE_NAME + " SET "
+					+ Task.Columns.PREVIEW + " = "
+					+ Task.PREVIEW_VALUE.replace("new.", ""));
+			db.execSQL(Task.TRIGGER_PREVIEW_INSERT);
+			db.execSQL(Task.TRIGGER_PREVIEW_UPDATE);
+		}
+		if (oldVersion < 23) {
+			// Bulk deletes skip the per-row triggers instead of dropping them
+			Task.createBulkDeleteTriggers(db);
+		}
+		if (oldVersion < 24) {
+			// Sync state sees every write, whatever its update time. The
+			// states saved by the last sync no longer match, so each list is
+			// synced once in full.
+			db.execSQL("ALTER TABLE " + TaskList.TABLE_NAME + " ADD COLUMN "
+					+ TaskList.Columns.WRITE_COUNT
+					+ " INTEGER NOT NULL DEFAULT 0");
+			db.execSQL(TaskList.TRIGGER_WRITES_INSERT);
+			db.execSQL(TaskList.TRIGGER_WRITES_DELETE);
+			db.execSQL(TaskList.TRIGGER_WRITES_UPDATE);
+			db.execSQL(TaskList.TRIGGER_WRITES_LIST);
+		}
 	}
 
 }
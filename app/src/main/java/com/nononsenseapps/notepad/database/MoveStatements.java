@@ -0,0 +1,154 @@
+package com.nononsenseapps.notepad.database;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The statements used to move a task, compiled once per database and reused
+ * with bound arguments. Moving used to build and compile each of them again
+ * for every step of a drag.
+ *
+ * Not thread safe, synchronize on the instance while binding and executing.
+ * Moves already run inside a write transaction.
+ */
+final class MoveStatements {
+
+	private static final String T = Task.TABLE_NAME;
+	private static final String ID = Task.Columns._ID;
+	private static final String LIST = Task.Columns.DBLIST;
+	private static final String LEFT = Task.Columns.LEFT;
+	private static final String RIGHT = Task.Columns.RIGHT;
+
+	static final String SQL_ID_AT_LEFT = "SELECT " + ID + " FROM " + T
+			+ " WHERE " + LIST + " = ? AND " + LEFT + " = ?";
+	static final String SQL_ID_AT_RIGHT = "SELECT " + ID + " FROM " + T
+			+ " WHERE " + LIST + " = ? AND " + RIGHT + " = ?";
+	static final String SQL_LEFT_OF = "SELECT " + LEFT + " FROM " + T
+			+ " WHERE " + ID + " = ?";
+	static final String SQL_RIGHT_OF = "SELECT " + RIGHT + " FROM " + T
+			+ " WHERE " + ID + " = ?";
+	static final String SQL_LIST_OF = "SELECT " + LIST + " FROM " + T
+			+ " WHERE " + ID + " = ?";
+	// Closest task before/after a position, ignoring the moving one
+	static final String SQL_RIGHT_BEFORE = "SELECT " + RIGHT + " FROM " + T
+			+ " WHERE " + LIST + " = ? AND " + LEFT + " < ? AND " + ID
+			+ " IS NOT ? ORDER BY " + LEFT + " DESC LIMIT 1";
+	static final String SQL_LEFT_AFTER = "SELECT " + LEFT + " FROM " + T
+			+ " WHERE " + LIST + " = ? AND " + LEFT + " > ? AND " + ID
+			+ " IS NOT ? ORDER BY " + LEFT + " ASC LIMIT 1";
+	static final String SQL_SET_POSITION = "UPDATE " + T + " SET " + LEFT
+			+ " = ?, " + RIGHT + " = ? WHERE " + ID + " = ?";
+
+	private static final Map<SQLiteDatabase, MoveStatements> cache = new HashMap<SQLiteDatabase, MoveStatements>();
+
+	/**
+	 * Returns the statements of this database, compiling them the first
+	 * time. Statements of databases that have been closed are dropped.
+	 */
+	static MoveStatements get(final SQLiteDatabase db) {
+		synchronized (cache) {
+			MoveStatements statements = cache.get(db);
+			if (statements == null) {
+				final Iterator<Map.Entry<SQLiteDatabase, MoveStatements>> it = cache
+						.entrySet().iterator();
+				while (it.hasNext()) {
+					final Map.Entry<SQLiteDatabase, MoveStatements> entry = it
+							.next();
+					if (!entry.getKey().isOpen()) {
+						entry.getValue().close();
+						it.remove();
+					}
+				}
+				statements = new MoveStatements(db);
+				cache.put(db, statements);
+			}
+			return statements;
+		}
+	}
+
+	final SQLiteStatement idAtLeft;
+	final SQLiteStatement idAtRight;
+	final SQLiteStatement leftOf;
+	final SQLiteStatement rightOf;
+	final SQLiteStatement listOf;
+	final SQLiteStatement rightBefore;
+	final SQLiteStatement leftAfter;
+	final SQLiteStatement setPosition;
+
+	private MoveStatements(final SQLiteDatabase db) {
+		idAtLeft = db.compileStatement(SQL_ID_AT_LEFT);
+		idAtRight = db.compileStatement(SQL_ID_AT_RIGHT);
+		leftOf = db.compileStatement(SQL_LEFT_OF);
+		rightOf = db.compileStatement(SQL_RIGHT_OF);
+		listOf = db.compileStatement(SQL_LIST_OF);
+		rightBefore = db.compileStatement(SQL_RIGHT_BEFORE);
+		leftAfter = db.compileStatement(SQL_LEFT_AFTER);
+		setPosition = db.compileStatement(SQL_SET_POSITION);
+	}
+
+	private void close() {
+		idAtLeft.close();
+		idAtRight.close();
+		leftOf.close();
+		rightOf.close();
+		listOf.close();
+		rightBefore.close();
+		leftAfter.close();
+		setPosition.close();
+	}
+
+	/**
+	 * Runs a query for a single number, or returns defaultValue if there is
+	 * no row. Fixed arities, so that no argument arrays are allocated.
+	 */
+	static long queryLong(final SQLiteStatement stmt, final long defaultValue,
+			final long arg1) {
+		stmt.bindLong(1, arg1);
+		return queryLong(stmt, defaultValue);
+	}
+
+	static long queryLong(final SQLiteStatement stmt, final long defaultValue,
+			final long arg1, final long arg2) {
+		stmt.bindLong(1, arg1);
+		stmt.bindLong(2, arg2);
+		return queryLong(stmt, defaultValue);
+	}
+
+	static long queryLong(final SQLiteStatement stmt, final long defaultValue,
+			final long arg1, final long arg2, final long arg3) {
+		stmt.bindLong(1, arg1);
+		stmt.bindLong(2, arg2);
+		stmt.bindLong(3, arg3);
+		return queryLong(stmt, defaultValue);
+	}
+
+	private static long queryLong(final SQLiteStatement stmt,
+			final long defaultValue) {
+		try {
+			return stmt.simpleQueryForLong();
+		}
+		catch (SQLiteDoneException e) {
+			return defaultValue;
+		}
+		finally {
+			stmt.clearBindings();
+		}
+	}
+
+	int setPosition(final long id, final long left) {
+		setPosition.bindLong(1, left);
+		setPosition.bindLong(2, left + 1);
+		setPosition.bindLong(3, id);
+		try {
+			return setPosition.executeUpdateDelete();
+		}
+		finally {
+			setPosition.clearBindings();
+		}
+	}
+}
@@ -2,19 +2,26 @@ package com.nononsenseapps.notepad.database;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
-import com.nononsenseapps.helpers.UpdateNotifier;
+import com.nononsenseapps.notepad.R;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 
 public class MyContentProvider extends ContentProvider {
 	public static final String AUTHORITY = "com.nononsenseapps.NotePad";
@@ -50,6 +57,7 @@ public class MyContentProvider extends ContentProvider {
 			return TaskList.CONTENT_TYPE;
 		case Task.BASEITEMCODE:
 		case Task.BASEURICODE:
+		case Task.LISTCODE:
 		case Task.SECTIONEDDATEITEMCODE:
 		case Task.SECTIONEDDATEQUERYCODE:
 		case Task.LEGACYBASEITEMCODE:
@@ -84,15 +92,30 @@ public class MyContentProvider extends ContentProvider {
 
 	@Override
 	public boolean onCreate() {
+		QueryStats.setEnabled(PreferenceManager.getDefaultSharedPreferences(
+				getContext()).getBoolean(
+				getContext().getString(R.string.pref_debug_query_stats), false));
 		return true;
 	}
 
 	@Override
-	synchronized public Uri insert(Uri uri, ContentValues values) {
+	public Uri insert(Uri uri, ContentValues values) {
+		if (!QueryStats.isEnabled()) {
+			return insertItem(uri, values);
+		}
+		final long start = System.nanoTime();
+		final Uri result = insertItem(uri, values);
+		QueryStats.record(QueryStats.INSERT, sURIMatcher.match(uri), uri,
+				null, null, System.nanoTime() - start, result == null ? 0 : 1);
+		return result;
+	}
+
+	synchronized private Uri insertItem(Uri uri, ContentValues values) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 
 		Uri result = null;
+		Long taskListId = null;
 
 		db.beginTransaction();
 		// Do not add legacy URIs
@@ -104,6 +127,10 @@ public class MyContentProvider extends ContentProvider {
 				break;
 			case Task.BASEURICODE:
 				item = new Task(values);
+				taskListId = ((Task) item).dblist;
+				if (taskListId != null) {
+					Task.ensureRoomAtTop(db, taskListId);
+				}
 				break;
 			case Notification.BASEURICODE:
 			case Notification.WITHTASKQUERYITEMCODE:
@@ -120,7 +147,7 @@ public class MyContentProvider extends ContentProvider {
 						"Faulty insertURI provided: " + uri.toString());
 			}
 
-			result = item.insert(getContext(), db);
+			result = item.insert(getContext(), db, false);
 			db.setTransactionSuccessful();
 		}
 		catch (SQLException e) {
@@ -131,24 +158,43 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result != null) {
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
+			if (taskListId != null) {
+				// Only loaders of that list need to know
+				notifyChange(Task.getListUri(taskListId));
+				updateWidgets(taskListId);
+			}
+			else {
+				notifyChange(uri);
+				updateWidgets();
+			}
+			notifyChange(TaskList.URI_WITH_COUNT);
 		}
 
 		return result;
 	}
 
 	@Override
-	synchronized public int update(Uri uri, ContentValues values,
+	public int update(Uri uri, ContentValues values, String selection,
+			String[] selectionArgs) {
+		if (!QueryStats.isEnabled()) {
+			return updateItems(uri, values, selection, selectionArgs);
+		}
+		final long start = System.nanoTime();
+		final int result = updateItems(uri, values, selection, selectionArgs);
+		QueryStats.record(QueryStats.UPDATE, sURIMatcher.match(uri), uri,
+				selection, null, System.nanoTime() - start, result);
+		return result;
+	}
+
+	synchronized private int updateItems(Uri uri, ContentValues values,
 			String selection, String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
 		final Task t;
-		final SQLiteStatement stmt;
-		final String sql;
-        final ArrayList<Uri> updateUris = new ArrayList<Uri>();
+        final LinkedHashSet<Uri> updateUris = new LinkedHashSet<Uri>();
+		// Lists whose widgets to update, all if empty
+		final LinkedHashSet<Long> updateLists = new LinkedHashSet<Long>();
 		db.beginTransaction();
 
 		try {
@@ -163,31 +209,34 @@ public class MyContentProvider extends ContentProvider {
 						TaskList.whereIdArg(list._id, selectionArgs));
 				break;
 			case Task.MOVEITEMLEFTCODE:
-                updateUris.add(Task.URI);
-				t = new Task(values);
-				sql = t.getSQLMoveItemLeft(values);
-				if (sql != null) {
-					stmt = db.compileStatement(sql);
-					result += stmt.executeUpdateDelete();
-				}
+				t = new Task(uri, values);
+				addTaskUris(updateUris, updateLists, t.dblist);
+				result += t.moveItemLeft(db, values);
 				break;
 			case Task.MOVEITEMRIGHTCODE:
-                updateUris.add(Task.URI);
-				t = new Task(values);
-				sql = t.getSQLMoveItemRight(values);
-				if (sql != null) {
-					stmt = db.compileStatement(sql);
-					result += stmt.executeUpdateDelete();
-				}
+				t = new Task(uri, values);
+				addTaskUris(updateUris, updateLists, t.dblist);
+				result += t.moveItemRight(db, values);
 				break;
 			case Task.BASEITEMCODE:
-                updateUris.add(Task.URI);
-                updateUris.add(Task.URI_SECTIONED_BY_DATE);
-                updateUris.add(Task.URI_TASK_HISTORY);
-                updateUris.add(TaskList.URI);
-                updateUris.add(TaskList.URI_WITH_COUNT);
 				// regular update
 				t = new Task(uri, values);
+				final long oldListId = Task.getListOf(db, t._id);
+				updateUris.add(Task.getUri(t._id));
+				addTaskUris(updateUris, updateLists, oldListId);
+				if (values.containsKey(Task.Columns.TITLE)
+						|| values.containsKey(Task.Columns.NOTE)) {
+					updateUris.add(Task.URI_TASK_HISTORY);
+				}
+				if (values.containsKey(Task.Columns.COMPLETED)) {
+					updateUris.add(TaskList.URI_WITH_COUNT);
+				}
+				if (t.dblist != null && t.dblist != oldListId) {
+					// Moving to another list, on top of its tasks
+					addTaskUris(updateUris, updateLists, t.dblist);
+					updateUris.add(TaskList.URI_WITH_COUNT);
+					Task.ensureRoomAtTop(db, t.dblist);
+				}
 				if (t.getContent().size() > 0) {
 					// Something changed in task
 
@@ -196,11 +245,27 @@ public class MyContentProvider extends ContentProvider {
 							Task.whereIdArg(t._id, selectionArgs));
 				}
 				break;
+			case Task.MOVETOLISTCODE:
+				// Values are not used, only the target list
+				final long toListId = Long.parseLong(uri.getLastPathSegment());
+				for (Long fromListId : Task.getListsOf(db, selection,
+						selectionArgs)) {
+					addTaskUris(updateUris, updateLists, fromListId);
+				}
+				addTaskUris(updateUris, updateLists, toListId);
+				updateUris.add(TaskList.URI_WITH_COUNT);
+				result += Task.moveToList(db, toListId, selection,
+						selectionArgs);
+				break;
 			case Task.BASEURICODE:
                 updateUris.add(Task.URI);
                 updateUris.add(TaskList.URI);
                 updateUris.add(TaskList.URI_WITH_COUNT);
 				// Batch. No checks made
+				if (values.containsKey(Task.Columns.DBLIST)) {
+					Task.ensureRoomAtTop(db,
+							values.getAsLong(Task.Columns.DBLIST));
+				}
 				result += db.update(Task.TABLE_NAME, values, selection,
 						selectionArgs);
 				break;
@@ -252,9 +317,16 @@ public class MyContentProvider extends ContentProvider {
 
 		if (result >= 0) {
             for (Uri u: updateUris) {
-                DAO.notifyProviderOnChange(getContext(), u);
+                notifyChange(u);
             }
-			UpdateNotifier.updateWidgets(getContext());
+			if (updateLists.isEmpty()) {
+				updateWidgets();
+			}
+			else {
+				for (Long listId : updateLists) {
+					updateWidgets(listId);
+				}
+			}
 		}
 
 		return result;
@@ -281,11 +353,23 @@ public class MyContentProvider extends ContentProvider {
 	}
 
 	@Override
-	synchronized public int delete(Uri uri, String selection,
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		if (!QueryStats.isEnabled()) {
+			return deleteItems(uri, selection, selectionArgs);
+		}
+		final long start = System.nanoTime();
+		final int result = deleteItems(uri, selection, selectionArgs);
+		QueryStats.record(QueryStats.DELETE, sURIMatcher.match(uri), uri,
+				selection, null, System.nanoTime() - start, result);
+		return result;
+	}
+
+	synchronized private int deleteItems(Uri uri, String selection,
 			String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
+		long taskListId = -1;
 		// Do not add legacy URIs
 		switch (sURIMatcher.match(uri)) {
 		case TaskList.BASEITEMCODE:
@@ -296,11 +380,20 @@ public class MyContentProvider extends ContentProvider {
 			result += db.delete(TaskList.TABLE_NAME, selection, selectionArgs);
 			break;
 		case Task.BASEITEMCODE:
+			taskListId = Task.getListOf(db,
+					Long.parseLong(uri.getLastPathSegment()));
 			result += safeDeleteItem(db, Task.TABLE_NAME, uri, selection,
 					selectionArgs);
 			break;
 		case Task.BASEURICODE:
-			result += db.delete(Task.TABLE_NAME, selection, selectionArgs);
+			db.beginTransaction();
+			try {
+				result += Task.deleteInBulk(db, selection, selectionArgs);
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
 			break;
 		case Notification.BASEURICODE:
 			result += db.delete(Notification.TABLE_NAME, selection,
@@ -341,15 +434,151 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result > 0) {
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
+			notifyChange(uri);
+			notifyChange(TaskList.URI_WITH_COUNT);
+			if (taskListId > 0) {
+				notifyChange(Task.getListUri(taskListId));
+				updateWidgets(taskListId);
+			}
+			else {
+				updateWidgets();
+			}
 		}
 		return result;
 	}
 
+	/**
+	 * Applies all operations in a single transaction. Observers and widgets
+	 * are notified once per affected URI when the whole batch has been
+	 * committed, instead of once per operation. If any operation fails, the
+	 * entire batch is rolled back.
+	 */
+	@Override
+	synchronized public ContentProviderResult[] applyBatch(
+			final ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final ContentProviderResult[] results;
+		boolean success = false;
+
+		beginBatch();
+		db.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			success = true;
+		}
+		finally {
+			db.endTransaction();
+			endBatch(success);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Inserts all values in a single transaction and notifies once. This is
+	 * all or nothing: if one insert fails, nothing is inserted and 0 is
+	 * returned.
+	 */
 	@Override
-	synchronized public Cursor query(Uri uri, String[] projection,
+	synchronized public int bulkInsert(final Uri uri,
+			final ContentValues[] values) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		int result = 0;
+		boolean success = false;
+
+		beginBatch();
+		db.beginTransaction();
+		try {
+			for (ContentValues value : values) {
+				if (insert(uri, value) == null) {
+					// Failed insert has already doomed the transaction
+					result = 0;
+					break;
+				}
+				result++;
+			}
+			if (result == values.length) {
+				db.setTransactionSuccessful();
+				success = true;
+			}
+		}
+		finally {
+			db.endTransaction();
+			endBatch(success);
+		}
+
+		return result;
+	}
+
+	private void beginBatch() {
+		ChangeDispatcher.getInstance(getContext()).hold();
+	}
+
+	/**
+	 * Sends the notifications collected during the batch now if it was
+	 * committed, and drops them if it was rolled back.
+	 */
+	private void endBatch(final boolean committed) {
+		ChangeDispatcher.getInstance(getContext()).release(committed);
+	}
+
+	/**
+	 * Notifications go through the dispatcher, which sends each URI once
+	 * per short window or batch.
+	 */
+	private void notifyChange(final Uri uri) {
+		ChangeDispatcher.getInstance(getContext()).notifyChange(uri);
+	}
+
+	private void updateWidgets() {
+		ChangeDispatcher.getInstance(getContext()).updateWidgets();
+	}
+
+	private void updateWidgets(final long listId) {
+		ChangeDispatcher.getInstance(getContext()).updateWidgets(listId);
+	}
+
+	/**
+	 * Adds the URI of the tasks in the list, or all tasks if the list is not
+	 * known.
+	 */
+	private static void addTaskUris(final LinkedHashSet<Uri> uris,
+			final LinkedHashSet<Long> lists, final Long listId) {
+		if (listId != null && listId > 0) {
+			uris.add(Task.getListUri(listId));
+			lists.add(listId);
+		}
+		else {
+			uris.add(Task.URI);
+		}
+	}
+
+	/**
+	 * Not synchronized. The database is in write ahead logging mode so reads
+	 * run in parallel with the single writer and never write themselves.
+	 */
+	@Override
+	public Cursor query(Uri uri, String[] projection,
+			String selection, String[] selectionArgs, String sortOrder) {
+		if (!QueryStats.isEnabled()) {
+			return queryItems(uri, projection, selection, selectionArgs,
+					sortOrder);
+		}
+		final long start = System.nanoTime();
+		final Cursor result = queryItems(uri, projection, selection,
+				selectionArgs, sortOrder);
+		// Counting runs the query, so that is included in the time
+		final int rows = result == null ? 0 : result.getCount();
+		QueryStats.record(QueryStats.QUERY, sURIMatcher.match(uri), uri,
+				selection, sortOrder, System.nanoTime() - start, rows);
+		return result;
+	}
+
+	private Cursor queryItems(Uri uri, String[] projection,
 			String selection, String[] selectionArgs, String sortOrder) {
 		Cursor result = null;
 		final long id;
@@ -380,35 +609,49 @@ public class MyContentProvider extends ContentProvider {
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
 		case TaskList.VIEWCOUNTCODE:
-			// Create view if not exists
-			DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-					.execSQL(TaskList.CREATE_COUNT_VIEW);
-
 			result = DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(TaskList.VIEWCOUNT_NAME, projection, selection,
+					.query(asSubquery(TaskList.SELECT_WITH_COUNT,
+							TaskList.VIEWCOUNT_NAME), projection, selection,
 							selectionArgs, null, null, sortOrder);
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
-		case Task.DELETEDQUERYCODE:
-			final String[] query = sanitize(selectionArgs);
+		case TaskList.SYNCSTATECODE:
 			result = DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(Task.DELETE_TABLE_NAME,
-							Task.Columns.DELETEFIELDS,
-							Task.Columns._ID
-									+ " IN (SELECT "
-									+ Task.Columns._ID
-									+ " FROM "
-									+ Task.FTS3_DELETE_TABLE_NAME
-									+ ((query[0].isEmpty() || query[0]
-											.equals("'*'")) ? ")"
-											: (" WHERE "
-													+ Task.FTS3_DELETE_TABLE_NAME + " MATCH ?)")),
-							(query[0].isEmpty() || query[0].equals("'*'")) ? null
-									: query, null, null, sortOrder);
+					.query(asSubquery(TaskList.SELECT_SYNC_STATE,
+							TaskList.SYNC_STATE_NAME), projection, selection,
+							selectionArgs, null, null, sortOrder);
+			result.setNotificationUri(getContext().getContentResolver(), uri);
+			break;
+		case Task.DELETEDQUERYCODE:
+			final String[] query = sanitize(selectionArgs);
+			if (query[0].isEmpty()) {
+				result = DatabaseHandler
+						.getInstance(getContext())
+						.getReadableDatabase()
+						.query(Task.DELETE_TABLE_NAME,
+								Task.Columns.DELETEFIELDS, null, null, null,
+								null, sortOrder);
+			}
+			else {
+				result = DatabaseHandler
+						.getInstance(getContext())
+						.getReadableDatabase()
+						.query(searchJoin(Task.DELETE_TABLE_NAME,
+								Task.FTS_DELETE_TABLE_NAME),
+								searchColumns(Task.DELETE_TABLE_NAME,
+										Task.FTS_DELETE_TABLE_NAME,
+										Task.Columns.DELETEFIELDS,
+										sortOrder == null),
+								Task.FTS_DELETE_TABLE_NAME + " MATCH ?", query,
+								null, null, sortOrder);
+				if (sortOrder == null) {
+					result = SearchRanker.rank(result, -1);
+				}
+			}
 
 			result.setNotificationUri(getContext().getContentResolver(),
 					Task.URI_DELETED_QUERY);
@@ -418,7 +661,8 @@ public class MyContentProvider extends ContentProvider {
 					.getInstance(getContext())
 					.getReadableDatabase()
 					.query(Task.TABLE_NAME, projection, selection,
-							selectionArgs, null, null, sortOrder);
+							selectionArgs, null, null, sortOrder,
+							limitOf(uri));
 
 			result.setNotificationUri(getContext().getContentResolver(),
 					Task.URI);
@@ -436,35 +680,39 @@ public class MyContentProvider extends ContentProvider {
 							null, sortOrder);
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
+		case Task.LISTCODE:
+			id = Long.parseLong(uri.getLastPathSegment());
+			result = DatabaseHandler
+					.getInstance(getContext())
+					.getReadableDatabase()
+					.query(Task.TABLE_NAME, projection,
+							Task.whereListIs(selection),
+							Task.whereIdArg(id, selectionArgs), null, null,
+							sortOrder, limitOf(uri));
+			result.setNotificationUri(getContext().getContentResolver(), uri);
+			break;
 		case Task.SECTIONEDDATEQUERYCODE:
-			// Add list null because that's what the headers will have
-			final String listId;
-			if (selectionArgs == null || selectionArgs.length == 0) {
-				listId = null;
-				// throw new SQLException(
-				// "Need a listid as first arg at the moment for this view!");
-			}
-			else {
-				listId = selectionArgs[0];
+			// First argument is the list, that's what the headers will have
+			Long listId = null;
+			if (selectionArgs != null && selectionArgs.length > 0) {
+				try {
+					listId = Long.parseLong(selectionArgs[0]);
+				}
+				catch (NumberFormatException e) {
+					listId = null;
+				}
 			}
-			// Create view if not exists
-			DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-					.execSQL(Task.CREATE_SECTIONED_DATE_VIEW(listId));
-
-			result = DatabaseHandler
+			// Headers are added in a single pass over the sorted tasks
+			result = new SectionedDateCursor(DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(Task.getSECTION_DATE_VIEW_NAME(listId),
-							projection,
-							selection,
-							selectionArgs,
-							null,
-							null,
-							Task.SECRET_TYPEID + "," + Task.Columns.DUE + ","
-									+ Task.SECRET_TYPEID2);
+					.query(Task.TABLE_NAME,
+							SectionedDateCursor.requiredColumns(projection),
+							selection, selectionArgs, null, null,
+							Task.SECTIONED_DATE_ORDER), listId);
 
 			result.setNotificationUri(getContext().getContentResolver(),
-					Task.URI);
+					listId != null ? Task.getListUri(listId) : Task.URI);
 			break;
 		case Task.HISTORYQUERYCODE:
 			result = DatabaseHandler
@@ -472,8 +720,9 @@ public class MyContentProvider extends ContentProvider {
 					.getReadableDatabase()
 					.query(Task.HISTORY_TABLE_NAME, projection, selection,
 							selectionArgs, null, null,
-							Task.Columns.UPDATED + " ASC");
-			// SQLite timestamp in updated column.
+							Task.Columns._ID + " ASC");
+			// Oldest first. Deltas depend on the order the rows were added,
+			// and several can share the same updated second.
 
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
@@ -491,14 +740,12 @@ public class MyContentProvider extends ContentProvider {
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
 		case Notification.WITHTASKQUERYITEMCODE:
-			// Create view if not exists
-			DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-					.execSQL(Notification.CREATE_JOINED_VIEW);
 			id = Long.parseLong(uri.getLastPathSegment());
 			result = DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(Notification.WITH_TASK_VIEW_NAME,
+					.query(asSubquery(Notification.SELECT_JOINED,
+							Notification.WITH_TASK_VIEW_NAME),
 							projection,
 							Notification.whereIdIs(selection),
 							Notification.joinArrays(selectionArgs,
@@ -515,13 +762,11 @@ public class MyContentProvider extends ContentProvider {
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
 		case Notification.WITHTASKQUERYCODE:
-			// Create view if not exists
-			DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-					.execSQL(Notification.CREATE_JOINED_VIEW);
 			result = DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(Notification.WITH_TASK_VIEW_NAME, projection,
+					.query(asSubquery(Notification.SELECT_JOINED,
+							Notification.WITH_TASK_VIEW_NAME), projection,
 							selection, selectionArgs, null, null, sortOrder);
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
@@ -541,17 +786,35 @@ public class MyContentProvider extends ContentProvider {
 							selectionArgs, null, null, sortOrder);
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
+		case RemoteTask.WITHTASKCODE:
+			// Service and account are ?1 and ?2 in the select
+			result = DatabaseHandler
+					.getInstance(getContext())
+					.getReadableDatabase()
+					.query(asSubquery(RemoteTask.SELECT_WITH_TASK,
+							RemoteTask.WITH_TASK_NAME),
+							projection,
+							selection,
+							RemoteTask.joinArrays(new String[] {
+									uri.getQueryParameter(RemoteTask.Columns.SERVICE),
+									uri.getQueryParameter(RemoteTask.Columns.ACCOUNT) },
+									selectionArgs), null, null, sortOrder);
+			result.setNotificationUri(getContext().getContentResolver(),
+					RemoteTask.URI);
+			break;
 		case Task.SEARCHCODE:
 			result = DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(Task.TABLE_NAME,
-							Task.Columns.FIELDS,
-							Task.Columns._ID + " IN (SELECT "
-									+ Task.Columns._ID + " FROM "
-									+ Task.FTS3_TABLE_NAME + " WHERE "
-									+ Task.FTS3_TABLE_NAME + " MATCH ?)",
+					.query(searchJoin(Task.TABLE_NAME, Task.FTS_TABLE_NAME),
+							searchColumns(Task.TABLE_NAME, Task.FTS_TABLE_NAME,
+									Task.Columns.FIELDS, sortOrder == null),
+							Task.FTS_TABLE_NAME + " MATCH ?",
 							sanitize(selectionArgs), null, null, sortOrder);
+			// No order given means best match first
+			if (sortOrder == null) {
+				result = SearchRanker.rank(result, -1);
+			}
 			result.setNotificationUri(getContext().getContentResolver(),
 					Task.URI_SEARCH);
 			break;
@@ -603,24 +866,34 @@ public class MyContentProvider extends ContentProvider {
 		case Task.SEARCHSUGGESTIONSCODE:
 			final String limit = uri
 					.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
-			result = DatabaseHandler
-					.getInstance(getContext())
-					.getReadableDatabase()
-					.query(Task.FTS3_TABLE_NAME,
-							new String[] {
-									Task.Columns._ID,
-									Task.Columns._ID
-											+ " AS "
-											+ SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
-									Task.Columns.TITLE
-											+ " AS "
-											+ SearchManager.SUGGEST_COLUMN_TEXT_1,
-									Task.Columns.NOTE
-											+ " AS "
-											+ SearchManager.SUGGEST_COLUMN_TEXT_2 },
-							Task.FTS3_TABLE_NAME + " MATCH ?",
-							sanitize(selectionArgs), null, null,
-							SearchManager.SUGGEST_COLUMN_TEXT_1, limit);
+			result = SearchRanker.rank(
+					DatabaseHandler
+							.getInstance(getContext())
+							.getReadableDatabase()
+							.query(searchJoin(Task.TABLE_NAME,
+									Task.FTS_TABLE_NAME),
+									new String[] {
+											Task.TABLE_NAME + "."
+													+ Task.Columns._ID,
+											Task.TABLE_NAME
+													+ "."
+													+ Task.Columns._ID
+													+ " AS "
+													+ SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
+											Task.TABLE_NAME
+													+ "."
+													+ Task.Columns.TITLE
+													+ " AS "
+													+ SearchManager.SUGGEST_COLUMN_TEXT_1,
+											snippet(Task.FTS_TABLE_NAME, "",
+													"")
+													+ " AS "
+													+ SearchManager.SUGGEST_COLUMN_TEXT_2,
+											SearchRanker
+													.matchinfo(Task.FTS_TABLE_NAME) },
+									Task.FTS_TABLE_NAME + " MATCH ?",
+									sanitize(selectionArgs), null, null,
+									null), parseLimit(limit));
 			result.setNotificationUri(getContext().getContentResolver(),
 					Task.URI_SEARCH);
 			break;
@@ -640,19 +913,93 @@ public class MyContentProvider extends ContentProvider {
 		return result;
 	}
 
+	/**
+	 * Turns what the user typed into a query where every word must match the
+	 * start of a word. Characters with a meaning in the query syntax are
+	 * dropped so that no input can make the query fail.
+	 */
 	private String[] sanitize(final String... args) {
-		if (args.length == 0) return new String[] { "" };
+		if (args == null || args.length == 0) return new String[] { "" };
 
 		final StringBuilder result = new StringBuilder();
 		for (String query : args) {
-			// for (String part : query.split("\\s")) {
-			if (result.length() > 0) result.append(" AND ");
-			// Wrap each word in quotes and add star to the end
-			result.append("'" + query + "*'");
-			// }
+			if (query == null) continue;
+			for (String word : query.replaceAll("[\"'*():^\\-]", " ").split(
+					"\\s+")) {
+				if (word.isEmpty()) continue;
+				if (result.length() > 0) result.append(" ");
+				// Lower case operators are plain words
+				if (FTS_OPERATORS.contains(word)) {
+					word = word.toLowerCase(Locale.US);
+				}
+				result.append(word).append("*");
+			}
 		}
 
 		return new String[] { result.toString() };
 	}
 
+	private static final List<String> FTS_OPERATORS = Arrays.asList("AND",
+			"OR", "NOT", "NEAR");
+
+	private static String searchJoin(final String table, final String fts) {
+		return table + " JOIN " + fts + " ON " + table + "." + Task.Columns._ID
+				+ " = " + fts + ".docid";
+	}
+
+	/**
+	 * Columns of the content table, the note snippet and, to rank the result
+	 * in Java, the match info.
+	 */
+	private static String[] searchColumns(final String table,
+			final String fts, final String[] fields, final boolean rank) {
+		final String[] columns = new String[fields.length + (rank ? 2 : 1)];
+		for (int i = 0; i < fields.length; i++) {
+			columns[i] = table + "." + fields[i] + " AS " + fields[i];
+		}
+		columns[fields.length] = snippet(fts, Task.SNIPPET_START,
+				Task.SNIPPET_END) + " AS " + Task.Columns.SNIPPET;
+		if (rank) {
+			columns[fields.length + 1] = SearchRanker.matchinfo(fts);
+		}
+		return columns;
+	}
+
+	private static String snippet(final String fts, final String start,
+			final String end) {
+		// Note is the second column of the search tables
+		return "snippet(" + fts + ", '" + start + "', '" + end
+				+ "', '\u2026', 1, 12)";
+	}
+
+	/**
+	 * The limit query parameter of uri, or null if it has none or it is not a
+	 * number
+	 */
+	private static String limitOf(final Uri uri) {
+		final int limit = parseLimit(uri.getQueryParameter(Task.QUERY_LIMIT));
+		return limit < 0 ? null : Integer.toString(limit);
+	}
+
+	private static int parseLimit(final String limit) {
+		if (limit == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(limit);
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Temp views only exist on the connection that created them. With write
+	 * ahead logging a read can run on any connection in the pool, so query
+	 * the view's select statement directly.
+	 */
+	private static String asSubquery(final String select, final String name) {
+		return "(" + select + ") AS " + name;
+	}
+
 }
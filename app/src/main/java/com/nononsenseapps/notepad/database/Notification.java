@@ -143,13 +143,23 @@ public class Notification extends DAO {
 									.append(Task.Columns._ID).append(") ON DELETE CASCADE")
 									.append(")").toString();
 
+	// Lookups and cascading deletes by task
+	public static final String CREATE_TASKID_INDEX = new StringBuilder(
+									"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+									.append("_task_idx ON ").append(TABLE_NAME).append("(")
+									.append(Columns.TASKID).append(")").toString();
+
+	// Scheduling queries on time
+	public static final String CREATE_TIME_INDEX = new StringBuilder(
+									"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+									.append("_time_idx ON ").append(TABLE_NAME).append("(")
+									.append(Columns.TIME).append(")").toString();
+
 	/**
-	 * View that joins relevant data from tasks and lists tables
+	 * Joins relevant data from tasks and lists tables. Can be queried as a
+	 * subquery on any connection, unlike the temp view.
 	 */
-	public static final String CREATE_JOINED_VIEW = new StringBuilder()
-									.append("CREATE TEMP VIEW IF NOT EXISTS ")
-									.append(WITH_TASK_VIEW_NAME)
-									.append(" AS ")
+	public static final String SELECT_JOINED = new StringBuilder()
 									.append(" SELECT ")
 									// Notifications as normal column names
 									.append(arrayToCommaString(TABLE_NAME + ".", Columns.FIELDS))
@@ -172,7 +182,15 @@ public class Notification extends DAO {
 									.append(TABLE_NAME).append(".").append(Columns.TASKID)
 									.append(" = t.").append(Task.Columns._ID).append(" AND t.")
 									.append(Task.Columns.DBLIST).append(" = l.")
-									.append(TaskList.Columns._ID).append(";").toString();
+									.append(TaskList.Columns._ID).toString();
+
+	/**
+	 * View that joins relevant data from tasks and lists tables
+	 */
+	public static final String CREATE_JOINED_VIEW = new StringBuilder()
+									.append("CREATE TEMP VIEW IF NOT EXISTS ")
+									.append(WITH_TASK_VIEW_NAME).append(" AS ")
+									.append(SELECT_JOINED).append(";").toString();
 
 	// milliseconds since 1970-01-01 UTC
 	public Long time = null;
@@ -203,6 +221,13 @@ public class Notification extends DAO {
 	}
 
 	public Notification(final Cursor c) {
+		readFrom(c);
+	}
+
+	/**
+	 * Sets all fields from a cursor with Columns.FIELDS
+	 */
+	private void readFrom(final Cursor c) {
 		_id = c.getLong(0);
 		time = c.isNull(1) ? null : c.getLong(1);
 		permanent = 1 == c.getLong(2);
@@ -224,6 +249,34 @@ public class Notification extends DAO {
 		}
 	}
 
+	/**
+	 * Reads reminders from a cursor with Columns.FIELDS without an object
+	 * per row.
+	 */
+	public static class Reader extends RowReader<Notification> {
+		public Reader(final Cursor c) {
+			super(c);
+		}
+
+		public boolean hasTime() {
+			return !c.isNull(1);
+		}
+
+		public long getTime() {
+			return getLong(1, 0);
+		}
+
+		public long getTaskId() {
+			return getLong(3, 0);
+		}
+
+		@Override
+		public Notification readInto(final Notification item) {
+			item.readFrom(c);
+			return item;
+		}
+	}
+
 	public Notification(final Uri uri, final ContentValues values) {
 		this(Long.parseLong(uri.getLastPathSegment()), values);
 	}
@@ -505,7 +558,7 @@ public class Notification extends DAO {
 	// .query(Task.URI,
 	// Task.Columns.FIELDS,
 	// Task.Columns.DBLIST
-	// + " IS ? AND "
+	// + " = ? AND "
 	// + com.nononsenseapps.notepad.database.Notification.Columns.RADIUS
 	// + " IS NULL",
 	// new String[] { Long.toString(listId) }, null);
@@ -535,7 +588,7 @@ public class Notification extends DAO {
 		return getNotificationsWithTasks(
 										context,
 										new StringBuilder().append(com.nononsenseapps.notepad.database.Notification.Columns.TASKID)
-																		+ " IS ?",
+																		+ " = ?",
 										new String[] { Long.toString(taskId) },
 										new StringBuilder().append(com.nononsenseapps.notepad.database.Notification.Columns.TIME)
 																		.toString());
@@ -587,7 +640,7 @@ public class Notification extends DAO {
 		final ContentValues values = new ContentValues();
 		values.put(Columns.TIME, newTime);
 		// Use base ID to bypass type checks
-		return context.getContentResolver().update(URI, values, Columns._ID + " IS ?",
+		return context.getContentResolver().update(URI, values, Columns._ID + " = ?",
 										new String[] { uri.getLastPathSegment() });
 	}
 
@@ -604,7 +657,7 @@ public class Notification extends DAO {
 												.query(Task.URI,
 																				Task.Columns.FIELDS,
 																				Task.Columns.DBLIST
-																												+ " IS ? AND "
+																												+ " = ? AND "
 																												+ com.nononsenseapps.notepad.database.Notification.Columns.RADIUS
 																												+ " IS NULL",
 																				new String[] { Long.toString(listId) },
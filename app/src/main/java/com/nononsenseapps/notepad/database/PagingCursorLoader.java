@@ -0,0 +1,299 @@
+package com.nononsenseapps.notepad.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loads tasks a page at a time, ordered by a key column and then the id.
+ * Each page continues after the last row of the one before (keyset
+ * pagination) instead of using an offset, so a page costs the same however
+ * far down it is. Only the pages scrolled to are in memory, and the first
+ * one is shown without waiting for the rest.
+ *
+ * Call loadMore when the list nears the end of what is loaded. When the
+ * data changes, as many rows as were loaded are loaded again in one query.
+ *
+ * Rows with a null key come first in ascending order and last in descending
+ * order, like SQLite sorts them.
+ */
+public class PagingCursorLoader extends AsyncTaskLoader<Cursor> {
+
+	public static final int PAGE_SIZE = 100;
+
+	private final Uri mUri;
+	private final String[] mProjection;
+	private final String mWhere;
+	private final String[] mWhereArgs;
+	private final String mKey;
+	private final boolean mDescending;
+	private final boolean mNullable;
+	private final ForceLoadContentObserver mObserver;
+	private boolean mRegistered = false;
+
+	private volatile PagedCursor mCursor;
+	// If the running load continues mCursor instead of reloading
+	private volatile boolean mMore = false;
+
+	/**
+	 * @param key
+	 *            Column to order by. It and the id must be in the projection.
+	 * @param nullable
+	 *            If key can be null
+	 */
+	public PagingCursorLoader(final Context context, final Uri uri,
+			final String[] projection, final String where,
+			final String[] whereArgs, final String key,
+			final boolean descending, final boolean nullable) {
+		super(context);
+		mUri = uri;
+		mProjection = projection;
+		mWhere = where;
+		mWhereArgs = whereArgs;
+		mKey = key;
+		mDescending = descending;
+		mNullable = nullable;
+		mObserver = new ForceLoadContentObserver();
+	}
+
+	/**
+	 * Loads the next page, unless everything is loaded or already loading.
+	 */
+	public void loadMore() {
+		final PagedCursor cursor = mCursor;
+		if (cursor == null || cursor.atEnd || mMore || !isStarted()) {
+			return;
+		}
+		mMore = true;
+		forceLoad();
+	}
+
+	/**
+	 * True when all rows have been loaded
+	 */
+	public boolean isComplete() {
+		final PagedCursor cursor = mCursor;
+		return cursor != null && cursor.atEnd;
+	}
+
+	@Override
+	public void onContentChanged() {
+		// Earlier pages may have changed, start over
+		mMore = false;
+		super.onContentChanged();
+	}
+
+	@Override
+	public Cursor loadInBackground() {
+		final PagedCursor base = mMore ? mCursor : null;
+		if (base != null) {
+			final Cursor page = queryPage(base, PAGE_SIZE);
+			final Cursor[] pages = Arrays.copyOf(base.pages,
+					base.pages.length + 1);
+			pages[pages.length - 1] = page;
+			return new PagedCursor(pages, page, base, PAGE_SIZE);
+		}
+		else {
+			// Reload what was shown, rounded up to whole pages
+			final PagedCursor shown = mCursor;
+			final int rows = shown == null ? PAGE_SIZE
+					: Math.max(PAGE_SIZE, (shown.getCount() + PAGE_SIZE - 1)
+							/ PAGE_SIZE * PAGE_SIZE);
+			final Cursor page = queryPage(null, rows);
+			return new PagedCursor(new Cursor[] { page }, page, null, rows);
+		}
+	}
+
+	/**
+	 * Returns up to limit rows after the last row of after, or from the
+	 * start if it is null.
+	 */
+	private Cursor queryPage(final PagedCursor after, final int limit) {
+		final boolean nullsFirst = mNullable && !mDescending;
+		final String op = mDescending ? " < ?" : " > ?";
+		final boolean inNulls;
+		final String where;
+		final String[] args;
+		if (after == null) {
+			inNulls = nullsFirst;
+			where = null;
+			args = null;
+		}
+		else if (after.lastKeyNull) {
+			inNulls = true;
+			where = Task.Columns._ID + op;
+			args = new String[] { Long.toString(after.lastId) };
+		}
+		else {
+			inNulls = false;
+			where = "(" + mKey + op + " OR (" + mKey + " = ? AND "
+					+ Task.Columns._ID + op + "))";
+			final String key = Long.toString(after.lastKey);
+			args = new String[] { key, key, Long.toString(after.lastId) };
+		}
+
+		final Cursor first = query(inNulls, where, args, limit);
+		final int count = first.getCount();
+		if (mNullable && count < limit && inNulls == nullsFirst) {
+			// Continue with the other rows from their start
+			final Cursor second = query(!inNulls, null, null, limit - count);
+			return new MergeCursor(new Cursor[] { first, second });
+		}
+		return first;
+	}
+
+	private Cursor query(final boolean nullKeys, final String keysetWhere,
+			final String[] keysetArgs, final int limit) {
+		final ArrayList<String> parts = new ArrayList<String>(3);
+		if (mWhere != null) {
+			parts.add("(" + mWhere + ")");
+		}
+		if (mNullable) {
+			parts.add(mKey + (nullKeys ? " IS NULL" : " IS NOT NULL"));
+		}
+		if (keysetWhere != null) {
+			parts.add(keysetWhere);
+		}
+		final StringBuilder where = new StringBuilder();
+		for (String part : parts) {
+			if (where.length() > 0) {
+				where.append(" AND ");
+			}
+			where.append(part);
+		}
+
+		final String dir = mDescending ? " DESC" : " ASC";
+		final String order = nullKeys ? Task.Columns._ID + dir : mKey + dir
+				+ ", " + Task.Columns._ID + dir;
+
+		final Cursor c = getContext().getContentResolver().query(
+				mUri.buildUpon()
+						.appendQueryParameter(Task.QUERY_LIMIT,
+								Integer.toString(limit)).build(), mProjection,
+				where.length() > 0 ? where.toString() : null,
+				DAO.joinArrays(mWhereArgs, keysetArgs), order);
+		// Fill the window here and not on the main thread
+		c.getCount();
+		return c;
+	}
+
+	@Override
+	public void deliverResult(final Cursor cursor) {
+		final PagedCursor result = (PagedCursor) cursor;
+		if (isReset()) {
+			if (result != null) {
+				result.closeExcept(mCursor);
+			}
+			return;
+		}
+		final PagedCursor old = mCursor;
+		mCursor = result;
+		mMore = false;
+		if (isStarted()) {
+			super.deliverResult(result);
+		}
+		if (old != null && old != result) {
+			// Pages still in the new result stay open
+			old.closeExcept(result);
+		}
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (!mRegistered) {
+			getContext().getContentResolver().registerContentObserver(mUri,
+					true, mObserver);
+			mRegistered = true;
+		}
+		if (mCursor != null) {
+			deliverResult(mCursor);
+		}
+		if (takeContentChanged() || mCursor == null) {
+			forceLoad();
+		}
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	public void onCanceled(final Cursor cursor) {
+		if (cursor != null) {
+			((PagedCursor) cursor).closeExcept(mCursor);
+		}
+	}
+
+	@Override
+	protected void onReset() {
+		super.onReset();
+		onStopLoading();
+		if (mRegistered) {
+			getContext().getContentResolver().unregisterContentObserver(
+					mObserver);
+			mRegistered = false;
+		}
+		if (mCursor != null) {
+			mCursor.closeExcept(null);
+		}
+		mCursor = null;
+		mMore = false;
+	}
+
+	/**
+	 * The pages loaded so far, and where the next page starts.
+	 */
+	private class PagedCursor extends MergeCursor {
+		final Cursor[] pages;
+		final boolean atEnd;
+		final boolean lastKeyNull;
+		final long lastKey;
+		final long lastId;
+
+		PagedCursor(final Cursor[] pages, final Cursor last,
+				final PagedCursor previous, final int limit) {
+			super(pages);
+			this.pages = pages;
+			atEnd = last.getCount() < limit;
+			if (last.moveToLast()) {
+				final int keyCol = last.getColumnIndexOrThrow(mKey);
+				lastKeyNull = last.isNull(keyCol);
+				lastKey = lastKeyNull ? 0 : last.getLong(keyCol);
+				lastId = last.getLong(last
+						.getColumnIndexOrThrow(Task.Columns._ID));
+			}
+			else if (previous != null) {
+				lastKeyNull = previous.lastKeyNull;
+				lastKey = previous.lastKey;
+				lastId = previous.lastId;
+			}
+			else {
+				lastKeyNull = false;
+				lastKey = 0;
+				lastId = 0;
+			}
+			moveToPosition(-1);
+		}
+
+		/**
+		 * Closes the pages that are not also in other
+		 */
+		void closeExcept(final PagedCursor other) {
+			final ArrayList<Cursor> keep = new ArrayList<Cursor>();
+			if (other != null) {
+				keep.addAll(Arrays.asList(other.pages));
+			}
+			for (Cursor page : pages) {
+				if (!keep.contains(page) && !page.isClosed()) {
+					page.close();
+				}
+			}
+		}
+	}
+}
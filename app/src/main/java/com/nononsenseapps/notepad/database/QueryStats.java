@@ -0,0 +1,180 @@
+package com.nononsenseapps.notepad.database;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+
+import android.net.Uri;
+
+import com.nononsenseapps.util.LongMap;
+
+/**
+ * Timing of the content provider's queries, inserts, updates and deletes per
+ * URI code, and a log of the latest slow ones. For finding what is slow on
+ * real devices, shown by the hidden database statistics screen.
+ *
+ * Off by default. When off, the provider only reads one flag per call.
+ */
+public class QueryStats {
+
+	public static final int QUERY = 0;
+	public static final int INSERT = 1;
+	public static final int UPDATE = 2;
+	public static final int DELETE = 3;
+	private static final String[] OPS = { "query", "insert", "update",
+			"delete" };
+
+	// Calls slower than this are logged
+	public static final long SLOW_MS = 50;
+	private static final int SLOW_LOG_SIZE = 50;
+	// Percentiles are of the latest durations
+	private static final int SAMPLES = 256;
+
+	private static volatile boolean sEnabled = false;
+
+	// Guarded by the class
+	private static final LongMap<Stat> sStats = new LongMap<Stat>();
+	private static final Slow[] sSlow = new Slow[SLOW_LOG_SIZE];
+	private static int sSlowNext = 0;
+
+	private static class Stat {
+		final int op;
+		final int code;
+		// An example, the code alone is hard to read
+		final String path;
+		long count = 0;
+		long rows = 0;
+		long maxNanos = 0;
+		final long[] samples = new long[SAMPLES];
+
+		Stat(final int op, final int code, final String path) {
+			this.op = op;
+			this.code = code;
+			this.path = path;
+		}
+	}
+
+	private static class Slow {
+		final long when;
+		final int op;
+		final String uri;
+		final String selection;
+		final String sortOrder;
+		final long nanos;
+		final int rows;
+
+		Slow(final int op, final Uri uri, final String selection,
+				final String sortOrder, final long nanos, final int rows) {
+			this.when = System.currentTimeMillis();
+			this.op = op;
+			this.uri = uri.toString();
+			this.selection = selection;
+			this.sortOrder = sortOrder;
+			this.nanos = nanos;
+			this.rows = rows;
+		}
+	}
+
+	public static boolean isEnabled() {
+		return sEnabled;
+	}
+
+	public static void setEnabled(final boolean enabled) {
+		sEnabled = enabled;
+	}
+
+	/**
+	 * Records one call. Rows is the number returned or changed.
+	 */
+	public static void record(final int op, final int code, final Uri uri,
+			final String selection, final String sortOrder, final long nanos,
+			final int rows) {
+		synchronized (QueryStats.class) {
+			final long key = ((long) op << 32) | (code & 0xffffffffL);
+			Stat stat = sStats.get(key);
+			if (stat == null) {
+				stat = new Stat(op, code, uri.getPath());
+				sStats.put(key, stat);
+			}
+			stat.samples[(int) (stat.count % SAMPLES)] = nanos;
+			stat.count++;
+			stat.rows += rows;
+			stat.maxNanos = Math.max(stat.maxNanos, nanos);
+
+			if (nanos >= SLOW_MS * 1000000) {
+				sSlow[sSlowNext] = new Slow(op, uri, selection, sortOrder,
+						nanos, rows);
+				sSlowNext = (sSlowNext + 1) % SLOW_LOG_SIZE;
+			}
+		}
+	}
+
+	public static void clear() {
+		synchronized (QueryStats.class) {
+			sStats.clear();
+			Arrays.fill(sSlow, null);
+			sSlowNext = 0;
+		}
+	}
+
+	private static String ms(final long nanos) {
+		return String.format(Locale.US, "%.1f", nanos / 1000000.0);
+	}
+
+	/**
+	 * The statistics and slow calls as plain text, slowest first.
+	 */
+	public static String report() {
+		final StringBuilder sb = new StringBuilder();
+		synchronized (QueryStats.class) {
+			final ArrayList<Stat> stats = sStats.values();
+			Collections.sort(stats, new Comparator<Stat>() {
+				@Override
+				public int compare(Stat lhs, Stat rhs) {
+					return Long.valueOf(rhs.maxNanos).compareTo(lhs.maxNanos);
+				}
+			});
+			sb.append("op code path: count, rows, p50/p95/max ms\n");
+			for (Stat stat : stats) {
+				final int n = (int) Math.min(stat.count, SAMPLES);
+				final long[] sorted = Arrays.copyOf(stat.samples, n);
+				Arrays.sort(sorted);
+				sb.append(OPS[stat.op]).append(' ').append(stat.code)
+						.append(' ').append(stat.path).append(": ")
+						.append(stat.count).append(", ").append(stat.rows)
+						.append(", ").append(ms(sorted[n / 2])).append('/')
+						.append(ms(sorted[(n * 95 - 1) / 100])).append('/')
+						.append(ms(stat.maxNanos)).append('\n');
+			}
+
+			sb.append("\nSlower than ").append(SLOW_MS)
+					.append(" ms, latest first\n");
+			final SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss",
+					Locale.US);
+			for (int i = 1; i <= SLOW_LOG_SIZE; i++) {
+				final Slow slow = sSlow[(sSlowNext - i + SLOW_LOG_SIZE)
+						% SLOW_LOG_SIZE];
+				if (slow == null) {
+					break;
+				}
+				sb.append(time.format(new Date(slow.when))).append(' ')
+						.append(OPS[slow.op]).append(' ')
+						.append(ms(slow.nanos)).append(" ms, ")
+						.append(slow.rows).append(" rows\n  ").append(slow.uri)
+						.append('\n');
+				if (slow.selection != null) {
+					sb.append("  WHERE ").append(slow.selection).append('\n');
+				}
+				if (slow.sortOrder != null) {
+					sb.append("  ORDER BY ").append(slow.sortOrder)
+							.append('\n');
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -24,20 +24,40 @@ public class RemoteTask extends DAO {
 			Uri.parse(MyContentProvider.SCHEME + MyContentProvider.AUTHORITY),
 			TABLE_NAME);
 
+	/**
+	 * Tasks with their remote rows of one service and account, see
+	 * SELECT_WITH_TASK
+	 */
+	public static final String WITH_TASK_NAME = "remotetask_with_task";
+	public static final Uri URI_WITH_TASK = Uri.withAppendedPath(URI,
+			WITH_TASK_NAME);
+
 	public static final int BASEURICODE = 501;
 	public static final int BASEITEMCODE = 502;
+	public static final int WITHTASKCODE = 503;
 
 	public static void addMatcherUris(UriMatcher sURIMatcher) {
 		sURIMatcher
 				.addURI(MyContentProvider.AUTHORITY, TABLE_NAME, BASEURICODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/#",
 				BASEITEMCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ WITH_TASK_NAME, WITHTASKCODE);
 	}
 
 	public static Uri getUri(final long id) {
 		return Uri.withAppendedPath(URI, Long.toString(id));
 	}
 
+	/**
+	 * URI_WITH_TASK for the remote rows of the service and account
+	 */
+	public static Uri getWithTaskUri(final String service, final String account) {
+		return URI_WITH_TASK.buildUpon()
+				.appendQueryParameter(Columns.SERVICE, service)
+				.appendQueryParameter(Columns.ACCOUNT, account).build();
+	}
+
 	public static class Columns implements BaseColumns {
 
 		private Columns() {
@@ -58,6 +78,21 @@ public class RemoteTask extends DAO {
 
 		public static final String[] FIELDS = { _ID, DBID, REMOTEID, UPDATED,
 				ACCOUNT, LISTDBID, DELETED, FIELD2, FIELD3, FIELD4, FIELD5, SERVICE };
+
+		// Of URI_WITH_TASK
+		public static final String SYNC_LIST = "synclist";
+		public static final String TASK_PREFIX = "t_";
+		public static final String REMOTE_PREFIX = "r_";
+		/**
+		 * The list, then Task.Columns.FIELDS, then FIELDS. Either part can be
+		 * null.
+		 */
+		public static final String[] WITH_TASK_FIELDS = joinArrays(
+				new String[] { SYNC_LIST },
+				prefixArray(TASK_PREFIX, Task.Columns.FIELDS),
+				prefixArray(REMOTE_PREFIX, FIELDS));
+		public static final int WITH_TASK_TASK_OFFSET = 1;
+		public static final int WITH_TASK_REMOTE_OFFSET = 1 + Task.Columns.FIELDS.length;
 	}
 
 	/**
@@ -78,6 +113,65 @@ public class RemoteTask extends DAO {
 			// Cant delete on cascade because we must sync before!
 			.append(")").toString();
 
+	// Sync fetches remote items by service, account and list
+	public static final String CREATE_SYNC_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_sync_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.SERVICE).append(",").append(Columns.ACCOUNT)
+			.append(",").append(Columns.LISTDBID).append(")").toString();
+
+	// Lookups by local task, also used by the triggers below
+	public static final String CREATE_DBID_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_dbid_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.DBID).append(")").toString();
+
+	/**
+	 * Every task with its remote row in the same list, or nulls if it has
+	 * none, followed by the remote rows without a task in their list. Those
+	 * are of deleted or moved tasks. ?1 and ?2 are the service and account,
+	 * filter on SYNC_LIST outside. One query for everything a sync needs to
+	 * know about the tasks of its lists.
+	 */
+	public static final String SELECT_WITH_TASK = selectWithTask();
+
+	private static String selectWithTask() {
+		final StringBuilder sb = new StringBuilder("SELECT t.")
+				.append(Task.Columns.DBLIST).append(" AS ")
+				.append(Columns.SYNC_LIST);
+		for (String column : Task.Columns.FIELDS) {
+			sb.append(", t.").append(column).append(" AS ")
+					.append(Columns.TASK_PREFIX).append(column);
+		}
+		for (String column : Columns.FIELDS) {
+			sb.append(", r.").append(column).append(" AS ")
+					.append(Columns.REMOTE_PREFIX).append(column);
+		}
+		sb.append(" FROM ").append(Task.TABLE_NAME).append(" t LEFT JOIN ")
+				.append(TABLE_NAME).append(" r ON r.").append(Columns.DBID)
+				.append(" = t.").append(Task.Columns._ID).append(" AND r.")
+				.append(Columns.LISTDBID).append(" = t.")
+				.append(Task.Columns.DBLIST).append(" AND r.")
+				.append(Columns.SERVICE).append(" = ?1 AND r.")
+				.append(Columns.ACCOUNT).append(" = ?2");
+
+		sb.append(" UNION ALL SELECT r.").append(Columns.LISTDBID);
+		for (int i = 0; i < Task.Columns.FIELDS.length; i++) {
+			sb.append(", NULL");
+		}
+		for (String column : Columns.FIELDS) {
+			sb.append(", r.").append(column);
+		}
+		sb.append(" FROM ").append(TABLE_NAME).append(" r WHERE r.")
+				.append(Columns.SERVICE).append(" = ?1 AND r.")
+				.append(Columns.ACCOUNT).append(" = ?2 AND NOT EXISTS (SELECT 1 FROM ")
+				.append(Task.TABLE_NAME).append(" t WHERE t.")
+				.append(Task.Columns._ID).append(" = r.").append(Columns.DBID)
+				.append(" AND t.").append(Task.Columns.DBLIST).append(" = r.")
+				.append(Columns.LISTDBID).append(")");
+		return sb.toString();
+	}
+
 	/*
 	 * Trigger to delete items when their list is deleted
 	 */
@@ -167,20 +261,71 @@ public class RemoteTask extends DAO {
 	}
 
 	public RemoteTask(final Cursor c) {
-		_id = c.getLong(0);
-		dbid = c.getLong(1);
-		remoteId = c.getString(2);
-		updated = c.getLong(3);
-		account = c.getString(4);
-		listdbid = c.getLong(5);
-
-		deleted = c.isNull(6) ? null : c.getString(6);
-		field2 = c.isNull(7) ? null : c.getString(7);
-		field3 = c.isNull(8) ? null : c.getString(8);
-		field4 = c.isNull(9) ? null : c.getString(9);
-		field5 = c.isNull(10) ? null : c.getString(10);
+		readFrom(c, 0);
+	}
+
+	/**
+	 * For cursors with more than one table's columns
+	 * 
+	 * @param offset Index of the first of Columns.FIELDS
+	 */
+	public RemoteTask(final Cursor c, final int offset) {
+		readFrom(c, offset);
+	}
+
+	/**
+	 * Sets all fields from a cursor with Columns.FIELDS, starting at offset
+	 */
+	private void readFrom(final Cursor c, final int offset) {
+		_id = c.getLong(offset);
+		dbid = c.getLong(offset + 1);
+		remoteId = c.getString(offset + 2);
+		updated = c.getLong(offset + 3);
+		account = c.getString(offset + 4);
+		listdbid = c.getLong(offset + 5);
+
+		deleted = c.isNull(offset + 6) ? null : c.getString(offset + 6);
+		field2 = c.isNull(offset + 7) ? null : c.getString(offset + 7);
+		field3 = c.isNull(offset + 8) ? null : c.getString(offset + 8);
+		field4 = c.isNull(offset + 9) ? null : c.getString(offset + 9);
+		field5 = c.isNull(offset + 10) ? null : c.getString(offset + 10);
 		
-		service = c.getString(11);
+		service = c.getString(offset + 11);
+	}
+
+	/**
+	 * Reads remote tasks from a cursor with Columns.FIELDS without an object
+	 * per row.
+	 */
+	public static class Reader extends RowReader<RemoteTask> {
+		public Reader(final Cursor c) {
+			super(c);
+		}
+
+		/**
+		 * Id of the task, below 1 if it no longer exists
+		 */
+		public long getDbId() {
+			return getLong(1, 0);
+		}
+
+		public String getRemoteId() {
+			return c.getString(2);
+		}
+
+		public long getUpdated() {
+			return getLong(3, 0);
+		}
+
+		public long getListDbId() {
+			return getLong(5, 0);
+		}
+
+		@Override
+		public RemoteTask readInto(final RemoteTask item) {
+			item.readFrom(c, 0);
+			return item;
+		}
 	}
 
 	public RemoteTask(final Uri uri, final ContentValues values) {
@@ -287,11 +432,11 @@ public class RemoteTask extends DAO {
 	 * @return
 	 */
 	public String getTaskWithRemoteClause() {
-		return new StringBuilder(Task.Columns.DBLIST + " IS ? AND ")
+		return new StringBuilder(Task.Columns.DBLIST + " = ? AND ")
 				.append(BaseColumns._ID).append(" IN (SELECT ")
 				.append(Columns.DBID).append(" FROM ").append(TABLE_NAME)
 				.append(" WHERE ").append(Columns.REMOTEID)
-				.append(" IS ? AND ").append(Columns.ACCOUNT).append(" IS ?)")
+				.append(" = ? AND ").append(Columns.ACCOUNT).append(" = ?)")
 				.toString();
 	}
 
@@ -306,11 +451,11 @@ public class RemoteTask extends DAO {
 	 * Combine with account
 	 */
 	public static String getTaskWithoutRemoteClause() {
-		return new StringBuilder(Task.Columns.DBLIST + " IS ? AND ")
+		return new StringBuilder(Task.Columns.DBLIST + " = ? AND ")
 				.append(BaseColumns._ID).append(" NOT IN (SELECT ")
 				.append(Columns.DBID).append(" FROM ").append(TABLE_NAME)
-				.append(" WHERE ").append(Columns.ACCOUNT).append(" IS ? AND ")
-				.append(Columns.SERVICE).append(" IS ?)").toString();
+				.append(" WHERE ").append(Columns.ACCOUNT).append(" = ? AND ")
+				.append(Columns.SERVICE).append(" = ?)").toString();
 	}
 
 	public static String[] getTaskWithoutRemoteArgs(final long listdbid,
@@ -79,6 +79,19 @@ public class RemoteTaskList extends DAO {
 			// Cant delete on cascade, since then we cant remember to sync it!
 			.append(")").toString();
 	
+	// Sync fetches remote lists by service and account
+	public static final String CREATE_SYNC_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_sync_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.SERVICE).append(",").append(Columns.ACCOUNT)
+			.append(")").toString();
+
+	// Lookups by local list, also used by the delete trigger
+	public static final String CREATE_DBID_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_dbid_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.DBID).append(")").toString();
+
 	// milliseconds since 1970-01-01 UTC
 	public Long updated = null;
 
@@ -113,6 +126,13 @@ public class RemoteTaskList extends DAO {
 	}
 
 	public RemoteTaskList(final Cursor c) {
+		readFrom(c);
+	}
+
+	/**
+	 * Sets all fields from a cursor with Columns.FIELDS
+	 */
+	private void readFrom(final Cursor c) {
 		_id = c.getLong(0);
 		dbid = c.getLong(1);
 		remoteId = c.getString(2);
@@ -128,6 +148,30 @@ public class RemoteTaskList extends DAO {
 		service = c.getString(10);
 	}
 
+	/**
+	 * Reads remote lists from a cursor with Columns.FIELDS without an object
+	 * per row.
+	 */
+	public static class Reader extends RowReader<RemoteTaskList> {
+		public Reader(final Cursor c) {
+			super(c);
+		}
+
+		public long getDbId() {
+			return getLong(1, 0);
+		}
+
+		public String getRemoteId() {
+			return c.getString(2);
+		}
+
+		@Override
+		public RemoteTaskList readInto(final RemoteTaskList item) {
+			item.readFrom(c);
+			return item;
+		}
+	}
+
 	public RemoteTaskList(final Uri uri, final ContentValues values) {
 		this(Long.parseLong(uri.getLastPathSegment()), values);
 	}
@@ -242,9 +286,9 @@ public class RemoteTaskList extends DAO {
 	public String getTaskListWithRemoteClause() {
 		return new StringBuilder(BaseColumns._ID).append(" IN (SELECT ").
 		append(Columns.DBID).append(" FROM ").append(TABLE_NAME).append(" WHERE ")
-		.append(Columns.REMOTEID).append(" IS ? AND ")
-		.append(Columns.ACCOUNT).append(" IS ? AND ")
-		.append(Columns.SERVICE).append(" IS ?)")
+		.append(Columns.REMOTEID).append(" = ? AND ")
+		.append(Columns.ACCOUNT).append(" = ? AND ")
+		.append(Columns.SERVICE).append(" = ?)")
 		.toString();
 	}
 	public String[] getTaskListWithRemoteArgs() {
@@ -259,8 +303,8 @@ public class RemoteTaskList extends DAO {
 	public static String getTaskListWithoutRemoteClause() {
 		return new StringBuilder(BaseColumns._ID).append(" NOT IN (SELECT ").
 		append(Columns.DBID).append(" FROM ").append(TABLE_NAME).append(" WHERE ")
-		.append(Columns.ACCOUNT).append(" IS ? AND ")
-		.append(Columns.SERVICE).append(" IS ?)").toString();
+		.append(Columns.ACCOUNT).append(" = ? AND ")
+		.append(Columns.SERVICE).append(" = ?)").toString();
 	}
 	public String[] getTaskListWithoutRemoteArgs() {
 		return new String[] {account, service};
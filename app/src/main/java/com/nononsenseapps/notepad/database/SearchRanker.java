@@ -0,0 +1,120 @@
+package com.nononsenseapps.notepad.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/**
+ * Orders full text search results by relevance. The score is computed from
+ * matchinfo(table, 'pcx'): for every word and column, the hits in the row
+ * divided by the hits in all rows, with title hits weighing more. Android
+ * does not let apps register SQL functions so this is done on the cursor.
+ */
+public class SearchRanker {
+
+	public static final String MATCHINFO = "matchinfo";
+
+	// Indexed by column of the search table: title, note
+	private static final double[] WEIGHTS = { 2.0, 1.0 };
+
+	/**
+	 * Column to add to the search query.
+	 */
+	public static String matchinfo(final String table) {
+		return "matchinfo(" + table + ", 'pcx') AS " + MATCHINFO;
+	}
+
+	public static double score(final byte[] matchinfo) {
+		if (matchinfo == null) {
+			return 0;
+		}
+		final IntBuffer ints = ByteBuffer.wrap(matchinfo)
+				.order(ByteOrder.nativeOrder()).asIntBuffer();
+		final int phrases = ints.get(0);
+		final int columns = ints.get(1);
+		double score = 0;
+		for (int phrase = 0; phrase < phrases; phrase++) {
+			for (int col = 0; col < columns; col++) {
+				final int i = 2 + 3 * (phrase * columns + col);
+				final int hits = ints.get(i);
+				final int allHits = ints.get(i + 1);
+				if (hits > 0 && allHits > 0) {
+					score += (col < WEIGHTS.length ? WEIGHTS[col] : 1.0)
+							* hits / allHits;
+				}
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Returns the rows of the cursor with the best match first, and at most
+	 * limit of them if limit is not negative. The matchinfo column is left
+	 * out. The given cursor is closed.
+	 */
+	public static Cursor rank(final Cursor c, final int limit) {
+		try {
+			final int infoCol = c.getColumnIndexOrThrow(MATCHINFO);
+			final String[] names = c.getColumnNames();
+			final String[] columns = new String[names.length - 1];
+			for (int i = 0, j = 0; i < names.length; i++) {
+				if (i != infoCol) {
+					columns[j++] = names[i];
+				}
+			}
+
+			final int count = c.getCount();
+			final double[] scores = new double[count];
+			final Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				c.moveToPosition(i);
+				scores[i] = score(c.getBlob(infoCol));
+				order[i] = i;
+			}
+			// Stable, so equal scores keep the order of the query
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					return Double.compare(scores[b], scores[a]);
+				}
+			});
+
+			final int size = limit < 0 ? count : Math.min(limit, count);
+			final MatrixCursor result = new MatrixCursor(columns, size);
+			final Object[] row = new Object[columns.length];
+			for (int i = 0; i < size; i++) {
+				c.moveToPosition(order[i]);
+				for (int col = 0, j = 0; col < names.length; col++) {
+					if (col != infoCol) {
+						row[j++] = valueOf(c, col);
+					}
+				}
+				result.addRow(row);
+			}
+			return result;
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	private static Object valueOf(final Cursor c, final int col) {
+		switch (c.getType(col)) {
+		case Cursor.FIELD_TYPE_INTEGER:
+			return c.getLong(col);
+		case Cursor.FIELD_TYPE_FLOAT:
+			return c.getDouble(col);
+		case Cursor.FIELD_TYPE_BLOB:
+			return c.getBlob(col);
+		case Cursor.FIELD_TYPE_NULL:
+			return null;
+		default:
+			return c.getString(col);
+		}
+	}
+}
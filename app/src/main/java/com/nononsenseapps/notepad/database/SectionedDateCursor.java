@@ -0,0 +1,339 @@
+package com.nononsenseapps.notepad.database;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Wraps a task cursor sorted by Task.SECTIONED_DATE_ORDER and inserts a
+ * header row before each date section, in a single pass over the tasks.
+ *
+ * Headers have id -1 and one of the Task.HEADER_KEY_* values as title, same
+ * as the sectioned date view they replace. A header is only present if there
+ * are tasks under it.
+ */
+public class SectionedDateCursor extends CursorWrapper {
+
+	// Sections, in the order they appear
+	private static final int OVERDUE = 0;
+	private static final int TODAY = 1;
+	// TODAY + 1 to TODAY + 4 are the following days
+	private static final int LATER = 6;
+	private static final int NODATE = 7;
+	private static final int COMPLETE = 8;
+
+	private static final String[] HEADER_KEYS = { Task.HEADER_KEY_OVERDUE,
+			Task.HEADER_KEY_TODAY, Task.HEADER_KEY_PLUS1,
+			Task.HEADER_KEY_PLUS2, Task.HEADER_KEY_PLUS3,
+			Task.HEADER_KEY_PLUS4, Task.HEADER_KEY_LATER,
+			Task.HEADER_KEY_NODATE, Task.HEADER_KEY_COMPLETE };
+
+	private final Long mListId;
+	private final int mIdCol;
+	private final int mTitleCol;
+	private final int mDueCol;
+	private final int mCompletedCol;
+	private final int mListCol;
+
+	private final long mNow;
+	// Start of today + 1 ... + 5 days, in local time
+	private final long[] mDayStarts = new long[5];
+
+	// Position in wrapped cursor, or -(section + 1) for headers
+	private int[] mRows;
+	private int mPos = -1;
+
+	/**
+	 * The cursor must contain the columns given by requiredColumns. listId is
+	 * reported as the list of the header rows and can be null.
+	 */
+	public SectionedDateCursor(final Cursor cursor, final Long listId) {
+		super(cursor);
+		mListId = listId;
+		mIdCol = cursor.getColumnIndexOrThrow(Task.Columns._ID);
+		mTitleCol = cursor.getColumnIndexOrThrow(Task.Columns.TITLE);
+		mDueCol = cursor.getColumnIndexOrThrow(Task.Columns.DUE);
+		mCompletedCol = cursor.getColumnIndexOrThrow(Task.Columns.COMPLETED);
+		mListCol = cursor.getColumnIndex(Task.Columns.DBLIST);
+
+		final Calendar cal = Calendar.getInstance();
+		mNow = cal.getTimeInMillis();
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		for (int i = 0; i < mDayStarts.length; i++) {
+			cal.add(Calendar.DAY_OF_MONTH, 1);
+			mDayStarts[i] = cal.getTimeInMillis();
+		}
+
+		buildRows();
+	}
+
+	/**
+	 * Adds the columns needed to place headers to the projection, if missing.
+	 * Null means all columns and is returned as is.
+	 */
+	public static String[] requiredColumns(final String[] projection) {
+		if (projection == null) {
+			return null;
+		}
+		final ArrayList<String> result = new ArrayList<String>();
+		for (String col : projection) {
+			result.add(col);
+		}
+		for (String col : new String[] { Task.Columns._ID,
+				Task.Columns.TITLE, Task.Columns.DUE, Task.Columns.COMPLETED }) {
+			if (!result.contains(col)) {
+				result.add(col);
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	private int sectionOf(final Cursor c) {
+		if (!c.isNull(mCompletedCol)) {
+			return COMPLETE;
+		}
+		if (c.isNull(mDueCol)) {
+			return NODATE;
+		}
+		final long due = c.getLong(mDueCol);
+		if (due < mNow) {
+			return OVERDUE;
+		}
+		for (int i = 0; i < mDayStarts.length; i++) {
+			if (due < mDayStarts[i]) {
+				return TODAY + i;
+			}
+		}
+		return LATER;
+	}
+
+	private void buildRows() {
+		final Cursor c = getWrappedCursor();
+		final int count = c.getCount();
+		// At most one header per section
+		int[] rows = new int[count + HEADER_KEYS.length];
+		int size = 0;
+		int lastSection = -1;
+		for (int i = 0; i < count; i++) {
+			c.moveToPosition(i);
+			final int section = sectionOf(c);
+			if (section != lastSection) {
+				if (size + 1 >= rows.length) {
+					// Only if the wrapped cursor was not sorted correctly
+					final int[] grown = new int[rows.length * 2];
+					System.arraycopy(rows, 0, grown, 0, size);
+					rows = grown;
+				}
+				rows[size++] = -(section + 1);
+				lastSection = section;
+			}
+			rows[size++] = i;
+		}
+		mRows = new int[size];
+		System.arraycopy(rows, 0, mRows, 0, size);
+		mPos = -1;
+	}
+
+	private boolean isHeader() {
+		return mPos >= 0 && mPos < mRows.length && mRows[mPos] < 0;
+	}
+
+	/**
+	 * Value of a column in the current header row
+	 */
+	private Object headerValue(final int col) {
+		final int section = -mRows[mPos] - 1;
+		if (col == mIdCol) {
+			return -1L;
+		}
+		else if (col == mTitleCol) {
+			return HEADER_KEYS[section];
+		}
+		else if (col == mDueCol) {
+			switch (section) {
+			case OVERDUE:
+			case COMPLETE:
+				return 0L;
+			case TODAY:
+				return mNow;
+			case NODATE:
+				return null;
+			default:
+				return mDayStarts[section - TODAY - 1];
+			}
+		}
+		else if (col == mCompletedCol) {
+			return section == COMPLETE ? 1L : null;
+		}
+		else if (col == mListCol) {
+			return mListId;
+		}
+		return null;
+	}
+
+	@Override
+	public int getCount() {
+		return mRows.length;
+	}
+
+	@Override
+	public int getPosition() {
+		return mPos;
+	}
+
+	@Override
+	public boolean moveToPosition(final int position) {
+		if (position < 0) {
+			mPos = -1;
+			return false;
+		}
+		if (position >= mRows.length) {
+			mPos = mRows.length;
+			return false;
+		}
+		mPos = position;
+		if (mRows[position] >= 0) {
+			super.moveToPosition(mRows[position]);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean move(final int offset) {
+		return moveToPosition(mPos + offset);
+	}
+
+	@Override
+	public boolean moveToFirst() {
+		return moveToPosition(0);
+	}
+
+	@Override
+	public boolean moveToLast() {
+		return moveToPosition(mRows.length - 1);
+	}
+
+	@Override
+	public boolean moveToNext() {
+		return moveToPosition(mPos + 1);
+	}
+
+	@Override
+	public boolean moveToPrevious() {
+		return moveToPosition(mPos - 1);
+	}
+
+	@Override
+	public boolean isFirst() {
+		return mPos == 0 && mRows.length > 0;
+	}
+
+	@Override
+	public boolean isLast() {
+		return mRows.length > 0 && mPos == mRows.length - 1;
+	}
+
+	@Override
+	public boolean isBeforeFirst() {
+		return mRows.length == 0 || mPos == -1;
+	}
+
+	@Override
+	public boolean isAfterLast() {
+		return mRows.length == 0 || mPos == mRows.length;
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public boolean requery() {
+		if (!super.requery()) {
+			return false;
+		}
+		buildRows();
+		return true;
+	}
+
+	@Override
+	public boolean isNull(final int col) {
+		if (isHeader()) {
+			return headerValue(col) == null;
+		}
+		return super.isNull(col);
+	}
+
+	@Override
+	public int getType(final int col) {
+		if (isHeader()) {
+			final Object value = headerValue(col);
+			if (value == null) {
+				return FIELD_TYPE_NULL;
+			}
+			return value instanceof Long ? FIELD_TYPE_INTEGER
+					: FIELD_TYPE_STRING;
+		}
+		return super.getType(col);
+	}
+
+	@Override
+	public String getString(final int col) {
+		if (isHeader()) {
+			final Object value = headerValue(col);
+			return value == null ? null : value.toString();
+		}
+		return super.getString(col);
+	}
+
+	@Override
+	public long getLong(final int col) {
+		if (isHeader()) {
+			final Object value = headerValue(col);
+			return value instanceof Long ? (Long) value : 0;
+		}
+		return super.getLong(col);
+	}
+
+	@Override
+	public int getInt(final int col) {
+		if (isHeader()) {
+			return (int) getLong(col);
+		}
+		return super.getInt(col);
+	}
+
+	@Override
+	public short getShort(final int col) {
+		if (isHeader()) {
+			return (short) getLong(col);
+		}
+		return super.getShort(col);
+	}
+
+	@Override
+	public double getDouble(final int col) {
+		if (isHeader()) {
+			return getLong(col);
+		}
+		return super.getDouble(col);
+	}
+
+	@Override
+	public float getFloat(final int col) {
+		if (isHeader()) {
+			return getLong(col);
+		}
+		return super.getFloat(col);
+	}
+
+	@Override
+	public byte[] getBlob(final int col) {
+		if (isHeader()) {
+			return null;
+		}
+		return super.getBlob(col);
+	}
+}
@@ -1,6 +1,8 @@
 package com.nononsenseapps.notepad.database;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 
 import org.json.JSONException;
@@ -12,6 +14,10 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.provider.BaseColumns;
@@ -24,26 +30,26 @@ import android.util.Log;
  */
 public class Task extends DAO {
 
-	// Used to separate tasks with due dates from completed and from tasks with
-	// no date
-	public static final String SECRET_TYPEID = "secret_typeid";
-	public static final String SECRET_TYPEID2 = "secret_typeid2";
-
 	// SQL convention says Table name should be "singular"
 	public static final String TABLE_NAME = "task";
 	public static final String DELETE_TABLE_NAME = "deleted_task";
-	public static final String FTS3_DELETE_TABLE_NAME = "fts3_deleted_task";
+	public static final String FTS_DELETE_TABLE_NAME = "fts4_deleted_task";
 	public static final String HISTORY_TABLE_NAME = "history";
+	// Path of URI_SECTIONED_BY_DATE, no longer a view
 	private static final String SECTIONED_DATE_VIEW = "sectioned_date_view";
-	public static final String FTS3_TABLE_NAME = "fts3_task";
+	public static final String FTS_TABLE_NAME = "fts4_task";
+	// Path of URI_SEARCH, named after the old search table
+	private static final String SEARCH_PATH = "fts3_task";
 
-	public static String getSECTION_DATE_VIEW_NAME(final String listId) {
-		// listId CAN be null. Hence the string concat hack
-		return new StringBuilder().append(SECTIONED_DATE_VIEW).append("_")
-				.append("" + listId).toString();
-	}
+	/**
+	 * Tasks with due dates first, then tasks without, then completed tasks.
+	 * SectionedDateCursor adds the headers.
+	 */
+	public static final String SECTIONED_DATE_ORDER = String.format(
+			"CASE WHEN %1$s IS NOT NULL THEN 2 WHEN %2$s IS NULL THEN 1"
+					+ " ELSE 0 END, %2$s", Columns.COMPLETED, Columns.DUE);
 
-	// Used in sectioned view date
+	// Used in date queries
 	static final String FAR_FUTURE = "strftime('%s','3999-01-01') * 1000";
 	public static final String OVERDUE = "strftime('%s', '1970-01-01') * 1000";
 	// Today should be from NOW...
@@ -78,6 +84,29 @@ public class Task extends DAO {
 		return Uri.withAppendedPath(URI, Long.toString(id));
 	}
 
+	/**
+	 * The tasks of one list. Queries on it are limited to the list, and only
+	 * notified when a task in that list changes. Changes to a single task
+	 * notify this and the task's own URI, not all of URI.
+	 */
+	public static Uri getListUri(final long listId) {
+		return Uri.withAppendedPath(URI, LIST_PATH + "/" + listId);
+	}
+
+	/**
+	 * Update on this moves every task matching the selection to the top of
+	 * the list, keeping their order. No values are needed. The lists they
+	 * came from and the target are notified once, not every task URI.
+	 */
+	public static Uri getMoveToListUri(final long listId) {
+		return Uri.withAppendedPath(URI, MOVETOLIST + "/" + listId);
+	}
+
+	/**
+	 * Query parameter of URI and list URIs, the most rows to return
+	 */
+	public static final String QUERY_LIMIT = "limit";
+
 	public static final int BASEURICODE = 201;
 	public static final int BASEITEMCODE = 202;
 	public static final int DELETEDQUERYCODE = 209;
@@ -87,6 +116,8 @@ public class Task extends DAO {
 	public static final int HISTORYQUERYCODE = 213;
 	public static final int MOVEITEMLEFTCODE = 214;
 	public static final int MOVEITEMRIGHTCODE = 215;
+	public static final int LISTCODE = 216;
+	public static final int MOVETOLISTCODE = 217;
 	// Legacy support, these also need to use legacy projections
 	public static final int LEGACYBASEURICODE = 221;
 	public static final int LEGACYBASEITEMCODE = 222;
@@ -101,11 +132,15 @@ public class Task extends DAO {
 				.addURI(MyContentProvider.AUTHORITY, TABLE_NAME, BASEURICODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/#",
 				BASEITEMCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ LIST_PATH + "/#", LISTCODE);
 
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ MOVEITEMLEFT + "/#", MOVEITEMLEFTCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ MOVEITEMRIGHT + "/#", MOVEITEMRIGHTCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ MOVETOLIST + "/#", MOVETOLISTCODE);
 
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ DELETEDQUERY, DELETEDQUERYCODE);
@@ -133,7 +168,7 @@ public class Task extends DAO {
 				LEGACYVISIBLEITEMCODE);
 
 		// Search URI
-		sURIMatcher.addURI(MyContentProvider.AUTHORITY, FTS3_TABLE_NAME,
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, SEARCH_PATH,
 				SEARCHCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
 				SearchManager.SUGGEST_URI_PATH_QUERY, SEARCHSUGGESTIONSCODE);
@@ -144,9 +179,21 @@ public class Task extends DAO {
 	}
 
 	public static final String TARGETPOS = "targetpos";
+
+	/*
+	 * Positions are sparse. Tasks are laid out POS_GAP apart starting at
+	 * POS_BASE, and each task is one wide (right = left + 1). New tasks go
+	 * above the top one and moved tasks take the midpoint of the gap they are
+	 * moved into, so only the written row changes. When a gap runs out the
+	 * list is spread out again, see rebalanceList.
+	 */
+	public static final long POS_GAP = 1L << 16;
+	public static final long POS_BASE = 1L << 40;
 	private static final String MOVEITEMLEFT = "moveitemleft";
 	private static final String MOVEITEMRIGHT = "moveitemright";
 	private static final String DELETEDQUERY = "deletedquery";
+	private static final String LIST_PATH = "list";
+	private static final String MOVETOLIST = "movetolist";
 
 	// Special URI to look at backup table
 	public static final Uri URI_DELETED_QUERY = Uri.withAppendedPath(URI,
@@ -163,7 +210,7 @@ public class Task extends DAO {
 	// Search URI
 	public static final Uri URI_SEARCH = Uri.withAppendedPath(
 			Uri.parse(MyContentProvider.SCHEME + MyContentProvider.AUTHORITY),
-			FTS3_TABLE_NAME);
+			SEARCH_PATH);
 
 	// Special URI to use when a move is requested
 	// public static final Uri URI_WRITE_MOVESUBTREE = Uri.withAppendedPath(URI,
@@ -215,12 +262,26 @@ public class Task extends DAO {
 
 		public static final String[] FIELDS = { _ID, TITLE, NOTE, COMPLETED,
 				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
+		// Start of the note, kept by TRIGGER_PREVIEW_INSERT/UPDATE
+		public static final String PREVIEW = "preview";
+		/**
+		 * Like FIELDS, but the note column only has the start of the note,
+		 * and nothing for locked tasks. For lists, which show a few lines at
+		 * most. Load the task by itself to get the full note.
+		 */
+		public static final String[] LIST_FIELDS = { _ID, TITLE,
+				PREVIEW + " AS " + NOTE, COMPLETED, DUE, UPDATED, LEFT, RIGHT,
+				DBLIST, LOCKED };
 		public static final String[] FIELDS_NO_ID = { TITLE, NOTE, COMPLETED,
 				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
 		public static final String[] SHALLOWFIELDS = { _ID, TITLE, NOTE,
 				DBLIST, COMPLETED, DUE, UPDATED, LOCKED };
 		public static final String TRIG_DELETED = "deletedtime";
+		// Part of the note matching a search, see SNIPPET_START
+		public static final String SNIPPET = "snippet";
 		public static final String HIST_TASK_ID = "taskid";
+		// 1 if title and note of a history row are deltas, see TaskHistory
+		public static final String HIST_DELTA = "delta";
 		// Used to read the table. Deleted field set by database
 		public static final String[] DELETEFIELDS = { _ID, TITLE, NOTE,
 				COMPLETED, DUE, DBLIST, TRIG_DELETED };
@@ -232,7 +293,7 @@ public class Task extends DAO {
 		public static final String[] HISTORY_COLUMNS = { Columns.HIST_TASK_ID,
 				Columns.TITLE, Columns.NOTE };
 		public static final String[] HISTORY_COLUMNS_UPDATED = { Columns.HIST_TASK_ID,
-			Columns.TITLE, Columns.NOTE, Columns.UPDATED };
+			Columns.TITLE, Columns.NOTE, Columns.UPDATED, Columns.HIST_DELTA };
 
 	}
 
@@ -245,6 +306,8 @@ public class Task extends DAO {
 			.append(" TEXT NOT NULL DEFAULT '',")
 			.append(Columns.NOTE)
 			.append(" TEXT NOT NULL DEFAULT '',")
+			.append(Columns.PREVIEW)
+			.append(" TEXT NOT NULL DEFAULT '',")
 			// These are all msec times
 			.append(Columns.COMPLETED)
 			.append(" INTEGER DEFAULT NULL,")
@@ -284,6 +347,27 @@ public class Task extends DAO {
 
 			.toString();
 
+	// Ordered lookups of neighbours in a list
+	public static final String CREATE_POSITION_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_pos_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.DBLIST).append(",").append(Columns.LEFT)
+			.append(")").toString();
+
+	// List queries filtering on completed and due, and counting open tasks
+	public static final String CREATE_LIST_DUE_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_list_due_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.DBLIST).append(",").append(Columns.COMPLETED)
+			.append(",").append(Columns.DUE).append(")").toString();
+
+	// Same, but across all lists
+	public static final String CREATE_DUE_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+			.append("_due_idx ON ").append(TABLE_NAME).append("(")
+			.append(Columns.COMPLETED).append(",").append(Columns.DUE)
+			.append(")").toString();
+
 	// Delete table has no constraints. In fact, list values and positions
 	// should not even be thought of as valid.
 	public static final String CREATE_DELETE_TABLE = new StringBuilder(
@@ -307,10 +391,16 @@ public class Task extends DAO {
 			.append(Columns.NOTE).append(" TEXT NOT NULL DEFAULT '',")
 			.append(Columns.UPDATED)
 			.append(" TIMESTAMP NOT NULL DEFAULT current_timestamp,")
+			.append(Columns.HIST_DELTA).append(" INTEGER NOT NULL DEFAULT 0,")
 			.append(" FOREIGN KEY(").append(Columns.HIST_TASK_ID)
 			.append(" ) REFERENCES ").append(TABLE_NAME).append(" ( ")
 			.append(Columns._ID).append(") ON DELETE CASCADE ").append(" ) ")
 			.toString();
+	// History lookups and cascading deletes by task
+	public static final String CREATE_HISTORY_INDEX = new StringBuilder(
+			"CREATE INDEX IF NOT EXISTS ").append(HISTORY_TABLE_NAME)
+			.append("_task_idx ON ").append(HISTORY_TABLE_NAME).append("(")
+			.append(Columns.HIST_TASK_ID).append(")").toString();
 	static final String HISTORY_TRIGGER_BODY = new StringBuilder(
 			" INSERT INTO ")
 			.append(HISTORY_TABLE_NAME)
@@ -339,347 +429,151 @@ public class Task extends DAO {
 			"CREATE TRIGGER trigger_insert_").append(HISTORY_TABLE_NAME)
 			.append(" AFTER INSERT ON ").append(TABLE_NAME).append(" BEGIN ")
 			.append(HISTORY_TRIGGER_BODY).append(" END;").toString();
+	// What the insert trigger does, for all tasks at once
+	static final String FILL_HISTORY = new StringBuilder("INSERT INTO ")
+			.append(HISTORY_TABLE_NAME).append(" (")
+			.append(arrayToCommaString(Columns.HISTORY_COLUMNS))
+			.append(") SELECT ")
+			.append(arrayToCommaString(new String[] { Columns._ID,
+					Columns.TITLE, Columns.NOTE })).append(" FROM ")
+			.append(TABLE_NAME).toString();
+
+	// Characters of the note in the preview. A list item shows 3 rows by
+	// default, each under 100 characters even on tablets, so this fills
+	// them. With a higher max height setting the item ends at the preview.
+	// A preview shorter than this is the whole note.
+	public static final int PREVIEW_LENGTH = 300;
+	static final String PREVIEW_VALUE = "CASE WHEN new." + Columns.LOCKED
+			+ " = 1 THEN '' ELSE substr(new." + Columns.NOTE + ", 1, "
+			+ PREVIEW_LENGTH + ") END";
+	private static final String PREVIEW_TRIGGER_BODY = " BEGIN UPDATE "
+			+ TABLE_NAME + " SET " + Columns.PREVIEW + " = " + PREVIEW_VALUE
+			+ " WHERE " + Columns._ID + " = new." + Columns._ID + "; END;";
+	// What the preview triggers do, for all tasks at once
+	static final String FILL_PREVIEW = "UPDATE " + TABLE_NAME + " SET "
+			+ Columns.PREVIEW + " = " + PREVIEW_VALUE.replace("new.", "");
+	public static final String TRIGGER_PREVIEW_INSERT = "CREATE TRIGGER "
+			+ TABLE_NAME + "_preview_insert AFTER INSERT ON " + TABLE_NAME
+			+ PREVIEW_TRIGGER_BODY;
+	// Only when the preview changes, so that other updates pay nothing
+	public static final String TRIGGER_PREVIEW_UPDATE = "CREATE TRIGGER "
+			+ TABLE_NAME + "_preview_update AFTER UPDATE OF " + Columns.NOTE
+			+ ", " + Columns.LOCKED + " ON " + TABLE_NAME + " WHEN old."
+			+ Columns.NOTE + " IS NOT new." + Columns.NOTE + " OR old."
+			+ Columns.LOCKED + " IS NOT new." + Columns.LOCKED
+			+ PREVIEW_TRIGGER_BODY;
+
+	// Marks the matching words in search snippets
+	public static final String SNIPPET_START = "\u0002";
+	public static final String SNIPPET_END = "\u0003";
 
-	// Delete search table
-	public static final String CREATE_FTS3_DELETE_TABLE = "CREATE VIRTUAL TABLE "
-			+ FTS3_DELETE_TABLE_NAME
-			+ " USING FTS3("
-			+ Columns._ID
-			+ ", "
-			+ Columns.TITLE + ", " + Columns.NOTE + ");";
-	public static final String CREATE_FTS3_DELETED_INSERT_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER deletedtask_fts3_insert AFTER INSERT ON ")
-			.append(DELETE_TABLE_NAME)
-			.append(" BEGIN ")
-			.append(" INSERT INTO ")
-			.append(FTS3_DELETE_TABLE_NAME)
-			.append(" (")
-			.append(arrayToCommaString(Columns._ID, Columns.TITLE, Columns.NOTE))
-			.append(") VALUES (")
-			.append(arrayToCommaString("new.", new String[] { Columns._ID,
-					Columns.TITLE, Columns.NOTE })).append(");")
-			.append(" END;").toString();
+	/**
+	 * External content tables index title and note without keeping a copy of
+	 * them, and prefix indexes make the '*' queries cheap. Both need SQLite
+	 * 3.7.9 (Android 4.1). Older versions get a regular FTS4 table, which the
+	 * same triggers and queries work on.
+	 */
+	public static boolean supportsExternalContent(final SQLiteDatabase db) {
+		final Cursor c = db.rawQuery("SELECT sqlite_version()", null);
+		try {
+			if (!c.moveToFirst()) {
+				return false;
+			}
+			final String[] parts = c.getString(0).split("\\.");
+			int version = 0;
+			for (int i = 0; i < 3; i++) {
+				version = version * 1000
+						+ (i < parts.length ? Integer.parseInt(parts[i]) : 0);
+			}
+			return version >= 3007009;
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+		finally {
+			c.close();
+		}
+	}
 
-	public static final String CREATE_FTS3_DELETED_UPDATE_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER deletedtask_fts3_update AFTER UPDATE OF ")
-			.append(arrayToCommaString(new String[] { Columns.TITLE,
-					Columns.NOTE })).append(" ON ").append(DELETE_TABLE_NAME)
-			.append(" BEGIN ").append(" UPDATE ")
-			.append(FTS3_DELETE_TABLE_NAME).append(" SET ")
-			.append(Columns.TITLE).append(" = new.").append(Columns.TITLE)
-			.append(",").append(Columns.NOTE).append(" = new.")
-			.append(Columns.NOTE).append(" WHERE ").append(Columns._ID)
-			.append(" IS new.").append(Columns._ID).append(";").append(" END;")
-			.toString();
-	public static final String CREATE_FTS3_DELETED_DELETE_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER deletedtask_fts3_delete AFTER DELETE ON ")
-			.append(DELETE_TABLE_NAME).append(" BEGIN ")
-			.append(" DELETE FROM ").append(FTS3_DELETE_TABLE_NAME)
-			.append(" WHERE ").append(Columns._ID).append(" IS old.")
-			.append(Columns._ID).append(";").append(" END;").toString();
-
-	// Search table
-	public static final String CREATE_FTS3_TABLE = "CREATE VIRTUAL TABLE "
-			+ FTS3_TABLE_NAME + " USING FTS3(" + Columns._ID + ", "
-			+ Columns.TITLE + ", " + Columns.NOTE + ");";
-
-	public static final String CREATE_FTS3_INSERT_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER task_fts3_insert AFTER INSERT ON ")
-			.append(TABLE_NAME)
-			.append(" BEGIN ")
-			.append(" INSERT INTO ")
-			.append(FTS3_TABLE_NAME)
-			.append(" (")
-			.append(arrayToCommaString(Columns._ID, Columns.TITLE, Columns.NOTE))
-			.append(") VALUES (")
-			.append(arrayToCommaString("new.", new String[] { Columns._ID,
-					Columns.TITLE, Columns.NOTE })).append(");")
-			.append(" END;").toString();
+	private static String searchTableSql(final String name,
+			final String content, final boolean external) {
+		return new StringBuilder("CREATE VIRTUAL TABLE ").append(name)
+				.append(" USING fts4(")
+				.append(external ? "content=\"" + content + "\", " : "")
+				.append(Columns.TITLE).append(", ").append(Columns.NOTE)
+				.append(external ? ", prefix=\"2,3\"" : "").append(");")
+				.toString();
+	}
 
-	public static final String CREATE_FTS3_UPDATE_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER task_fts3_update AFTER UPDATE OF ")
-			.append(arrayToCommaString(new String[] { Columns.TITLE,
-					Columns.NOTE })).append(" ON ").append(TABLE_NAME)
-			.append(" BEGIN ").append(" UPDATE ").append(FTS3_TABLE_NAME)
-			.append(" SET ").append(Columns.TITLE).append(" = new.")
-			.append(Columns.TITLE).append(",").append(Columns.NOTE)
-			.append(" = new.").append(Columns.NOTE).append(" WHERE ")
-			.append(Columns._ID).append(" IS new.").append(Columns._ID)
-			.append(";").append(" END;").toString();
-
-	public static final String CREATE_FTS3_DELETE_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER task_fts3_delete AFTER DELETE ON ")
-			.append(TABLE_NAME).append(" BEGIN ").append(" DELETE FROM ")
-			.append(FTS3_TABLE_NAME).append(" WHERE ").append(Columns._ID)
-			.append(" IS old.").append(Columns._ID).append(";").append(" END;")
-			.toString();
+	/**
+	 * Rows must be removed from an external content index before the content
+	 * changes, since the old text is read from the content table.
+	 */
+	private static String[] searchTriggers(final String name,
+			final String content) {
+		final String delete = String.format(
+				" DELETE FROM %1$s WHERE docid = old.%2$s;", name, Columns._ID);
+		final String insert = String.format(
+				" INSERT INTO %1$s (docid, %3$s, %4$s)"
+						+ " VALUES (new.%2$s, new.%3$s, new.%4$s);", name,
+				Columns._ID, Columns.TITLE, Columns.NOTE);
+		final String columns = Columns.TITLE + ", " + Columns.NOTE;
+		final String when = TABLE_NAME.equals(content) ? WHEN_NOT_BULK_DELETE
+				: "";
+		return new String[] {
+				"CREATE TRIGGER " + name + "_insert AFTER INSERT ON " + content
+						+ " BEGIN" + insert + " END;",
+				"CREATE TRIGGER " + name + "_pre_update BEFORE UPDATE OF "
+						+ columns + " ON " + content + " BEGIN" + delete
+						+ " END;",
+				"CREATE TRIGGER " + name + "_update AFTER UPDATE OF "
+						+ columns + " ON " + content + " BEGIN" + insert
+						+ " END;",
+				"CREATE TRIGGER " + name + "_delete BEFORE DELETE ON "
+						+ content + when + " BEGIN" + delete + " END;" };
+	}
 
 	/**
-	 * This is a view which returns the tasks in the specified list with headers
-	 * suitable for dates, if any tasks would be sorted under them. Provider
-	 * hardcodes the sort order for this.
-	 * 
-	 * if listId is null, will return for all lists
+	 * Creates the search tables for tasks and deleted tasks with their
+	 * triggers, and indexes any rows already present.
 	 */
-	public static final String CREATE_SECTIONED_DATE_VIEW(final String listId) {
-		final String sListId = listId == null ? " NOT NULL " : "'" + listId
-				+ "'";
-		return new StringBuilder()
-				.append("CREATE TEMP VIEW IF NOT EXISTS ")
-				.append(getSECTION_DATE_VIEW_NAME(listId))
-				// Tasks WITH dates NOT completed, secret 0
-				.append(" AS SELECT ")
-				.append(arrayToCommaString(Columns.FIELDS))
-				.append(",0")
-				.append(" AS ")
-				.append(SECRET_TYPEID)
-				.append(",1")
-				.append(" AS ")
-				.append(SECRET_TYPEID2)
-				.append(" FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS null ")
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" IS NOT null ")
-				.append(" UNION ALL ")
-				// Tasks NO dates NOT completed, secret 1
-				.append(" SELECT ")
-				.append(arrayToCommaString(Columns.FIELDS))
-				.append(",1")
-				.append(" AS ")
-				.append(SECRET_TYPEID)
-				.append(",1")
-				.append(" AS ")
-				.append(SECRET_TYPEID2)
-				.append(" FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS null ")
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" IS null ")
-				.append(" UNION ALL ")
-				// Tasks completed, secret 2 + 1
-				.append(" SELECT ")
-				.append(arrayToCommaString(Columns.FIELDS))
-				.append(",3")
-				.append(" AS ")
-				.append(SECRET_TYPEID)
-				.append(",1")
-				.append(" AS ")
-				.append(SECRET_TYPEID2)
-				.append(" FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NOT null ")
-				// TODAY
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_START, Columns.TITLE,
-						HEADER_KEY_TODAY, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" BETWEEN ")
-				.append(TODAY_START)
-				.append(" AND ")
-				.append(TODAY_PLUS(1))
-				.append(") ")
-				// TOMORROW (Today + 1)
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(1), Columns.TITLE,
-						HEADER_KEY_PLUS1, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" BETWEEN ")
-				.append(TODAY_PLUS(1))
-				.append(" AND ")
-				.append(TODAY_PLUS(2))
-				.append(") ")
-				// Today + 2
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(2), Columns.TITLE,
-						HEADER_KEY_PLUS2, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" BETWEEN ")
-				.append(TODAY_PLUS(2))
-				.append(" AND ")
-				.append(TODAY_PLUS(3))
-				.append(") ")
-				// Today + 3
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(3), Columns.TITLE,
-						HEADER_KEY_PLUS3, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" BETWEEN ")
-				.append(TODAY_PLUS(3))
-				.append(" AND ")
-				.append(TODAY_PLUS(4))
-				.append(") ")
-				// Today + 4
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(4), Columns.TITLE,
-						HEADER_KEY_PLUS4, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" BETWEEN ")
-				.append(TODAY_PLUS(4))
-				.append(" AND ")
-				.append(TODAY_PLUS(5))
-				.append(") ")
-				// Overdue (0)
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, OVERDUE, Columns.TITLE,
-						HEADER_KEY_OVERDUE, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" BETWEEN ")
-				.append(OVERDUE)
-				.append(" AND ")
-				.append(TODAY_START)
-				.append(") ")
-				// Later
-				.append(" UNION ALL ")
-				.append(" SELECT '-1',")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(5), Columns.TITLE,
-						HEADER_KEY_LATER, Columns.DBLIST, listId))
-				.append(",0,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.COMPLETED)
-				.append(" IS NULL ")
-				.append(" AND ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" >= ")
-				.append(TODAY_PLUS(5))
-				.append(") ")
-				// No date
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, "null", Columns.TITLE, HEADER_KEY_NODATE,
-						Columns.DBLIST, listId))
-				.append(",1,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ")
-				.append(TABLE_NAME)
-				.append(" WHERE ")
-				.append(Columns.DBLIST)
-				.append(" IS ")
-				.append(sListId)
-				.append(" AND ")
-				.append(Columns.DUE)
-				.append(" IS null ")
-				.append(" AND ")
-				.append(Columns.COMPLETED)
-				.append(" IS null ")
-				.append(") ")
-				// Complete, overdue to catch all
-				// Set complete time to 1
-				.append(" UNION ALL ")
-				.append(" SELECT -1,")
-				.append(asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, OVERDUE, Columns.COMPLETED, "1",
-						Columns.TITLE, HEADER_KEY_COMPLETE, Columns.DBLIST,
-						listId))
-				.append(",2,0")
-				// Only show header if there are tasks under it
-				.append(" WHERE EXISTS(SELECT _ID FROM ").append(TABLE_NAME)
-				.append(" WHERE ").append(Columns.DBLIST).append(" IS ")
-				.append(sListId).append(" AND ").append(Columns.COMPLETED)
-				.append(" IS NOT null ").append(") ")
-
-				.append(";").toString();
+	public static void createSearchTables(final SQLiteDatabase db) {
+		final boolean external = supportsExternalContent(db);
+		createSearchTable(db, FTS_TABLE_NAME, TABLE_NAME, external);
+		createSearchTable(db, FTS_DELETE_TABLE_NAME, DELETE_TABLE_NAME,
+				external);
+	}
+
+	private static void createSearchTable(final SQLiteDatabase db,
+			final String name, final String content, final boolean external) {
+		db.execSQL(searchTableSql(name, content, external));
+		for (String trigger : searchTriggers(name, content)) {
+			db.execSQL(trigger);
+		}
+		if (external) {
+			db.execSQL("INSERT INTO " + name + "(" + name
+					+ ") VALUES('rebuild')");
+		}
+		else {
+			db.execSQL(String.format(
+					"INSERT INTO %1$s (docid, %3$s, %4$s) SELECT %2$s, %3$s,"
+							+ " %4$s FROM %5$s", name, Columns._ID,
+					Columns.TITLE, Columns.NOTE, content));
+		}
+	}
+
+	/**
+	 * The FTS3 tables kept a full copy of every title and note
+	 */
+	public static void dropLegacySearchTables(final SQLiteDatabase db) {
+		for (String trigger : new String[] { "task_fts3_insert",
+				"task_fts3_update", "task_fts3_delete",
+				"deletedtask_fts3_insert", "deletedtask_fts3_update",
+				"deletedtask_fts3_delete" }) {
+			db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+		}
+		db.execSQL("DROP TABLE IF EXISTS fts3_task");
+		db.execSQL("DROP TABLE IF EXISTS fts3_deleted_task");
 	}
 
 	public String title = null;
@@ -759,19 +653,100 @@ public class Task extends DAO {
 	}
 
 	public Task(final Cursor c) {
-		this._id = c.getLong(0);
-		this.title = c.getString(1);
-		note = c.getString(2);
+		readFrom(c, 0);
+	}
+
+	/**
+	 * For cursors with more than one table's columns
+	 * 
+	 * @param offset Index of the first of Columns.FIELDS
+	 */
+	public Task(final Cursor c, final int offset) {
+		readFrom(c, offset);
+	}
+
+	/**
+	 * Sets all fields from a cursor with Columns.FIELDS, starting at offset
+	 */
+	private void readFrom(final Cursor c, final int offset) {
+		this._id = c.getLong(offset);
+		this.title = c.getString(offset + 1);
+		note = c.getString(offset + 2);
 		// msec times which can be null
-		if (!c.isNull(3)) completed = c.getLong(3);
-		if (!c.isNull(4)) due = c.getLong(4);
-		if (!c.isNull(5)) updated = c.getLong(5);
+		completed = c.isNull(offset + 3) ? null : c.getLong(offset + 3);
+		due = c.isNull(offset + 4) ? null : c.getLong(offset + 4);
+		updated = c.isNull(offset + 5) ? null : c.getLong(offset + 5);
 
 		// enforced not to be null
-		left = c.getLong(6);
-		right = c.getLong(7);
-		dblist = c.getLong(8);
-		locked = c.getInt(9) == 1;
+		left = c.getLong(offset + 6);
+		right = c.getLong(offset + 7);
+		dblist = c.getLong(offset + 8);
+		locked = c.getInt(offset + 9) == 1;
+	}
+
+	/**
+	 * Reads tasks from a cursor with Columns.FIELDS without a Task per row.
+	 */
+	public static class Reader extends RowReader<Task> {
+		public Reader(final Cursor c) {
+			super(c);
+		}
+
+		public String getTitle() {
+			return c.getString(1);
+		}
+
+		public String getNote() {
+			return c.getString(2);
+		}
+
+		public boolean isCompleted() {
+			return !c.isNull(3);
+		}
+
+		/**
+		 * Completed time, 0 if not completed
+		 */
+		public long getCompleted() {
+			return getLong(3, 0);
+		}
+
+		public boolean hasDue() {
+			return !c.isNull(4);
+		}
+
+		/**
+		 * Due time, 0 if there is none
+		 */
+		public long getDue() {
+			return getLong(4, 0);
+		}
+
+		public long getUpdated() {
+			return getLong(5, 0);
+		}
+
+		public long getLeft() {
+			return c.getLong(6);
+		}
+
+		public long getRight() {
+			return c.getLong(7);
+		}
+
+		public long getListId() {
+			return c.getLong(8);
+		}
+
+		public boolean isLocked() {
+			return c.getInt(9) == 1;
+		}
+
+		@Override
+		public Task readInto(final Task task) {
+			task.readFrom(c, 0);
+			return task;
+		}
 	}
 
 	public Task(final long id, final ContentValues values) {
@@ -993,66 +968,55 @@ public class Task extends DAO {
 	 * Can't use unique constraint on positions because SQLite checks
 	 * constraints after every row is updated an not after each statement like
 	 * it should. So have to do the check in a trigger instead.
+	 * 
+	 * Only the written row is checked: it must have width 1 and no other task
+	 * in the list may overlap it. That is a range lookup on the position
+	 * index. Since every position write is checked, the whole list stays
+	 * unique and ordered. Use verifyPositions for a full check.
 	 */
-	static final String countVals(final String col, final String ver) {
-		return String.format("SELECT COUNT(DISTINCT %2$s)"
-				+ " AS ColCount FROM %1$s WHERE %3$s=%4$s.%3$s", TABLE_NAME,
-				col, Columns.DBLIST, ver);
-	}
-
-	// verify that left are unique
-	// count number of id and compare to number of left and right
-	static final String posUniqueConstraint(final String ver, final String msg) {
-		return String.format(
-				" SELECT CASE WHEN ((%1$s) != (%2$s) OR (%1$s) != (%3$s)) THEN "
-						+ " RAISE (ABORT, '" + msg + "')" + " END;",
-				countVals(Columns._ID, ver), countVals(Columns.LEFT, ver),
-				countVals(Columns.RIGHT, ver));
-	};
-
-	// public static final String TRIGGER_POST_UPDATE = String.format(
-	// "CREATE TRIGGER task_post_update AFTER UPDATE ON %1$s BEGIN "
-	// + posUniqueConstraint("new", "pos not unique post update")
-	// + posUniqueConstraint("old", "pos not unique post update")
-	// + " END;", TABLE_NAME);
-
-	// Makes a gap in the list where the task is being inserted
-	private static final String BUMP_TO_RIGHT = " UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %3$s >= new.%3$s AND %4$s IS new.%4$s;";
-	public static final String TRIGGER_PRE_INSERT = String.format(
-			"CREATE TRIGGER task_pre_insert BEFORE INSERT ON %s BEGIN ",
-			TABLE_NAME)
-			+ String.format(BUMP_TO_RIGHT, TABLE_NAME, Columns.RIGHT,
-					Columns.LEFT, Columns.DBLIST) + " END;";
+	public static final String TRIGGER_POST_MOVE = String.format(
+			"CREATE TRIGGER task_post_move AFTER UPDATE OF %2$s, %3$s ON %1$s"
+					+ " BEGIN SELECT RAISE (ABORT, 'pos not unique/ordered')"
+					+ " WHERE new.%3$s IS NOT new.%2$s + 1 OR EXISTS(SELECT 1"
+					+ " FROM %1$s WHERE %4$s = new.%4$s AND %2$s BETWEEN"
+					+ " new.%2$s - 1 AND new.%3$s AND %5$s != new.%5$s); END;",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST,
+			Columns._ID);
+
+	// Left position of a task placed above all other tasks in its list
+	private static final String TOP_OF_LIST = String.format(
+			"(SELECT COALESCE(MIN(%1$s) - %2$d, %3$d) FROM %4$s"
+					+ " WHERE %5$s = new.%5$s AND %6$s IS NOT new.%6$s)",
+			Columns.LEFT, POS_GAP, POS_BASE, TABLE_NAME, Columns.DBLIST,
+			Columns._ID);
+
+	// Puts the new task on top of its list. Nothing else is touched.
+	private static final String PLACE_AT_TOP = String.format(
+			" UPDATE %1$s SET %2$s = %4$s, %3$s = %4$s + 1 WHERE %5$s IS new.%5$s;",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, TOP_OF_LIST, Columns._ID);
 
 	public static final String TRIGGER_POST_INSERT = String.format(
 			"CREATE TRIGGER task_post_insert AFTER INSERT ON %s BEGIN ",
 			TABLE_NAME)
-			// Enforce integrity
-			+ posUniqueConstraint("new", "pos not unique post insert")
-
+			// Integrity is checked by TRIGGER_POST_MOVE
+			+ PLACE_AT_TOP
 			+ " END;";
 
-	// Upgrades children and closes the gap made from the delete
-	private static final String BUMP_TO_LEFT = " UPDATE %1$s SET %2$s = %2$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;";
-	// private static final String UPGRADE_CHILDREN =
-	// " UPDATE %1$s SET %2$s = %2$s - 1, %3$s = %3$s - 1 WHERE %4$s IS old.%4$s AND %2$s BETWEEN old.%2$s AND old.%3$s;";
-	public static final String TRIGGER_POST_DELETE = String.format(
-			"CREATE TRIGGER task_post_delete AFTER DELETE ON %s BEGIN ",
-			TABLE_NAME)
-			// + String.format(UPGRADE_CHILDREN, TABLE_NAME, Columns.LEFT,
-			// Columns.RIGHT, Columns.DBLIST)
-			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.LEFT,
-					Columns.RIGHT, Columns.DBLIST)
-			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.RIGHT,
-					Columns.RIGHT, Columns.DBLIST)
-
-			// Enforce integrity
-			+ posUniqueConstraint("old", "pos not unique post delete")
-
-			+ " END;";
+	/*
+	 * Holds a row while deleteInBulk runs, which does the work of the per-row
+	 * delete triggers of the task table with set-based statements. The
+	 * triggers skip every row then.
+	 */
+	public static final String BULK_DELETE_TABLE_NAME = "task_bulk_delete";
+	public static final String CREATE_BULK_DELETE_TABLE = "CREATE TABLE"
+			+ " IF NOT EXISTS " + BULK_DELETE_TABLE_NAME + "(" + Columns._ID
+			+ " INTEGER PRIMARY KEY)";
+	private static final String WHEN_NOT_BULK_DELETE = " WHEN NOT EXISTS"
+			+ " (SELECT 1 FROM " + BULK_DELETE_TABLE_NAME + ")";
 
 	public static final String TRIGGER_PRE_DELETE = String.format(
-			"CREATE TRIGGER task_pre_delete BEFORE DELETE ON %1$s BEGIN "
+			"CREATE TRIGGER task_pre_delete BEFORE DELETE ON %1$s"
+					+ WHEN_NOT_BULK_DELETE + " BEGIN "
 					+ " INSERT INTO %2$s ("
 					+ arrayToCommaString("", Columns.DELETEFIELDS_TRIGGER, "")
 					+ ") "
@@ -1062,22 +1026,6 @@ public class Task extends DAO {
 
 					+ " END;", TABLE_NAME, DELETE_TABLE_NAME);
 
-	public String getSQLMoveItemLeft(final ContentValues values) {
-		if (!values.containsKey(TARGETPOS)
-				|| values.getAsLong(TARGETPOS) >= left) {
-			return null;
-		}
-		return getSQLMoveItem(Columns.LEFT, values.getAsLong(TARGETPOS));
-	}
-
-	public String getSQLMoveItemRight(final ContentValues values) {
-		if (!values.containsKey(TARGETPOS)
-				|| values.getAsLong(TARGETPOS) <= right) {
-			return null;
-		}
-		return getSQLMoveItem(Columns.RIGHT, values.getAsLong(TARGETPOS));
-	}
-
 	/*
 	 * Trigger to move between lists
 	 */
@@ -1093,101 +1041,399 @@ public class Task extends DAO {
 			.append(" IS NOT new.")
 			.append(Task.Columns.DBLIST)
 			.append(" BEGIN ")
-			// Bump everything to the right, except the item itself (in same
-			// list)
-			.append(String
-					.format("UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %4$s IS new.%4$s AND %5$s IS NOT new.%5$s;",
-							TABLE_NAME, Columns.LEFT, Columns.RIGHT,
-							Columns.DBLIST, Columns._ID))
-
-			// Bump everything left in the old list, to the right of position
-			.append(String
-					.format("UPDATE %1$s SET %2$s = %2$s - 2, %3$s = %3$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;",
-							TABLE_NAME, Columns.LEFT, Columns.RIGHT,
-							Columns.DBLIST))
-
-			// Set positions to 1 and 2 for item
-			.append(String
-					.format("UPDATE %1$s SET %2$s = 1, %3$s = 2 WHERE %4$s IS new.%4$s;",
-							TABLE_NAME, Columns.LEFT, Columns.RIGHT,
-							Columns._ID))
-						
-			.append(posUniqueConstraint("new", "Moving list, new positions not unique/ordered"))
-			.append(posUniqueConstraint("old", "Moving list, old positions not unique/ordered"))
-
+			// Item goes on top of the new list, the old list keeps its gap.
+			// Integrity is checked by TRIGGER_POST_MOVE
+			.append(PLACE_AT_TOP)
 			.append(" END;").toString();
 
 	/**
-	 * If moving left, then edgeCol is left and vice-versa. Values should come
-	 * from getMoveValues
-	 * 
-	 * 1 = table name 2 = left 3 = right 4 = edgecol 5 = old.left 6 = old.right
-	 * 7 = target.pos (actually target.edgecol) 8 = dblist 9 = old.dblist
+	 * Moves this task to just before the task whose left position is the
+	 * target position in values. Values should come from getMoveValues.
+	 * Returns number of rows changed.
+	 */
+	public int moveItemLeft(final SQLiteDatabase db, final ContentValues values) {
+		if (!values.containsKey(TARGETPOS)
+				|| values.getAsLong(TARGETPOS) >= left) {
+			return 0;
+		}
+		return moveItem(db, true, values.getAsLong(TARGETPOS));
+	}
+
+	/**
+	 * Moves this task to just after the task whose right position is the
+	 * target position in values. Values should come from getMoveValues.
+	 * Returns number of rows changed.
+	 */
+	public int moveItemRight(final SQLiteDatabase db, final ContentValues values) {
+		if (!values.containsKey(TARGETPOS)
+				|| values.getAsLong(TARGETPOS) <= right) {
+			return 0;
+		}
+		return moveItem(db, false, values.getAsLong(TARGETPOS));
+	}
+
+	/**
+	 * Places this task in the gap next to the target task. If the gap is too
+	 * small, the list is rebalanced and the gap looked up again.
+	 */
+	private int moveItem(final SQLiteDatabase db, final boolean before,
+			final long edgeVal) {
+		final MoveStatements statements = MoveStatements.get(db);
+		synchronized (statements) {
+			final long targetId = MoveStatements.queryLong(
+					before ? statements.idAtLeft : statements.idAtRight, -1,
+					dblist, edgeVal);
+			if (targetId < 1 || targetId == _id) {
+				return 0;
+			}
+
+			long pos = findGap(statements, targetId, before);
+			if (pos < 0) {
+				rebalanceList(db, dblist);
+				pos = findGap(statements, targetId, before);
+			}
+			if (pos < 0) {
+				return 0;
+			}
+			return statements.setPosition(_id, pos);
+		}
+	}
+
+	/**
+	 * Returns a free left position right before/after target, or -1 if there
+	 * is no room.
+	 */
+	private long findGap(final MoveStatements statements, final long targetId,
+			final boolean before) {
+		final long lo, hi;
+		if (before) {
+			hi = MoveStatements.queryLong(statements.leftOf, -1, targetId);
+			lo = MoveStatements.queryLong(statements.rightBefore, 0, dblist,
+					hi, _id);
+		}
+		else {
+			lo = MoveStatements.queryLong(statements.rightOf, -1, targetId);
+			hi = MoveStatements.queryLong(statements.leftAfter, lo + 2
+					* POS_GAP, dblist, lo, _id);
+		}
+
+		// Need room for both left and right strictly between lo and hi
+		if (hi - lo < 3) {
+			return -1;
+		}
+		return lo + (hi - lo) / 2;
+	}
+
+	/**
+	 * Like whereIdIs, for the list. Use with whereIdArg and the list id.
+	 */
+	public static String whereListIs(final String orgWhere) {
+		final StringBuilder sb = new StringBuilder();
+		if (orgWhere != null) {
+			sb.append("(");
+			sb.append(orgWhere);
+			sb.append(") AND ");
+		}
+		sb.append(Columns.DBLIST).append(" = ?");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the list of a task, or -1 if there is no such task.
 	 */
-	private String getSQLMoveItem(final String edgeCol, final Long edgeVal) {
-		boolean movingLeft = Columns.LEFT.equals(edgeCol);
-		return String
-				.format(new StringBuilder("UPDATE %1$s SET ")
-						/*
-						 * Left item follows Left = Left + ...
-						 */
-						.append("%2$s = %2$s + ")
-						.append(" CASE ")
-						// Moving item jumps to target pos
-						.append(" WHEN %2$s IS %5$d ")
-						// ex: left = 5, target = 2, --> left = 5 + (2 - 5) == 2
-						// ex left = 5, target = 9(right), --> left = 5 + (9 - 5
-						// - 1) = 8
-						.append(" THEN ")
-						.append(" (%7$d - %5$d")
-						.append(movingLeft ? ") " : " -1) ")
-						// Sub items take one step opposite
-						// Careful if moving inside subtree, which can only
-						// happen when moving right.
-						// Then only left position changes
-						.append(" WHEN %2$s BETWEEN (%5$d + 1) AND (%6$d - 1) ")
-						.append(" THEN ")
-						.append(movingLeft ? " 1 " : " -1 ")
-						// Items in between from and to positions take two steps
-						// opposite
-						.append(" WHEN %2$s BETWEEN ")
-						.append(movingLeft ? "%7$d" : "%6$d")
-						.append(" AND ")
-						.append(movingLeft ? "%5$d" : "%7$d")
-						.append(" THEN ")
-						.append(movingLeft ? " 2 " : " -2 ")
-						// Not in target range, no change
-						.append(" ELSE 0 END, ")
-						/*
-						 * Right item follows Right = Right + ...
-						 */
-						.append(" %3$s = %3$s + ")
-						.append(" CASE ")
-						// Moving item jumps to target pos
-						.append(" WHEN %3$s IS %6$d ")
-						// ex: right = 7, target = 3(left), --> right = 7 + (3 -
-						// 7 + 1) == 4
-						// ex right = 2, target = 9(right), --> right = 2 + (9 -
-						// 2) = 9
-						.append(" THEN ")
-						.append(" (%7$d - %6$d")
-						.append(movingLeft ? " +1) " : ") ")
-						// Sub items take one step opposite
-						.append(" WHEN %3$s BETWEEN (%5$d + 1) AND (%6$d - 1) ")
-						.append(" THEN ")
-						.append(movingLeft ? " 1 " : " -1 ")
-						// Items in between from and to positions take two steps
-						// opposite
-						.append(" WHEN %3$s BETWEEN ")
-						.append(movingLeft ? "%7$d" : "%6$d").append(" AND ")
-						.append(movingLeft ? "%5$d" : "%7$d").append(" THEN ")
-						.append(movingLeft ? " 2 " : " -2 ")
-						// Not in target range, no change
-						.append(" ELSE 0 END ")
-						// And limit to the list in question
-						.append(" WHERE %8$s IS %9$d;").toString(), TABLE_NAME,
-						Columns.LEFT, Columns.RIGHT, edgeCol, left, right,
-						edgeVal, Columns.DBLIST, dblist);
+	public static long getListOf(final SQLiteDatabase db, final long taskId) {
+		final MoveStatements statements = MoveStatements.get(db);
+		synchronized (statements) {
+			return MoveStatements.queryLong(statements.listOf, -1, taskId);
+		}
+	}
+
+	private static long queryLong(final SQLiteDatabase db, final String sql,
+			final long defaultValue, final String... args) {
+		final Cursor c = db.rawQuery(sql, args);
+		try {
+			if (c.moveToFirst() && !c.isNull(0)) {
+				return c.getLong(0);
+			}
+			return defaultValue;
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Spreads out the positions of all tasks in the list evenly, keeping
+	 * their order. Must be called inside a transaction.
+	 */
+	public static void rebalanceList(final SQLiteDatabase db, final long listId) {
+		final String[] args = new String[] { Long.toString(listId) };
+		final long[] ids;
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID },
+				Columns.DBLIST + " = ?", args, null, null, Columns.LEFT);
+		try {
+			ids = new long[c.getCount()];
+			while (c.moveToNext()) {
+				ids[c.getPosition()] = c.getLong(0);
+			}
+		}
+		finally {
+			c.close();
+		}
+		if (ids.length == 0) {
+			return;
+		}
+		// Shift the list above both its current and its new positions first,
+		// keeping its order. Positions must stay positive, and no row may
+		// collide with one not moved yet when checked by TRIGGER_POST_MOVE.
+		final long min = queryLong(db, String.format(
+				"SELECT MIN(%1$s) FROM %2$s WHERE %3$s = ?", Columns.LEFT,
+				TABLE_NAME, Columns.DBLIST), 1, args);
+		final long max = queryLong(db, String.format(
+				"SELECT MAX(%1$s) FROM %2$s WHERE %3$s = ?", Columns.RIGHT,
+				TABLE_NAME, Columns.DBLIST), 1, args);
+		final long shift = Math.max(max, POS_BASE + ids.length * POS_GAP) + 1
+				- min;
+		db.execSQL(String.format(
+				"UPDATE %1$s SET %2$s = %2$s + ?, %3$s = %3$s + ? WHERE %4$s = ?",
+				TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST),
+				new Object[] { shift, shift, listId });
+		final SQLiteStatement stmt = db.compileStatement(String.format(
+				"UPDATE %1$s SET %2$s = ?, %3$s = ? WHERE %4$s = ?",
+				TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns._ID));
+		try {
+			long pos = POS_BASE;
+			for (long id : ids) {
+				stmt.bindLong(1, pos);
+				stmt.bindLong(2, pos + 1);
+				stmt.bindLong(3, id);
+				stmt.executeUpdateDelete();
+				pos += POS_GAP;
+			}
+		}
+		finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Checks the whole list in one pass: every task must have width 1 and
+	 * come strictly after the previous one. This is what the triggers
+	 * guarantee one row at a time. Throws SQLException on corruption.
+	 */
+	public static void verifyPositions(final SQLiteDatabase db,
+			final long listId) {
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID,
+				Columns.LEFT, Columns.RIGHT }, Columns.DBLIST + " = ?",
+				new String[] { Long.toString(listId) }, null, null,
+				Columns.LEFT);
+		try {
+			long prevRight = Long.MIN_VALUE;
+			while (c.moveToNext()) {
+				final long left = c.getLong(1);
+				final long right = c.getLong(2);
+				if (right != left + 1 || left <= prevRight) {
+					throw new SQLException("Task " + c.getLong(0)
+							+ " in list " + listId + " has bad position "
+							+ left + "," + right);
+				}
+				prevRight = right;
+			}
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Runs verifyPositions on every list.
+	 */
+	public static void verifyAllPositions(final SQLiteDatabase db) {
+		final Cursor c = db.query(true, TABLE_NAME,
+				new String[] { Columns.DBLIST }, null, null, null, null, null,
+				null);
+		try {
+			while (c.moveToNext()) {
+				verifyPositions(db, c.getLong(0));
+			}
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Rebalances every list. Used when upgrading from the dense numbering.
+	 */
+	public static void rebalanceAllLists(final SQLiteDatabase db) {
+		final Cursor c = db.query(true, TABLE_NAME,
+				new String[] { Columns.DBLIST }, null, null, null, null, null,
+				null);
+		try {
+			while (c.moveToNext()) {
+				rebalanceList(db, c.getLong(0));
+			}
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * New tasks are placed POS_GAP above the top task. Rebalance the list
+	 * first if that would not fit.
+	 */
+	public static void ensureRoomAtTop(final SQLiteDatabase db,
+			final long listId) {
+		ensureRoomAtTop(db, listId, 1);
+	}
+
+	/**
+	 * As above, with room for count tasks placed on top one after another.
+	 */
+	public static void ensureRoomAtTop(final SQLiteDatabase db,
+			final long listId, final int count) {
+		final long top = queryLong(db, String.format(
+				"SELECT MIN(%1$s) FROM %2$s WHERE %3$s = ?", Columns.LEFT,
+				TABLE_NAME, Columns.DBLIST), -1, Long.toString(listId));
+		if (top > -1 && top <= (count + 1) * POS_GAP) {
+			rebalanceList(db, listId);
+		}
+	}
+
+	/**
+	 * The lists of the tasks matching the selection.
+	 */
+	public static ArrayList<Long> getListsOf(final SQLiteDatabase db,
+			final String selection, final String[] selectionArgs) {
+		final ArrayList<Long> lists = new ArrayList<Long>();
+		final Cursor c = db.query(true, TABLE_NAME,
+				new String[] { Columns.DBLIST }, selection, selectionArgs,
+				null, null, null, null);
+		try {
+			while (c.moveToNext()) {
+				lists.add(c.getLong(0));
+			}
+		}
+		finally {
+			c.close();
+		}
+		return lists;
+	}
+
+	/**
+	 * Moves the tasks matching the selection to the top of a list. They keep
+	 * their order, grouped by the list they came from. Room is made for all
+	 * of them first, so the target is spread out at most once, and the lists
+	 * they leave keep their gaps. Must be called in a transaction.
+	 *
+	 * Returns the number of tasks moved.
+	 */
+	public static int moveToList(final SQLiteDatabase db, final long listId,
+			final String selection, final String[] selectionArgs) {
+		final String notInList = Columns.DBLIST + " IS NOT ?";
+		final String where = selection == null ? notInList : "(" + selection
+				+ ") AND " + notInList;
+		final String[] whereArgs;
+		if (selectionArgs == null) {
+			whereArgs = new String[] { Long.toString(listId) };
+		}
+		else {
+			whereArgs = Arrays.copyOf(selectionArgs, selectionArgs.length + 1);
+			whereArgs[selectionArgs.length] = Long.toString(listId);
+		}
+
+		// Last first, since each one is placed above the previous
+		final long[] ids;
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID },
+				where, whereArgs, null, null, Columns.DBLIST + " DESC, "
+						+ Columns.LEFT + " DESC");
+		try {
+			ids = new long[c.getCount()];
+			for (int i = 0; c.moveToNext(); i++) {
+				ids[i] = c.getLong(0);
+			}
+		}
+		finally {
+			c.close();
+		}
+		if (ids.length == 0) {
+			return 0;
+		}
+
+		ensureRoomAtTop(db, listId, ids.length);
+		// TRIGGER_MOVE_LIST places each one on top
+		final SQLiteStatement move = db.compileStatement(String.format(
+				"UPDATE %1$s SET %2$s = ? WHERE %3$s = ?", TABLE_NAME,
+				Columns.DBLIST, Columns._ID));
+		try {
+			int result = 0;
+			for (long id : ids) {
+				move.bindLong(1, listId);
+				move.bindLong(2, id);
+				result += move.executeUpdateDelete();
+			}
+			return result;
+		}
+		finally {
+			move.close();
+		}
+	}
+
+	// Fewer than this are left to the per-row delete triggers
+	private static final int BULK_DELETE_MIN = 50;
+
+	/**
+	 * Makes the delete triggers of the task table skip the rows deleted by
+	 * deleteInBulk. Used when upgrading.
+	 */
+	public static void createBulkDeleteTriggers(final SQLiteDatabase db) {
+		db.execSQL(CREATE_BULK_DELETE_TABLE);
+		db.execSQL("DROP TRIGGER IF EXISTS task_pre_delete");
+		db.execSQL(TRIGGER_PRE_DELETE);
+		db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_delete");
+		db.execSQL(searchTriggers(FTS_TABLE_NAME, TABLE_NAME)[3]);
+	}
+
+	/**
+	 * Deletes the tasks matching the selection with set-based statements.
+	 * They are copied to the deleted table with one INSERT ... SELECT and
+	 * removed from the search index with one DELETE, instead of by the
+	 * per-row triggers, which skip them while BULK_DELETE_TABLE_NAME has a
+	 * row. The flag is only ever seen inside this transaction. The trash,
+	 * sync tombstones, counts and history end up as with a plain delete.
+	 * Positions need no renumbering, the gaps left behind are harmless. Must
+	 * be called in a transaction.
+	 *
+	 * Returns the number of tasks deleted.
+	 */
+	public static int deleteInBulk(final SQLiteDatabase db,
+			final String selection, final String[] selectionArgs) {
+		if (DatabaseUtils.queryNumEntries(db, TABLE_NAME, selection,
+				selectionArgs) < BULK_DELETE_MIN) {
+			return db.delete(TABLE_NAME, selection, selectionArgs);
+		}
+
+		final String where = selection == null ? "" : " WHERE " + selection;
+		final Object[] args = selectionArgs == null ? new Object[0]
+				: selectionArgs;
+
+		db.execSQL("INSERT INTO " + BULK_DELETE_TABLE_NAME + " DEFAULT VALUES");
+		try {
+			db.execSQL(String.format("INSERT INTO %1$s (%3$s) SELECT %3$s"
+					+ " FROM %2$s%4$s", DELETE_TABLE_NAME, TABLE_NAME,
+					arrayToCommaString("", Columns.DELETEFIELDS_TRIGGER, ""),
+					where), args);
+			// Before the rows go, an external content index reads the old
+			// text
+			db.execSQL(String.format("DELETE FROM %1$s WHERE docid IN"
+					+ " (SELECT %2$s FROM %3$s%4$s)", FTS_TABLE_NAME,
+					Columns._ID, TABLE_NAME, where), args);
+			return db.delete(TABLE_NAME, selection, selectionArgs);
+		}
+		finally {
+			db.execSQL("DELETE FROM " + BULK_DELETE_TABLE_NAME);
+		}
 	}
 
 	/*
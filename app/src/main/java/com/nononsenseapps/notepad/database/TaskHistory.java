@@ -0,0 +1,195 @@
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The history triggers store a full copy of title and note on every change.
+ * Compaction rewrites older rows as deltas against the version before them,
+ * keeping a full copy (keyframe) every KEYFRAME_INTERVAL versions so that any
+ * version can be rebuilt from at most that many rows. The newest version of
+ * each task is always kept in full.
+ *
+ * A delta is "prefix,suffix,text": keep that many chars from the start and
+ * the end of the previous version, with text in between. Edits to notes tend
+ * to be in one place so this is usually a small fraction of the note.
+ */
+public class TaskHistory {
+
+	public static final int KEYFRAME_INTERVAL = 16;
+
+	/**
+	 * Returns the delta that turns from into to.
+	 */
+	public static String diff(final String from, final String to) {
+		final int max = Math.min(from.length(), to.length());
+		int prefix = 0;
+		while (prefix < max && from.charAt(prefix) == to.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < max - prefix
+				&& from.charAt(from.length() - 1 - suffix) == to.charAt(to
+						.length() - 1 - suffix)) {
+			suffix++;
+		}
+		return new StringBuilder().append(prefix).append(',').append(suffix)
+				.append(',').append(to, prefix, to.length() - suffix)
+				.toString();
+	}
+
+	/**
+	 * Applies a delta made by diff to from.
+	 */
+	public static String patch(final String from, final String delta) {
+		final int first = delta.indexOf(',');
+		final int second = delta.indexOf(',', first + 1);
+		if (first < 0 || second < 0) {
+			throw new IllegalArgumentException("Not a history delta: " + delta);
+		}
+		final int prefix = Integer.parseInt(delta.substring(0, first));
+		final int suffix = Integer.parseInt(delta.substring(first + 1, second));
+		return new StringBuilder(from.substring(0, prefix))
+				.append(delta, second + 1, delta.length())
+				.append(from, from.length() - suffix, from.length()).toString();
+	}
+
+	/**
+	 * Returns title and note of the version at position in a cursor of one
+	 * task's history, ordered oldest first, with the title, note and delta
+	 * columns. Only the rows back to the closest keyframe are read.
+	 */
+	public static String[] rebuild(final Cursor c, final int position) {
+		final int titleCol = c.getColumnIndexOrThrow(Task.Columns.TITLE);
+		final int noteCol = c.getColumnIndexOrThrow(Task.Columns.NOTE);
+		final int deltaCol = c.getColumnIndexOrThrow(Task.Columns.HIST_DELTA);
+
+		int start = position;
+		while (start > 0 && c.moveToPosition(start) && c.getInt(deltaCol) == 1) {
+			start--;
+		}
+
+		String title = "";
+		String note = "";
+		for (int i = start; i <= position && c.moveToPosition(i); i++) {
+			if (c.getInt(deltaCol) == 1) {
+				title = patch(title, c.getString(titleCol));
+				note = patch(note, c.getString(noteCol));
+			}
+			else {
+				title = c.getString(titleCol);
+				note = c.getString(noteCol);
+			}
+		}
+		return new String[] { title, note };
+	}
+
+	/**
+	 * Compacts the history of all tasks, one transaction per task. If
+	 * keepDays is positive, versions older than that are removed except the
+	 * newest one. Returns the number of rows that were changed or removed.
+	 */
+	public static int compact(final SQLiteDatabase db, final int keepDays) {
+		final Cursor tasks = db.query(true, Task.HISTORY_TABLE_NAME,
+				new String[] { Task.Columns.HIST_TASK_ID }, null, null, null,
+				null, null, null);
+		final long[] ids = new long[tasks.getCount()];
+		try {
+			for (int i = 0; tasks.moveToNext(); i++) {
+				ids[i] = tasks.getLong(0);
+			}
+		}
+		finally {
+			tasks.close();
+		}
+
+		int changed = 0;
+		for (long id : ids) {
+			db.beginTransaction();
+			try {
+				changed += compactTask(db, id, keepDays);
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+		return changed;
+	}
+
+	static int compactTask(final SQLiteDatabase db, final long taskId,
+			final int keepDays) {
+		final String expired = keepDays > 0 ? Task.Columns.UPDATED
+				+ " < datetime('now', '-" + keepDays + " days')" : "0";
+		final Cursor c = db.query(Task.HISTORY_TABLE_NAME, new String[] {
+				Task.Columns._ID, Task.Columns.TITLE, Task.Columns.NOTE,
+				Task.Columns.HIST_DELTA, expired }, Task.Columns.HIST_TASK_ID
+				+ " = ?", new String[] { Long.toString(taskId) }, null, null,
+				Task.Columns._ID);
+
+		int changed = 0;
+		try {
+			final int count = c.getCount();
+			final ContentValues values = new ContentValues();
+			final String[] whereArgs = new String[1];
+			// The version of the current row, and of the last one kept
+			String title = "";
+			String note = "";
+			String keptTitle = null;
+			String keptNote = null;
+			int sinceKeyframe = 0;
+			for (int i = 0; c.moveToNext(); i++) {
+				final boolean isDelta = c.getInt(3) == 1;
+				if (isDelta) {
+					title = patch(title, c.getString(1));
+					note = patch(note, c.getString(2));
+				}
+				else {
+					title = c.getString(1);
+					note = c.getString(2);
+				}
+				whereArgs[0] = c.getString(0);
+				final boolean last = i == count - 1;
+
+				// Only from the start, so deltas always follow a kept row
+				if (keptTitle == null && !last && c.getInt(4) == 1) {
+					db.delete(Task.HISTORY_TABLE_NAME, Task.Columns._ID
+							+ " = ?", whereArgs);
+					changed++;
+					continue;
+				}
+
+				values.clear();
+				if (keptTitle == null || last
+						|| sinceKeyframe >= KEYFRAME_INTERVAL - 1) {
+					sinceKeyframe = 0;
+					if (isDelta) {
+						values.put(Task.Columns.TITLE, title);
+						values.put(Task.Columns.NOTE, note);
+						values.put(Task.Columns.HIST_DELTA, 0);
+					}
+				}
+				else {
+					sinceKeyframe++;
+					if (!isDelta) {
+						values.put(Task.Columns.TITLE, diff(keptTitle, title));
+						values.put(Task.Columns.NOTE, diff(keptNote, note));
+						values.put(Task.Columns.HIST_DELTA, 1);
+					}
+				}
+				if (values.size() > 0) {
+					db.update(Task.HISTORY_TABLE_NAME, values, Task.Columns._ID
+							+ " = ?", whereArgs);
+					changed++;
+				}
+				keptTitle = title;
+				keptNote = note;
+			}
+		}
+		finally {
+			c.close();
+		}
+		return changed;
+	}
+}
@@ -24,6 +24,13 @@ public class TaskList extends DAO {
 	public static final Uri URI_WITH_COUNT = Uri.withAppendedPath(URI,
 			VIEWCOUNT_NAME);
 
+	/**
+	 * Lists with a summary of their tasks, see SELECT_SYNC_STATE
+	 */
+	public static final String SYNC_STATE_NAME = "lists_sync_state";
+	public static final Uri URI_SYNC_STATE = Uri.withAppendedPath(URI,
+			SYNC_STATE_NAME);
+
 	public static Uri getUri(final long id) {
 		return Uri.withAppendedPath(URI, Long.toString(id));
 	}
@@ -33,6 +40,7 @@ public class TaskList extends DAO {
 	public static final int BASEURICODE = 101;
 	public static final int BASEITEMCODE = 102;
 	public static final int VIEWCOUNTCODE = 103;
+	public static final int SYNCSTATECODE = 104;
 	// Legacy support, these also need to use legacy projections
 	public static final int LEGACYBASEURICODE = 111;
 	public static final int LEGACYBASEITEMCODE = 112;
@@ -49,6 +57,8 @@ public class TaskList extends DAO {
 				BASEITEMCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ VIEWCOUNT_NAME, VIEWCOUNTCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ SYNC_STATE_NAME, SYNCSTATECODE);
 
 		// Legacy URIs
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
@@ -74,6 +84,12 @@ public class TaskList extends DAO {
 		public static final String SORTING = "sorting";
 
 		public static final String VIEW_COUNT = "count";
+		// Number of uncompleted tasks, maintained by triggers on task
+		public static final String OPEN_COUNT = "opencount";
+		// Number of writes to the list and its tasks, maintained by triggers
+		public static final String WRITE_COUNT = "writecount";
+		// Changes when the list or any of its tasks do
+		public static final String SYNC_STATE = "syncstate";
 
 		// public static final String GTASKACCOUNT = "gtaskaccount";
 		// public static final String GTASKID = "gtaskid";
@@ -94,26 +110,96 @@ public class TaskList extends DAO {
 			.append(" TEXT NOT NULL DEFAULT '',").append(Columns.UPDATED)
 			.append(" INTEGER,").append(Columns.LISTTYPE)
 			.append(" TEXT DEFAULT NULL,").append(Columns.SORTING)
-			.append(" TEXT DEFAULT NULL").append(")").toString();
-
-	public static final String CREATE_COUNT_VIEW = new StringBuilder(
-			"CREATE TEMP VIEW IF NOT EXISTS ")
-			.append(VIEWCOUNT_NAME)
-			.append(" AS SELECT ")
-			.append(arrayToCommaString(Columns.FIELDS))
-			.append(",")
-			.append(Columns.VIEW_COUNT)
-			.append(" FROM ")
-			.append(TABLE_NAME)
-			.append(" LEFT JOIN ")
-			// Select count statement
-			.append(" (SELECT COUNT(1) AS ").append(Columns.VIEW_COUNT)
-			.append(",").append(Task.Columns.DBLIST).append(" FROM ")
-			.append(Task.TABLE_NAME).append(" WHERE ")
-			.append(Task.Columns.COMPLETED).append(" IS NULL ")
-			.append(" GROUP BY ").append(Task.Columns.DBLIST).append(") ")
-			.append(" ON ").append(TABLE_NAME).append(".").append(Columns._ID)
-			.append(" = ").append(Task.Columns.DBLIST).append(";").toString();
+			.append(" TEXT DEFAULT NULL,").append(Columns.OPEN_COUNT)
+			.append(" INTEGER NOT NULL DEFAULT 0,")
+			.append(Columns.WRITE_COUNT)
+			.append(" INTEGER NOT NULL DEFAULT 0").append(")").toString();
+
+	/**
+	 * Lists with the number of uncompleted tasks in them. Lists without
+	 * uncompleted tasks have a null count. Reads the counters, so the cost
+	 * does not depend on the number of tasks.
+	 */
+	public static final String SELECT_WITH_COUNT = new StringBuilder(
+			"SELECT ").append(arrayToCommaString(Columns.FIELDS))
+			.append(", NULLIF(").append(Columns.OPEN_COUNT).append(",0) AS ")
+			.append(Columns.VIEW_COUNT).append(" FROM ").append(TABLE_NAME)
+			.toString();
+
+	/**
+	 * Lists with a string that changes whenever the list or any of its tasks
+	 * do: the list's update time and its write counter. Tasks saved with an
+	 * older update time, like restored ones, still count as a write. Lets a
+	 * sync tell which lists changed since the last one with a single query.
+	 */
+	public static final String SELECT_SYNC_STATE = String.format(
+			"SELECT %2$s, IFNULL(%3$s, 0) || ':' || %4$s AS %5$s FROM %1$s",
+			TABLE_NAME, Columns._ID, Columns.UPDATED, Columns.WRITE_COUNT,
+			Columns.SYNC_STATE);
+
+	/**
+	 * Recounts the uncompleted tasks of every list. Only needed when creating
+	 * the counters, the triggers keep them correct after that.
+	 */
+	public static final String RECOUNT_OPEN = String.format(
+			"UPDATE %1$s SET %2$s = (SELECT COUNT(1) FROM %3$s WHERE %4$s ="
+					+ " %1$s.%5$s AND %6$s IS NULL)", TABLE_NAME,
+			Columns.OPEN_COUNT, Task.TABLE_NAME, Task.Columns.DBLIST,
+			Columns._ID, Task.Columns.COMPLETED);
+
+	public static final String TRIGGER_COUNT_INSERT = String.format(
+			"CREATE TRIGGER %1$s_count_insert AFTER INSERT ON %2$s"
+					+ " WHEN new.%3$s IS NULL BEGIN UPDATE %1$s SET %4$s ="
+					+ " %4$s + 1 WHERE %5$s = new.%6$s; END;", TABLE_NAME,
+			Task.TABLE_NAME, Task.Columns.COMPLETED, Columns.OPEN_COUNT,
+			Columns._ID, Task.Columns.DBLIST);
+
+	public static final String TRIGGER_COUNT_DELETE = String.format(
+			"CREATE TRIGGER %1$s_count_delete AFTER DELETE ON %2$s"
+					+ " WHEN old.%3$s IS NULL BEGIN UPDATE %1$s SET %4$s ="
+					+ " %4$s - 1 WHERE %5$s = old.%6$s; END;", TABLE_NAME,
+			Task.TABLE_NAME, Task.Columns.COMPLETED, Columns.OPEN_COUNT,
+			Columns._ID, Task.Columns.DBLIST);
+
+	// Completion toggled or task moved to another list
+	public static final String TRIGGER_COUNT_UPDATE = String.format(
+			"CREATE TRIGGER %1$s_count_update AFTER UPDATE OF %3$s, %6$s"
+					+ " ON %2$s WHEN (old.%3$s IS NULL) != (new.%3$s IS NULL)"
+					+ " OR old.%6$s IS NOT new.%6$s BEGIN"
+					+ " UPDATE %1$s SET %4$s = %4$s - (old.%3$s IS NULL)"
+					+ " WHERE %5$s = old.%6$s;"
+					+ " UPDATE %1$s SET %4$s = %4$s + (new.%3$s IS NULL)"
+					+ " WHERE %5$s = new.%6$s; END;", TABLE_NAME,
+			Task.TABLE_NAME, Task.Columns.COMPLETED, Columns.OPEN_COUNT,
+			Columns._ID, Task.Columns.DBLIST);
+
+	public static final String TRIGGER_WRITES_INSERT = String.format(
+			"CREATE TRIGGER %1$s_writes_insert AFTER INSERT ON %2$s BEGIN"
+					+ " UPDATE %1$s SET %3$s = %3$s + 1 WHERE %4$s = new.%5$s;"
+					+ " END;", TABLE_NAME, Task.TABLE_NAME,
+			Columns.WRITE_COUNT, Columns._ID, Task.Columns.DBLIST);
+
+	public static final String TRIGGER_WRITES_DELETE = String.format(
+			"CREATE TRIGGER %1$s_writes_delete AFTER DELETE ON %2$s BEGIN"
+					+ " UPDATE %1$s SET %3$s = %3$s + 1 WHERE %4$s = old.%5$s;"
+					+ " END;", TABLE_NAME, Task.TABLE_NAME,
+			Columns.WRITE_COUNT, Columns._ID, Task.Columns.DBLIST);
+
+	// Both lists when the task moved to another list
+	public static final String TRIGGER_WRITES_UPDATE = String.format(
+			"CREATE TRIGGER %1$s_writes_update AFTER UPDATE ON %2$s BEGIN"
+					+ " UPDATE %1$s SET %3$s = %3$s + 1 WHERE %4$s IN"
+					+ " (old.%5$s, new.%5$s); END;", TABLE_NAME,
+			Task.TABLE_NAME, Columns.WRITE_COUNT, Columns._ID,
+			Task.Columns.DBLIST);
+
+	// Not on the counters, so the triggers above do not set it off
+	public static final String TRIGGER_WRITES_LIST = String.format(
+			"CREATE TRIGGER %1$s_writes_list AFTER UPDATE OF %2$s, %3$s,"
+					+ " %4$s, %5$s ON %1$s BEGIN UPDATE %1$s SET %6$s = %6$s"
+					+ " + 1 WHERE %7$s = new.%7$s; END;", TABLE_NAME,
+			Columns.TITLE, Columns.UPDATED, Columns.LISTTYPE,
+			Columns.SORTING, Columns.WRITE_COUNT, Columns._ID);
 
 	public String title = "";
 
@@ -134,6 +220,13 @@ public class TaskList extends DAO {
 	}
 
 	public TaskList(final Cursor c) {
+		readFrom(c);
+	}
+
+	/**
+	 * Sets all fields from a cursor with Columns.FIELDS
+	 */
+	private void readFrom(final Cursor c) {
 		this._id = c.getLong(0);
 		this.title = c.getString(1);
 		this.updated = c.getLong(2);
@@ -146,6 +239,30 @@ public class TaskList extends DAO {
 		// dropboxid = c.getString(6);
 	}
 
+	/**
+	 * Reads lists from a cursor with Columns.FIELDS without an object
+	 * per row.
+	 */
+	public static class Reader extends RowReader<TaskList> {
+		public Reader(final Cursor c) {
+			super(c);
+		}
+
+		public String getTitle() {
+			return c.getString(1);
+		}
+
+		public long getUpdated() {
+			return getLong(2, 0);
+		}
+
+		@Override
+		public TaskList readInto(final TaskList item) {
+			item.readFrom(c);
+			return item;
+		}
+	}
+
 	public TaskList(final Uri uri, final ContentValues values) {
 		this(Long.parseLong(uri.getLastPathSegment()), values);
 	}
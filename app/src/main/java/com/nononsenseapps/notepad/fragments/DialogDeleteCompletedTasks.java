@@ -43,7 +43,7 @@ public class DialogDeleteCompletedTasks extends DialogDeleteTask {
 			where += TaskListFragment.andWhereWeek();
 			break;
 		default:
-			where += " AND " + Task.Columns.DBLIST + " IS ?";
+			where += " AND " + Task.Columns.DBLIST + " = ?";
 			whereArgs = new String[] { Long
 					.toString(getArguments().getLong(ID, -1)) };
 			break;
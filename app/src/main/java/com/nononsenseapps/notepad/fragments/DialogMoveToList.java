@@ -170,15 +170,14 @@ public class DialogMoveToList extends DialogFragment {
 		// c.close();
 		// }
 
-		final ContentValues val = new ContentValues();
-		val.put(Task.Columns.DBLIST, toListId);
-
 		// where _ID in (1, 2, 3)
 		final String whereId = new StringBuilder(Task.Columns._ID)
 				.append(" IN (").append(DAO.arrayToCommaString(taskIds))
 				.append(")").toString();
 
-		getActivity().getContentResolver().update(Task.URI, val, whereId, null);
+		getActivity().getContentResolver().update(
+				Task.getMoveToListUri(toListId), new ContentValues(), whereId,
+				null);
 	}
 
 	@Click(resName="dialog_no")
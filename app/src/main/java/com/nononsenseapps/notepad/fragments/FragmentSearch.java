@@ -166,7 +166,8 @@ public class FragmentSearch extends Fragment {
 	 * Override to give different search behaviour
 	 */
 	protected String getSortOrder() {
-		return Task.Columns.TITLE;
+		// Best match first
+		return null;
 	}
 	
 	/**
@@ -235,8 +236,21 @@ public class FragmentSearch extends Fragment {
 					// Note
 					// Only if task it not locked
 					if (c.getInt(9) != 1) {
-						((TitleNoteTextView) view).setTextRest(c
-								.getString(colIndex));
+						// Show the matching part of long notes
+						final int snippetCol = c
+								.getColumnIndex(Task.Columns.SNIPPET);
+						final String snippet = snippetCol < 0 ? null : c
+								.getString(snippetCol);
+						if (snippet != null
+								&& snippet.contains(Task.SNIPPET_START)) {
+							((TitleNoteTextView) view).setTextRestHighlighted(
+									snippet, Task.SNIPPET_START,
+									Task.SNIPPET_END);
+						}
+						else {
+							((TitleNoteTextView) view).setTextRest(c
+									.getString(colIndex));
+						}
 					}
 					else {
 						((TitleNoteTextView) view).setTextRest("");
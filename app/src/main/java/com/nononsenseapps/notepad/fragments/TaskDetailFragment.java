@@ -99,7 +99,7 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 			if (LOADER_EDITOR_NOTIFICATIONS == id) {
 				return new CursorLoader(getActivity(), Notification.URI,
 						Notification.Columns.FIELDS,
-						Notification.Columns.TASKID + " IS ?",
+						Notification.Columns.TASKID + " = ?",
 						new String[] { Long.toString(args.getLong(ARG_ITEM_ID,
 								-1)) }, Notification.Columns.TIME);
 			} else if (LOADER_EDITOR_TASK == id) {
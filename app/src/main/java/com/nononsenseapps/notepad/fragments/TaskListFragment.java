@@ -36,6 +36,7 @@ import com.mobeta.android.dslv.SimpleDragSortCursorAdapter.ViewBinder;
 import com.nononsenseapps.helpers.TimeFormatter;
 import com.nononsenseapps.notepad.ActivityMain;
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.PagingCursorLoader;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBase.DialogConfirmedListener;
@@ -70,7 +71,9 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AbsListView.MultiChoiceModeListener;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.CompoundButton;
@@ -385,8 +388,12 @@ public class TaskListFragment extends Fragment implements
 					String where = null;
 					String[] whereArgs = null;
 
-					if (mListId > 0) {
-						where = Task.Columns.DBLIST + " IS ?";
+					if (mListId > 0 && targetUri == Task.URI) {
+						// Only reloaded when this list changes
+						targetUri = Task.getListUri(mListId);
+					}
+					else if (mListId > 0) {
+						where = Task.Columns.DBLIST + " = ?";
 						whereArgs = new String[] { Long.toString(mListId) };
 					}
 					else {
@@ -412,8 +419,27 @@ public class TaskListFragment extends Fragment implements
 						}
 					}
 
+					// Long lists in a simple order are loaded a page at a
+					// time
+					if (mListId < 1) {
+						return new PagingCursorLoader(getActivity(), targetUri,
+								Task.Columns.LIST_FIELDS, where, whereArgs,
+								Task.Columns.DUE, false, true);
+					}
+					else if (Task.Columns.LEFT.equals(sortSpec)) {
+						return new PagingCursorLoader(getActivity(), targetUri,
+								Task.Columns.LIST_FIELDS, where, whereArgs,
+								Task.Columns.LEFT, false, false);
+					}
+					else if (mSortType
+							.equals(getString(R.string.const_modified))) {
+						return new PagingCursorLoader(getActivity(), targetUri,
+								Task.Columns.LIST_FIELDS, where, whereArgs,
+								Task.Columns.UPDATED, true, true);
+					}
+
 					return new CursorLoader(getActivity(), targetUri,
-							Task.Columns.FIELDS, where, whereArgs, sortSpec);
+							Task.Columns.LIST_FIELDS, where, whereArgs, sortSpec);
 				}
 			}
 
@@ -505,6 +531,27 @@ public class TaskListFragment extends Fragment implements
 			}
 		});
 
+		listView.setOnScrollListener(new OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) {
+				// Load the next page before the end is reached
+				if (totalItemCount > 0
+						&& firstVisibleItem + visibleItemCount > totalItemCount
+								- PagingCursorLoader.PAGE_SIZE / 2) {
+					final Loader<Cursor> loader = getLoaderManager()
+							.getLoader(1);
+					if (loader instanceof PagingCursorLoader) {
+						((PagingCursorLoader) loader).loadMore();
+					}
+				}
+			}
+		});
+
 		listView.setOnItemLongClickListener(new OnItemLongClickListener() {
 			@Override
 			public boolean onItemLongClick(AdapterView<?> arg0, View view,
@@ -676,11 +723,32 @@ public class TaskListFragment extends Fragment implements
 						sb.append(t.title);
 					}
 					else {
-						sb.append(t.getText());
+						sb.append(withFullNote(t).getText());
 					}
 				}
 				return sb.toString();
 			}
+
+			/**
+			 * The list only has the preview of the note, load the rest if
+			 * it was cut.
+			 */
+			Task withFullNote(final Task t) {
+				if (t.note == null || t.note.length() < Task.PREVIEW_LENGTH) {
+					return t;
+				}
+				final Cursor c = getActivity().getContentResolver().query(
+						t.getUri(), Task.Columns.FIELDS, null, null, null);
+				try {
+					if (c != null && c.moveToFirst()) {
+						return new Task(c);
+					}
+					return t;
+				}
+				finally {
+					if (c != null) c.close();
+				}
+			}
 			
 			String getShareSubject() {
 				String result = "";
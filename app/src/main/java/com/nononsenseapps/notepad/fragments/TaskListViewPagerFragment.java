@@ -280,7 +280,7 @@ public class TaskListViewPagerFragment extends Fragment implements
 		if (returnList > 0) {
 			// See if it exists
 			final Cursor c = context.getContentResolver().query(TaskList.URI,
-					TaskList.Columns.FIELDS, TaskList.Columns._ID + " IS ?",
+					TaskList.Columns.FIELDS, TaskList.Columns._ID + " = ?",
 					new String[] { Long.toString(returnList) }, null);
 			if (c.moveToFirst()) {
 				returnList = c.getLong(0);
@@ -1,28 +1,33 @@
 package com.nononsenseapps.notepad.legacy;
 
 import java.text.ParseException;
-import java.util.HashMap;
+import java.util.ArrayList;
 
 import org.androidannotations.annotations.EService;
 import org.androidannotations.annotations.UiThread;
 import com.nononsenseapps.notepad.ActivityMain;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBase;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTask;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
+import com.nononsenseapps.util.LongMap;
 import com.nononsenseapps.utils.time.RFC3339Date;
 
 import android.app.IntentService;
 import android.app.Service;
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.IBinder;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
@@ -57,6 +62,9 @@ public class DonateMigrator extends IntentService {
 			NotePad.GTaskLists.COLUMN_NAME_GOOGLE_ACCOUNT,
 			NotePad.GTaskLists.COLUMN_NAME_DB_ID };
 
+	// Operations per transaction when inserting notes
+	static final int BATCH_SIZE = 200;
+
 	int mNotesImportedCount = 0;
 	int mListsImportedCount = 0;
 	String mError = null;
@@ -95,8 +103,7 @@ public class DonateMigrator extends IntentService {
 	 * is updated in fields.
 	 */
 	void importNotes() {
-		final HashMap<Long, Long> listIDMap = new HashMap<Long, Long>();
-		final HashMap<Long, Long> taskIDMap = new HashMap<Long, Long>();
+		final LongMap<Long> listIDMap = new LongMap<Long>();
 
 		// Work through, list by list
 		final Cursor listCursor = getContentResolver().query(
@@ -144,6 +151,25 @@ public class DonateMigrator extends IntentService {
 			if (listCursor != null) listCursor.close();
 		}
 
+		// Google ids of all notes, instead of a query per note
+		final LongMap<String[]> gtasks = new LongMap<String[]>();
+		final Cursor gtaskCursor = getContentResolver().query(
+				Uri.withAppendedPath(BASEURI, PATH_GTASKS), GTASKPROJECTION,
+				null, null, null);
+		try {
+			while (gtaskCursor.moveToNext()) {
+				gtasks.put(gtaskCursor.getLong(3), new String[] {
+						gtaskCursor.getString(1), gtaskCursor.getString(2) });
+			}
+		}
+		catch (Exception e) {
+			mError = e.getLocalizedMessage();
+			return;
+		}
+		finally {
+			if (gtaskCursor != null) gtaskCursor.close();
+		}
+
 		final Cursor noteCursor = getContentResolver().query(
 				Uri.withAppendedPath(BASEURI, PATH_NOTES),
 				NOTEPROJECTION,
@@ -151,6 +177,8 @@ public class DonateMigrator extends IntentService {
 						+ NotePad.Notes.COLUMN_NAME_HIDDEN + " IS NOT 1", null,
 				NotePad.Notes.COLUMN_NAME_POSSUBSORT);
 		try {
+			final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+			int batchNotes = 0;
 			while (noteCursor.moveToNext()) {
 				Task t = new Task();
 				t.title = noteCursor.getString(1);
@@ -177,35 +205,35 @@ public class DonateMigrator extends IntentService {
 
 				t.updated = noteCursor.getLong(6);
 
-				if (t.dblist != null) {
-					t.save(this, t.updated);
-					taskIDMap.put(noteCursor.getLong(0), t._id);
-					mNotesImportedCount += 1;
-				}
-				// Gtask
-				final Cursor gtaskCursor = getContentResolver().query(
-						Uri.withAppendedPath(BASEURI, PATH_GTASKS),
-						GTASKPROJECTION,
-						NotePad.GTasks.COLUMN_NAME_DB_ID + " IS ?",
-						new String[] { Long.toString(noteCursor.getLong(0)) },
-						null);
-				try {
-					if (gtaskCursor.moveToFirst()) {
-						GoogleTask gt = new GoogleTask(t,
-								gtaskCursor.getString(2));
-						gt.remoteId = gtaskCursor.getString(1);
-						gt.updated = t.updated;
-						gt.save(this);
-					}
+				if (t.dblist == null) {
+					continue;
 				}
-				catch (Exception e) {
-					mError = e.getLocalizedMessage();
-					return;
+				final int taskOp = ops.size();
+				ops.add(ContentProviderOperation.newInsert(Task.URI)
+						.withValues(t.getContent()).build());
+				batchNotes += 1;
+
+				// Gtask, refers to the task inserted above
+				final String[] gtask = gtasks.get(noteCursor.getLong(0));
+				if (gtask != null) {
+					GoogleTask gt = new GoogleTask(t, gtask[1]);
+					gt.remoteId = gtask[0];
+					gt.updated = t.updated;
+					ops.add(ContentProviderOperation
+							.newInsert(gt.getBaseUri())
+							.withValues(gt.getContent())
+							.withValueBackReference(RemoteTask.Columns.DBID,
+									taskOp).build());
 				}
-				finally {
-					if (gtaskCursor != null) gtaskCursor.close();
+
+				if (ops.size() >= BATCH_SIZE) {
+					applyBatch(ops);
+					mNotesImportedCount += batchNotes;
+					batchNotes = 0;
 				}
 			}
+			applyBatch(ops);
+			mNotesImportedCount += batchNotes;
 		}
 		catch (Exception e) {
 			mError = e.getLocalizedMessage();
@@ -216,6 +244,17 @@ public class DonateMigrator extends IntentService {
 		}
 	}
 
+	/**
+	 * Inserts in one transaction and clears ops
+	 */
+	private void applyBatch(final ArrayList<ContentProviderOperation> ops)
+			throws RemoteException, OperationApplicationException {
+		if (!ops.isEmpty()) {
+			getContentResolver().applyBatch(MyContentProvider.AUTHORITY, ops);
+			ops.clear();
+		}
+	}
+
 	/**
 	 * Tell the user how much was imported and ask if he wants to uninstall the
 	 * app now.
@@ -20,17 +20,45 @@ import com.nononsenseapps.notepad.R;
 
 import android.app.Fragment;
 import android.os.Bundle;
+import android.preference.PreferenceActivity;
+import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 public class AboutPrefs extends Fragment {
+	// Taps on the copyright that show the database statistics
+	private static final int DEBUG_TAPS = 7;
+
+	private int taps = 0;
+
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container,
 			Bundle savedInstanceState) {
 		View layout = inflater.inflate(R.layout.app_pref_about_layout,
 				container, false);
+
+		layout.findViewById(R.id.aboutCopyright).setOnClickListener(
+				new OnClickListener() {
+					@Override
+					public void onClick(View v) {
+						if (++taps == DEBUG_TAPS) {
+							showDebugStats();
+						}
+					}
+				});
 		
 		return layout;
 	}
+
+	private void showDebugStats() {
+		PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+				.putBoolean(getString(R.string.pref_debug_stats_unlocked), true)
+				.commit();
+		Toast.makeText(getActivity(), R.string.debug_stats_title,
+				Toast.LENGTH_SHORT).show();
+		((PreferenceActivity) getActivity()).invalidateHeaders();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 Jonas Kalderstam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.prefs;
+
+import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.QueryStats;
+
+import android.app.Fragment;
+import android.content.Intent;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.CompoundButton;
+import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.Switch;
+import android.widget.TextView;
+
+/**
+ * Hidden screen with the content provider's timing, see QueryStats. Shown
+ * after tapping the copyright in About a few times.
+ */
+public class DebugStatsPrefs extends Fragment {
+
+	private TextView text;
+
+	@Override
+	public View onCreateView(LayoutInflater inflater, ViewGroup container,
+			Bundle savedInstanceState) {
+		View layout = inflater.inflate(R.layout.app_pref_debug_stats_layout,
+				container, false);
+
+		text = (TextView) layout.findViewById(R.id.debugStatsText);
+
+		final Switch enabled = (Switch) layout
+				.findViewById(R.id.debugStatsSwitch);
+		enabled.setChecked(QueryStats.isEnabled());
+		enabled.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView,
+					boolean isChecked) {
+				QueryStats.setEnabled(isChecked);
+				PreferenceManager
+						.getDefaultSharedPreferences(getActivity())
+						.edit()
+						.putBoolean(getString(R.string.pref_debug_query_stats),
+								isChecked).commit();
+			}
+		});
+
+		layout.findViewById(R.id.debugStatsRefresh).setOnClickListener(
+				new OnClickListener() {
+					@Override
+					public void onClick(View v) {
+						refresh();
+					}
+				});
+		layout.findViewById(R.id.debugStatsClear).setOnClickListener(
+				new OnClickListener() {
+					@Override
+					public void onClick(View v) {
+						QueryStats.clear();
+						refresh();
+					}
+				});
+		layout.findViewById(R.id.debugStatsShare).setOnClickListener(
+				new OnClickListener() {
+					@Override
+					public void onClick(View v) {
+						final Intent share = new Intent(Intent.ACTION_SEND);
+						share.setType("text/plain");
+						share.putExtra(Intent.EXTRA_SUBJECT,
+								getString(R.string.debug_stats_title));
+						share.putExtra(Intent.EXTRA_TEXT, QueryStats.report());
+						startActivity(Intent.createChooser(share, null));
+					}
+				});
+
+		return layout;
+	}
+
+	@Override
+	public void onResume() {
+		super.onResume();
+		refresh();
+	}
+
+	private void refresh() {
+		text.setText(QueryStats.report());
+	}
+}
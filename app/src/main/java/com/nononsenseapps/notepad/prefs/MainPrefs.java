@@ -81,6 +81,8 @@ public class MainPrefs extends PreferenceFragment {
 				.bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_editor_body_fontfamily)));
 		PrefsActivity
 				.bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_editor_fontsize)));
+		PrefsActivity
+				.bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_retention)));
         PrefsActivity.bindPreferenceSummaryToValue(findPreference(KEY_THEME));
 	}
 
@@ -82,6 +82,13 @@ public class PrefsActivity extends PreferenceActivity {
 	@Override
 	public void onBuildHeaders(List<Header> target) {
 		loadHeadersFromResource(R.xml.app_pref_headers, target);
+		if (PreferenceManager.getDefaultSharedPreferences(this).getBoolean(
+				getString(R.string.pref_debug_stats_unlocked), false)) {
+			final Header debug = new Header();
+			debug.fragment = DebugStatsPrefs.class.getName();
+			debug.titleRes = R.string.debug_stats_title;
+			target.add(debug);
+		}
 		// When headers show, it is the root activity which should
 		// navigate up and not back.
 		mIsRoot = true;
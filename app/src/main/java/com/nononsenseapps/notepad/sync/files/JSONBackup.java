@@ -7,19 +7,24 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.os.Environment;
+import android.os.RemoteException;
 import android.util.Log;
 
 import com.nononsenseapps.helpers.NotificationHelper;
+import com.nononsenseapps.notepad.database.MyContentProvider;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.RemoteTaskList;
@@ -65,7 +70,7 @@ public class JSONBackup {
 
 		final Cursor c = context.getContentResolver().query(RemoteTaskList.URI,
 				RemoteTaskList.Columns.FIELDS,
-				RemoteTaskList.Columns.DBID + " IS ?",
+				RemoteTaskList.Columns.DBID + " = ?",
 				new String[] { Long.toString(list._id) },
 				RemoteTaskList.Columns.SERVICE);
 
@@ -79,60 +84,34 @@ public class JSONBackup {
 		return remotes;
 	}
 
-	private List<Task> getTasksIn(final TaskList list) {
-		final ArrayList<Task> tasks = new ArrayList<Task>();
-
+	/**
+	 * The tasks, remotes and reminders below are written one row at a time
+	 * with a single reused object, rather than loading all into lists first.
+	 */
+	private Task.Reader getTasksIn(final TaskList list) {
 		// Reverse order because adding stuff is always done at the top
 		final Cursor c = context.getContentResolver().query(Task.URI,
-				Task.Columns.FIELDS, Task.Columns.DBLIST + " IS ?",
+				Task.Columns.FIELDS, Task.Columns.DBLIST + " = ?",
 				new String[] { Long.toString(list._id) },
 				Task.Columns.LEFT + " DESC");
-
-		while (c != null && c.moveToNext()) {
-			tasks.add(new Task(c));
-		}
-
-		if (c != null)
-			c.close();
-
-		return tasks;
+		return c == null ? null : new Task.Reader(c);
 	}
 
-	private List<RemoteTask> getRemotesOf(final Task task) {
-		final ArrayList<RemoteTask> remotes = new ArrayList<RemoteTask>();
-
+	private RemoteTask.Reader getRemotesOf(final Task task) {
 		final Cursor c = context.getContentResolver().query(RemoteTask.URI,
-				RemoteTask.Columns.FIELDS, RemoteTask.Columns.DBID + " IS ?",
+				RemoteTask.Columns.FIELDS, RemoteTask.Columns.DBID + " = ?",
 				new String[] { Long.toString(task._id) },
 				RemoteTask.Columns.SERVICE);
-
-		while (c != null && c.moveToNext()) {
-			remotes.add(new RemoteTask(c));
-		}
-
-		if (c != null)
-			c.close();
-
-		return remotes;
+		return c == null ? null : new RemoteTask.Reader(c);
 	}
 
-	private List<Notification> getRemindersFor(final Task task) {
-		final ArrayList<Notification> reminders = new ArrayList<Notification>();
-
+	private Notification.Reader getRemindersFor(final Task task) {
 		final Cursor c = context.getContentResolver().query(Notification.URI,
 				Notification.Columns.FIELDS,
-				Notification.Columns.TASKID + " IS ?",
+				Notification.Columns.TASKID + " = ?",
 				new String[] { Long.toString(task._id) },
 				Notification.Columns.TIME);
-
-		while (c != null && c.moveToNext()) {
-			reminders.add(new Notification(c));
-		}
-
-		if (c != null)
-			c.close();
-
-		return reminders;
+		return c == null ? null : new Notification.Reader(c);
 	}
 
 	private JSONObject getJSONBackup() throws JSONException {
@@ -175,41 +154,74 @@ public class JSONBackup {
 
 	private JSONArray getJSONTasksFor(final TaskList list) throws JSONException {
 		final JSONArray taskarray = new JSONArray();
-		for (final Task task : getTasksIn(list)) {
-			final JSONObject jsontask = new JSONObject();
-			jsontask.put(Task.Columns._ID, task._id);
-			addAllContentToJSON(task.getContent(), jsontask);
-			jsontask.put(Task.Columns.LEFT, task.left);
-			jsontask.put(Task.Columns.RIGHT, task.right);
-
-			jsontask.put(KEY_REMOTES, getJSONRemotesFor(task));
-			jsontask.put(KEY_REMINDERS, getJSONRemindersFor(task));
-
-			taskarray.put(jsontask);
+		final Task.Reader reader = getTasksIn(list);
+		if (reader == null) {
+			return taskarray;
+		}
+		try {
+			final Task task = new Task();
+			while (reader.moveToNext()) {
+				reader.readInto(task);
+				final JSONObject jsontask = new JSONObject();
+				jsontask.put(Task.Columns._ID, task._id);
+				addAllContentToJSON(task.getContent(), jsontask);
+				jsontask.put(Task.Columns.LEFT, task.left);
+				jsontask.put(Task.Columns.RIGHT, task.right);
+
+				jsontask.put(KEY_REMOTES, getJSONRemotesFor(task));
+				jsontask.put(KEY_REMINDERS, getJSONRemindersFor(task));
+
+				taskarray.put(jsontask);
+			}
+		}
+		finally {
+			reader.close();
 		}
 		return taskarray;
 	}
 
 	private JSONArray getJSONRemotesFor(final Task task) throws JSONException {
 		final JSONArray remotetaskarray = new JSONArray();
-		for (final RemoteTask remote : getRemotesOf(task)) {
-			final JSONObject jsonremote = new JSONObject();
-			jsonremote.put(RemoteTask.Columns._ID, remote._id);
-			addAllContentToJSON(remote.getContent(), jsonremote);
-
-			remotetaskarray.put(jsonremote);
+		final RemoteTask.Reader reader = getRemotesOf(task);
+		if (reader == null) {
+			return remotetaskarray;
+		}
+		try {
+			final RemoteTask remote = new RemoteTask();
+			while (reader.moveToNext()) {
+				reader.readInto(remote);
+				final JSONObject jsonremote = new JSONObject();
+				jsonremote.put(RemoteTask.Columns._ID, remote._id);
+				addAllContentToJSON(remote.getContent(), jsonremote);
+
+				remotetaskarray.put(jsonremote);
+			}
+		}
+		finally {
+			reader.close();
 		}
 		return remotetaskarray;
 	}
 
 	private JSONArray getJSONRemindersFor(final Task task) throws JSONException {
 		final JSONArray reminderarray = new JSONArray();
-		for (final Notification reminder : getRemindersFor(task)) {
-			final JSONObject jsonreminder = new JSONObject();
-			jsonreminder.put(Notification.Columns._ID, reminder._id);
-			addAllContentToJSON(reminder.getContent(), jsonreminder);
-
-			reminderarray.put(jsonreminder);
+		final Notification.Reader reader = getRemindersFor(task);
+		if (reader == null) {
+			return reminderarray;
+		}
+		try {
+			final Notification reminder = new Notification(task._id);
+			while (reader.moveToNext()) {
+				reader.readInto(reminder);
+				final JSONObject jsonreminder = new JSONObject();
+				jsonreminder.put(Notification.Columns._ID, reminder._id);
+				addAllContentToJSON(reminder.getContent(), jsonreminder);
+
+				reminderarray.put(jsonreminder);
+			}
+		}
+		finally {
+			reader.close();
 		}
 		return reminderarray;
 	}
@@ -245,9 +257,11 @@ public class JSONBackup {
 	 * @throws JSONException
 	 * @throws IOException
 	 * @throws FileNotFoundException
+	 * @throws OperationApplicationException
+	 * @throws RemoteException
 	 */
 	public void restoreBackup() throws FileNotFoundException, JSONException,
-			IOException {
+			IOException, RemoteException, OperationApplicationException {
 		final JSONObject backup = readBackup();
 		// Only if backup exists will we clear the database
 		clearDatabase();
@@ -316,45 +330,69 @@ public class JSONBackup {
 		}
 	}
 
+	/**
+	 * Restores all tasks of a list, together with their remotes and reminders,
+	 * in a single provider batch.
+	 */
 	private void restoreTasks(final TaskList list, final JSONArray tasksarray)
-			throws JSONException {
+			throws JSONException, RemoteException,
+			OperationApplicationException {
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
 		for (int i = 0; i < tasksarray.length(); i++) {
 			final JSONObject jsontask = tasksarray.getJSONObject(i);
 			final Task task = new Task(jsontask);
 			task.dblist = list._id;
-			if (task.updated != null)
-				task.save(context, task.updated);
-			else
-				task.save(context);
+			if (task.updated == null)
+				task.updated = Calendar.getInstance().getTimeInMillis();
+
+			final int taskIndex = ops.size();
+			ops.add(ContentProviderOperation.newInsert(Task.URI)
+					.withValues(task.getContent()).build());
 
 			if (!jsontask.isNull(KEY_REMOTES)) {
-				restoreRemotes(task, jsontask.getJSONArray(KEY_REMOTES));
+				restoreRemotes(ops, taskIndex, task,
+						jsontask.getJSONArray(KEY_REMOTES));
 			}
 			if (!jsontask.isNull(KEY_REMINDERS)) {
-				restoreReminders(task, jsontask.getJSONArray(KEY_REMINDERS));
+				restoreReminders(ops, taskIndex,
+						jsontask.getJSONArray(KEY_REMINDERS));
 			}
 		}
+
+		if (!ops.isEmpty()) {
+			context.getContentResolver().applyBatch(MyContentProvider.AUTHORITY,
+					ops);
+		}
 	}
 
-	private void restoreRemotes(final Task task, final JSONArray jsonArray)
+	private void restoreRemotes(final ArrayList<ContentProviderOperation> ops,
+			final int taskIndex, final Task task, final JSONArray jsonArray)
 			throws JSONException {
 		for (int i = 0; i < jsonArray.length(); i++) {
 			final JSONObject json = jsonArray.getJSONObject(i);
 			final RemoteTask remote = new RemoteTask(json);
-			remote.dbid = task._id;
 			remote.listdbid = task.dblist;
-			remote.save(context);
-			Log.d("JONAS", "RemoteT restored: " + remote._id);
+			final ContentValues values = remote.getContent();
+			values.remove(RemoteTask.Columns.DBID);
+			ops.add(ContentProviderOperation.newInsert(RemoteTask.URI)
+					.withValues(values)
+					.withValueBackReference(RemoteTask.Columns.DBID, taskIndex)
+					.build());
 		}
 	}
 
-	private void restoreReminders(final Task task, final JSONArray jsonArray)
+	private void restoreReminders(final ArrayList<ContentProviderOperation> ops,
+			final int taskIndex, final JSONArray jsonArray)
 			throws JSONException {
 		for (int i = 0; i < jsonArray.length(); i++) {
 			final JSONObject json = jsonArray.getJSONObject(i);
 			final Notification not = new Notification(json);
-			not.taskID = task._id;
-			not.save(context);
+			final ContentValues values = not.getContent();
+			values.remove(Notification.Columns.TASKID);
+			ops.add(ContentProviderOperation.newInsert(Notification.URI)
+					.withValues(values)
+					.withValueBackReference(Notification.Columns.TASKID,
+							taskIndex).build());
 		}
 	}
 }
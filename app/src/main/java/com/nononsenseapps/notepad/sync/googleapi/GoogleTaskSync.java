@@ -207,8 +207,8 @@ public class GoogleTaskSync {
 		final Cursor c = context.getContentResolver().query(
 				GoogleTaskList.URI,
 				GoogleTaskList.Columns.FIELDS,
-				GoogleTaskList.Columns.ACCOUNT + " IS ? AND "
-						+ GoogleTaskList.Columns.SERVICE + " IS ?",
+				GoogleTaskList.Columns.ACCOUNT + " = ? AND "
+						+ GoogleTaskList.Columns.SERVICE + " = ?",
 				new String[] { account, GoogleTaskList.SERVICENAME }, null);
 		try {
 			while (c.moveToNext()) {
@@ -253,9 +253,9 @@ public class GoogleTaskSync {
 		final Cursor c = context.getContentResolver().query(
 				GoogleTask.URI,
 				GoogleTask.Columns.FIELDS,
-				GoogleTask.Columns.LISTDBID + " IS ? AND "
-						+ GoogleTask.Columns.ACCOUNT + " IS ? AND "
-						+ GoogleTask.Columns.SERVICE + " IS ?",
+				GoogleTask.Columns.LISTDBID + " = ? AND "
+						+ GoogleTask.Columns.ACCOUNT + " = ? AND "
+						+ GoogleTask.Columns.SERVICE + " = ?",
 				new String[] { Long.toString(listDbId), account,
 						GoogleTaskList.SERVICENAME }, null);
 		try {
@@ -1,27 +1,47 @@
 package com.nononsenseapps.notepad.sync.orgsync;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.os.Process;
+import android.os.RemoteException;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
+import com.nononsenseapps.notepad.database.DAO;
+import com.nononsenseapps.notepad.database.MyContentProvider;
 import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.RemoteTaskList;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 
+import com.nononsenseapps.util.LongMap;
+
 import org.cowboyprogrammer.org.OrgFile;
 import org.cowboyprogrammer.org.OrgNode;
 import org.cowboyprogrammer.org.OrgTimestamp;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This class is suitable for synchronizers to inherit from. It contains the
@@ -29,8 +49,22 @@ import java.util.List;
  */
 public abstract class DBSyncBase implements SynchronizerInterface {
 
+    // Most threads in newWorkerPool
+    private static final int MAX_WORKERS = 4;
+
     protected Context context;
     private ContentResolver resolver;
+    // Hash of the content of each file read during this sync
+    private final IdentityHashMap<OrgFile, String> readHashes = new
+            IdentityHashMap<OrgFile, String>();
+    // Stamp of each file read during this sync, taken before it was read
+    private final IdentityHashMap<OrgFile, String> readStamps = new
+            IdentityHashMap<OrgFile, String>();
+    // Entries of lists now in sync with their files, see rememberSynced
+    private final ArrayList<RemoteTaskList> synced = new
+            ArrayList<RemoteTaskList>();
+    // State of each list right after this sync last wrote it, by list-dbid
+    private final LongMap<String> syncedStates = new LongMap<String>();
 
     public DBSyncBase(final Context context) {
         this.context = context;
@@ -39,30 +73,28 @@ public abstract class DBSyncBase implements SynchronizerInterface {
     }
 
     /**
-     * Reads the database and the OrgFile. Returns the matching Tasks and Nodes.
+     * Matches the tasks of the list with the nodes of the OrgFile. Only
+     * reads the database through tasks, which getTasksOfLists loaded.
      * <p/>
      * TODO
      * For gods' sake, test me!
      *
-     * @param file The OrgFile containing all the tasks
-     * @param list The TaskList corresponding to the OrgFile.
+     * @param file  The OrgFile containing all the tasks
+     * @param list  The TaskList corresponding to the OrgFile.
+     * @param tasks The tasks of the list. Used up by this.
      * @return A list of all task-related objects necessary for synchronization.
      */
     protected List<Pair<OrgNode, Pair<RemoteTask, Task>>> getNodesAndDBEntries(
-            OrgFile file, TaskList list) {
+            OrgFile file, TaskList list, ListTasks tasks) {
         final List<Pair<OrgNode, Pair<RemoteTask, Task>>> result = new ArrayList<Pair<OrgNode, Pair<RemoteTask, Task>>>();
 
-        final HashMap<Long, Task> tasks = getTasks(list);
-
-        final HashMap<Long, RemoteTask> remotes = getValidRemoteTasks(list);
-
-        final List<RemoteTask> remotesDeleted = getInvalidRemoteTasks(list);
+        final LongMap<RemoteTask> remotes = tasks.remotes;
 
         final HashMap<String, OrgNode> nodes = getNodes(file);
 
         // Start with tasks
-        for (long dbid : tasks.keySet()) {
-            Task task = tasks.get(dbid);
+        for (long dbid : tasks.tasks.keys()) {
+            Task task = tasks.tasks.get(dbid);
             RemoteTask remote = remotes.remove(dbid);
             OrgNode node = null;
             // Can be null
@@ -79,7 +111,7 @@ public abstract class DBSyncBase implements SynchronizerInterface {
             result.add(new Pair<OrgNode, Pair<RemoteTask, Task>>(node,
                     new Pair<RemoteTask, Task>(remote, task)));
         }
-        for (RemoteTask remote : remotesDeleted) {
+        for (RemoteTask remote : tasks.remotesDeleted) {
             Task task = null;
             OrgNode node = nodes.remove(remote.remoteId.toUpperCase());
             result.add(new Pair<OrgNode, Pair<RemoteTask, Task>>(node,
@@ -124,95 +156,104 @@ public abstract class DBSyncBase implements SynchronizerInterface {
         }
     }
 
-    private HashMap<Long, RemoteTask> getValidRemoteTasks(final TaskList list) {
-        final HashMap<Long, RemoteTask> map = new HashMap<Long, RemoteTask>();
-        final Cursor c = resolver.query(
-                RemoteTask.URI,
-                RemoteTask.Columns.FIELDS,
-                RemoteTask.Columns.SERVICE + " IS ? AND "
-                        + RemoteTask.Columns.ACCOUNT + " IS ? AND "
-                        + RemoteTask.Columns.LISTDBID + " IS ? AND "
-                        + RemoteTask.Columns.DBID + " > 0",
-                new String[]{getServiceName(), getAccountName(),
-                        Long.toString(list._id)}, null);
-        try {
-            while (c.moveToNext()) {
-                RemoteTask remote = new RemoteTask(c);
-                map.put(remote.dbid, remote);
-            }
-        } finally {
-            if (c != null)
-                c.close();
-        }
-
-        return map;
+    /**
+     * The tasks of one list and the remote tasks of this service in it.
+     */
+    protected static class ListTasks {
+        final LongMap<Task> tasks = new LongMap<Task>();
+        // By task id
+        final LongMap<RemoteTask> remotes = new LongMap<RemoteTask>();
+        // No longer connected to a task. This typically happens when a task
+        // is deleted or moved to another list.
+        final List<RemoteTask> remotesDeleted = new ArrayList<RemoteTask>();
     }
 
     /**
-     * These remote tasks are no longer connected to a task. This typically happens when a task is
-     * deleted or moved to another list.
+     * Reads the tasks of the lists and their remote versions, in one query
+     * for all lists.
      *
-     * @param list
-     * @return
+     * @param listIds Lists to read.
+     * @return The tasks of each list. Lists without any are left out, see
+     * tasksOf.
      */
-    private List<RemoteTask> getInvalidRemoteTasks(final TaskList list) {
-        final ArrayList<RemoteTask> remoteList = new ArrayList<RemoteTask>();
+    protected LongMap<ListTasks> getTasksOfLists(final long... listIds) {
+        final LongMap<ListTasks> result = new LongMap<ListTasks>(listIds.length);
+        if (listIds.length == 0) {
+            return result;
+        }
         final Cursor c = resolver.query(
-                RemoteTask.URI,
-                RemoteTask.Columns.FIELDS,
-                RemoteTask.Columns.SERVICE + " IS ? AND "
-                        + RemoteTask.Columns.ACCOUNT + " IS ? AND "
-                        + RemoteTask.Columns.LISTDBID + " IS ? AND "
-                        + RemoteTask.Columns.DBID + " < 1",
-                new String[]{getServiceName(), getAccountName(),
-                        Long.toString(list._id)}, null);
+                RemoteTask.getWithTaskUri(getServiceName(), getAccountName()),
+                RemoteTask.Columns.WITH_TASK_FIELDS,
+                RemoteTask.Columns.SYNC_LIST + " IN ("
+                        + DAO.arrayToCommaString(listIds) + ")", null, null);
         try {
             while (c.moveToNext()) {
-                RemoteTask remote = new RemoteTask(c);
-                remoteList.add(remote);
+                final long listId = c.getLong(0);
+                ListTasks tasks = result.get(listId);
+                if (tasks == null) {
+                    tasks = new ListTasks();
+                    result.put(listId, tasks);
+                }
+                if (!c.isNull(RemoteTask.Columns.WITH_TASK_TASK_OFFSET)) {
+                    final Task task = new Task(c,
+                            RemoteTask.Columns.WITH_TASK_TASK_OFFSET);
+                    tasks.tasks.put(task._id, task);
+                }
+                if (!c.isNull(RemoteTask.Columns.WITH_TASK_REMOTE_OFFSET)) {
+                    final RemoteTask remote = new RemoteTask(c,
+                            RemoteTask.Columns.WITH_TASK_REMOTE_OFFSET);
+                    if (remote.dbid > 0) {
+                        tasks.remotes.put(remote.dbid, remote);
+                    } else {
+                        tasks.remotesDeleted.add(remote);
+                    }
+                }
             }
         } finally {
-            if (c != null)
-                c.close();
+            c.close();
         }
 
-        return remoteList;
+        return result;
     }
 
-    private HashMap<Long, Task> getTasks(final TaskList list) {
-        final HashMap<Long, Task> map = new HashMap<Long, Task>();
-        final Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
-                Task.Columns.DBLIST + " IS ?",
-                new String[]{Long.toString(list._id)}, null);
-        try {
-            while (c.moveToNext()) {
-                Task task = new Task(c);
-                map.put(task._id, task);
-            }
-        } finally {
-            if (c != null)
-                c.close();
-        }
-
-        return map;
+    /**
+     * @return the tasks of the list in the result of getTasksOfLists,
+     * which may be none.
+     */
+    protected static ListTasks tasksOf(final LongMap<ListTasks> tasks,
+                                       final long listId) {
+        final ListTasks result = tasks.get(listId);
+        return result == null ? new ListTasks() : result;
     }
 
     /**
-     * Reads the database and the remote source.
+     * Reads the database and the remote source. Lists and files which have
+     * not changed since they were last synced are left out, without reading
+     * or parsing the file if its stamp is unchanged too. Files are read and
+     * parsed on the workers.
      *
+     * @param workers Pool to read files on, see newWorkerPool.
      * @return The matching TaskList and OrgFiles.
      * @throws ParseException
      * @throws IOException
      */
-    protected List<Pair<OrgFile, Pair<RemoteTaskList, TaskList>>> getFilesAndDBEntries()
-            throws IOException, ParseException {
+    protected List<Pair<OrgFile, Pair<RemoteTaskList, TaskList>>> getFilesAndDBEntries(
+            final ExecutorService workers) throws IOException, ParseException {
         final List<Pair<OrgFile, Pair<RemoteTaskList, TaskList>>> result = new ArrayList<Pair<OrgFile, Pair<RemoteTaskList, TaskList>>>();
+        final List<PendingPair> pending = new ArrayList<PendingPair>();
+        readHashes.clear();
+        readStamps.clear();
+        synced.clear();
+        syncedStates.clear();
 
         // get all lists
-        final HashMap<Long, TaskList> lists = getLists();
+        final LongMap<TaskList> lists = getLists();
+
+        // and what they looked like
+        final LongMap<String> localStates = getLocalStates();
 
         // get all db entries
-        final HashMap<Long, RemoteTaskList> remotes = getRemoteTaskLists();
+        final LongMap<RemoteTaskList> remotes = getRemoteTaskLists();
 
         // get all files
         final HashSet<String> filenames = getRemoteFilenames();
@@ -221,86 +262,372 @@ public abstract class DBSyncBase implements SynchronizerInterface {
         }
 
         // Construct pairs from lists first. This removes entries as it goes.
-        for (Long dbid : lists.keySet()) {
-            TaskList list = lists.get(dbid);
-            RemoteTaskList remote = remotes.remove(dbid);
-            OrgFile file = null;
+        for (long dbid : lists.keys()) {
+            final PendingPair pair = new PendingPair(remotes.remove(dbid),
+                    lists.get(dbid));
             // Can be null
-            if (remote != null && filenames.remove(remote.remoteId)) {
-                final BufferedReader br = getRemoteFile(remote.remoteId);
-                if (br != null) {
-                    file = OrgFile.createFromBufferedReader(remote.remoteId, br);
+            if (pair.remote != null && filenames.remove(pair.remote.remoteId)) {
+                final boolean listChanged = !TextUtils.equals(
+                        localStates.get(dbid),
+                        RemoteTaskListFile.getLocalState(pair.remote));
+                pair.stamp = getRemoteFileStamp(pair.remote.remoteId);
+                if (!listChanged && pair.stamp != null && pair.stamp.equals
+                        (RemoteTaskListFile.getFileStamp(pair.remote))) {
+                    Log.d(Synchronizer.TAG, "Unchanged: " + pair.remote
+                            .remoteId);
+                    continue;
                 }
+                pair.read = submitRead(workers, pair.remote.remoteId,
+                        listChanged ? null : RemoteTaskListFile.getFileHash
+                                (pair.remote));
             }
-            String l = list.title;
-            String r = null;
-            if (remote != null)
-                r = remote.remoteId;
-            String f = null;
-            if (file != null)
-                f = file.getFilename();
-            Log.d(Synchronizer.TAG, "Pair:" + l + ", " + r + ", " + f);
-            result.add(new Pair<OrgFile, Pair<RemoteTaskList, TaskList>>(file,
-                    new Pair<RemoteTaskList, TaskList>(remote, list)));
+            pending.add(pair);
         }
 
         // Add remotes that no longer have a list
         for (RemoteTaskList remote : remotes.values()) {
-            TaskList list = null;
-            OrgFile file = null;
+            final PendingPair pair = new PendingPair(remote, null);
             // Can be null
             if (remote != null && filenames.remove(remote.remoteId)) {
-                final BufferedReader br = getRemoteFile(remote.remoteId);
-                if (br != null) {
-                    file = OrgFile.createFromBufferedReader(remote.remoteId, br);
-                }
+                pair.read = submitRead(workers, remote.remoteId, null);
             }
-            String l = null;
-            String r = null;
-            if (remote != null)
-                r = remote.remoteId;
-            String f = null;
-            if (file != null)
-                f = file.getFilename();
-            Log.d(Synchronizer.TAG, "Pair:" + l + ", " + r + ", " + f);
-            result.add(new Pair<OrgFile, Pair<RemoteTaskList, TaskList>>(file,
-                    new Pair<RemoteTaskList, TaskList>(remote, list)));
+            pending.add(pair);
         }
 
         // Add files that do not exist in database
         for (String filename : filenames) {
-            TaskList list = null;
-            RemoteTaskList remote = null;
+            final PendingPair pair = new PendingPair(null, null);
+            pair.stamp = getRemoteFileStamp(filename);
+            pair.read = submitRead(workers, filename, null);
+            pending.add(pair);
+        }
+
+        for (PendingPair pair : pending) {
             OrgFile file = null;
-            final BufferedReader br = getRemoteFile(filename);
-            if (br != null) {
-                file = OrgFile.createFromBufferedReader(filename, br);
+            if (pair.read != null) {
+                final ReadFile read = await(pair.read);
+                if (read.unchanged) {
+                    Log.d(Synchronizer.TAG, "Same content: " + pair.remote
+                            .remoteId);
+                    // Only touched, trust the stamp next time
+                    if (pair.stamp != null) {
+                        RemoteTaskListFile.setFileState(pair.remote, read.hash,
+                                pair.stamp);
+                        pair.remote.save(context);
+                    }
+                    continue;
+                }
+                file = read.file;
+                if (file != null) {
+                    readHashes.put(file, read.hash);
+                    readStamps.put(file, pair.stamp);
+                }
             }
-            String l = null;
-            String r = null;
-            String f = null;
             // An obvious precaution. If everything is null,
             // there's nothing to add.
-            if (file != null) {
-                f = file.getFilename();
-                Log.d(Synchronizer.TAG, "Pair:" + l + ", " + r + ", " + f);
-                result.add(new Pair<OrgFile, Pair<RemoteTaskList, TaskList>>(file,
-                        new Pair<RemoteTaskList, TaskList>(remote, list)));
+            if (file == null && pair.remote == null && pair.list == null) {
+                continue;
             }
+            Log.d(Synchronizer.TAG, "Pair:" + (pair.list == null ? null :
+                    pair.list.title) + ", " + (pair.remote == null ? null :
+                    pair.remote.remoteId) + ", " + (file == null ? null : file
+                    .getFilename()));
+            result.add(new Pair<OrgFile, Pair<RemoteTaskList, TaskList>>(file,
+                    new Pair<RemoteTaskList, TaskList>(pair.remote, pair.list)));
         }
 
         return result;
     }
 
+    /**
+     * A list and its entry, waiting for their file to be read.
+     */
+    private static class PendingPair {
+        final RemoteTaskList remote;
+        final TaskList list;
+        String stamp = null;
+        // Null if there is no file to read
+        Future<ReadFile> read = null;
+
+        PendingPair(final RemoteTaskList remote, final TaskList list) {
+            this.remote = remote;
+            this.list = list;
+        }
+    }
+
+    /**
+     * A remote file as read by a worker.
+     */
+    private static class ReadFile {
+        // Null if the file doesn't exist or is unchanged
+        OrgFile file = null;
+        String hash = null;
+        boolean unchanged = false;
+    }
+
+    /**
+     * Reads and parses a remote file on a worker.
+     *
+     * @param unchangedHash If the content has this hash, it is not parsed.
+     *                      Can be null.
+     */
+    private Future<ReadFile> submitRead(final ExecutorService workers,
+                                        final String filename,
+                                        final String unchangedHash) {
+        return workers.submit(new Callable<ReadFile>() {
+            @Override
+            public ReadFile call() throws IOException, ParseException {
+                final ReadFile read = new ReadFile();
+                final String content = readRemoteFile(filename);
+                if (content != null) {
+                    read.hash = hash(content);
+                    if (read.hash.equals(unchangedHash)) {
+                        read.unchanged = true;
+                    } else {
+                        read.file = OrgFile.createFromBufferedReader(filename,
+                                new BufferedReader(new StringReader(content)));
+                    }
+                }
+                return read;
+            }
+        });
+    }
+
+    /**
+     * A cheap version of a remote file, like its size and modification
+     * time, which changes whenever its content does. Files with the same
+     * stamp as when they were last synced are not read at all.
+     *
+     * @param filename Name of the file, without path
+     * @return the stamp, or null if there is none. The file is then read and
+     * compared by content instead.
+     */
+    protected String getRemoteFileStamp(final String filename) {
+        return null;
+    }
+
+    /**
+     * @return the content of the remote file, or null if it doesn't exist.
+     */
+    private String readRemoteFile(final String filename) throws IOException {
+        final BufferedReader br = getRemoteFile(filename);
+        if (br == null) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder();
+        try {
+            final char[] buffer = new char[8192];
+            int read;
+            while ((read = br.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        } finally {
+            br.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The number of threads in newWorkerPool.
+     */
+    protected int getWorkerCount() {
+        return Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime()
+                .availableProcessors()));
+    }
+
+    /**
+     * A pool for the parts of a sync which are independent per file: reading,
+     * parsing, matching nodes to tasks and writing. Database writes stay on
+     * the sync's own thread. Shut it down when the sync is done.
+     */
+    protected ExecutorService newWorkerPool() {
+        return Executors.newFixedThreadPool(getWorkerCount(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process
+                                        .THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "OrgSyncWorker");
+                    }
+                });
+    }
+
+    /**
+     * Waits for work done on a worker, and throws what it threw.
+     */
+    protected static <T> T await(final Future<T> future) throws IOException,
+            ParseException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Writes the file, unless it has the same content as when it was read
+     * during this sync.
+     *
+     * @return the hash of the file's content.
+     */
+    protected String putRemoteFileIfChanged(final OrgFile file)
+            throws IOException {
+        final String content = file.treeToString();
+        final String hash = hash(content);
+        if (hash.equals(readHashes.get(file))) {
+            Log.d(Synchronizer.TAG, "Same content, not written: " + file
+                    .getFilename());
+        } else {
+            putRemoteFile(file, content);
+        }
+        return hash;
+    }
+
+    /**
+     * Replaces the file on the remote end with the given content.
+     * Synchronizers which can write a string should override this, so the
+     * content is not built twice.
+     *
+     * @param content The file's treeToString.
+     */
+    protected void putRemoteFile(final OrgFile file, final String content)
+            throws IOException {
+        putRemoteFile(file);
+    }
+
+    /**
+     * @return a hash of the content, as a hex string.
+     */
+    protected static String hash(final String content) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(
+                    content.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Call when a list and its file are in sync. The versions of both are
+     * saved at the end of the sync by saveSyncStates, so the next sync can
+     * leave them out if neither changes. The version of the list is the one
+     * read by the last applyBatch or rememberLocalState for it.
+     *
+     * @param dbEntry The entry of the list and file.
+     * @param file    The file as it is on the remote end.
+     * @param written True if the file was written during this sync.
+     */
+    protected void rememberSynced(final RemoteTaskList dbEntry,
+                                  final OrgFile file, final boolean written) {
+        rememberSynced(dbEntry, file, written ? hash(file.treeToString()) :
+                readHashes.get(file));
+    }
+
+    /**
+     * As above, for a file written during this sync with content of the
+     * given hash. If that is the content which was read, the file was not
+     * written and keeps the stamp taken before reading it. A stamp taken
+     * now could belong to an edit made after the read.
+     */
+    protected void rememberSynced(final RemoteTaskList dbEntry,
+                                  final OrgFile file, final String hash) {
+        final String stamp;
+        if (readHashes.containsKey(file) && TextUtils.equals(hash,
+                readHashes.get(file))) {
+            stamp = readStamps.get(file);
+        } else {
+            stamp = getRemoteFileStamp(file.getFilename());
+        }
+        RemoteTaskListFile.setFileState(dbEntry, hash, stamp);
+        synced.add(dbEntry);
+    }
+
+    /**
+     * Saves the state of the lists given to rememberSynced. Call when all
+     * changes of the sync have been made.
+     */
+    protected void saveSyncStates() {
+        for (RemoteTaskList dbEntry : synced) {
+            RemoteTaskListFile.setLocalState(dbEntry,
+                    syncedStates.get(dbEntry.dbid));
+            dbEntry.save(context);
+        }
+        synced.clear();
+        syncedStates.clear();
+    }
+
+    /**
+     * Reads the state of the list as this sync left it. Call right after
+     * the sync's last write to the list, so later edits are not taken as
+     * synced. applyBatch does this for the list it is given.
+     */
+    protected void rememberLocalState(final long listId) {
+        final Cursor c = resolver.query(TaskList.URI_SYNC_STATE,
+                new String[]{TaskList.Columns.SYNC_STATE},
+                TaskList.Columns._ID + " = ?",
+                new String[]{Long.toString(listId)}, null);
+        try {
+            syncedStates.put(listId, c.moveToFirst() ? c.getString(0) : null);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return a map from list-dbid to its TaskList.Columns.SYNC_STATE
+     */
+    private LongMap<String> getLocalStates() {
+        final Cursor c = resolver.query(TaskList.URI_SYNC_STATE,
+                new String[]{TaskList.Columns._ID,
+                        TaskList.Columns.SYNC_STATE}, null, null, null);
+        final LongMap<String> map = new LongMap<String>(c.getCount());
+        try {
+            while (c.moveToNext()) {
+                map.put(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+
+        return map;
+    }
+
     /**
      * @return a map from list-dbid to RemoteTaskList
      */
-    private HashMap<Long, RemoteTaskList> getRemoteTaskLists() {
-        final HashMap<Long, RemoteTaskList> map = new HashMap<Long, RemoteTaskList>();
+    private LongMap<RemoteTaskList> getRemoteTaskLists() {
         final Cursor c = resolver.query(RemoteTaskList.URI,
                 RemoteTaskList.Columns.FIELDS, RemoteTaskList.Columns.SERVICE
-                        + " IS ? AND " + RemoteTask.Columns.ACCOUNT + " IS ?",
+                        + " = ? AND " + RemoteTask.Columns.ACCOUNT + " = ?",
                 new String[]{getServiceName(), getAccountName()}, null);
+        final LongMap<RemoteTaskList> map = new LongMap<RemoteTaskList>(c.getCount());
         try {
             while (c.moveToNext()) {
                 RemoteTaskList remote = new RemoteTaskList(c);
@@ -318,10 +645,10 @@ public abstract class DBSyncBase implements SynchronizerInterface {
     /**
      * @return a map from list-dbid to TaskList
      */
-    private HashMap<Long, TaskList> getLists() {
-        final HashMap<Long, TaskList> map = new HashMap<Long, TaskList>();
+    private LongMap<TaskList> getLists() {
         final Cursor c = resolver.query(TaskList.URI, TaskList.Columns.FIELDS,
                 null, null, null);
+        final LongMap<TaskList> map = new LongMap<TaskList>(c.getCount());
         try {
             while (c.moveToNext()) {
                 TaskList list = new TaskList(c);
@@ -337,9 +664,13 @@ public abstract class DBSyncBase implements SynchronizerInterface {
     }
 
     /**
-     * Make sure notifications are synchronized from node to database.
+     * Make sure notifications are synchronized from node to database. Changes
+     * go in the batch, after the task's insert.
+     *
+     * @param taskOp Index of the task's insert, as returned by saveLater.
      */
-    protected void replaceNotifications(final Task task, final OrgNode node) {
+    protected void replaceNotifications(final ArrayList<ContentProviderOperation> ops,
+                                        final int taskOp, final OrgNode node) {
         // TODO Auto-generated method stub
         // Remove existing notifications
 
@@ -383,9 +714,9 @@ public abstract class DBSyncBase implements SynchronizerInterface {
     private int deleteRemoteTasksIn(final long listdbid) {
         return context.getContentResolver().delete(
                 RemoteTask.URI,
-                RemoteTask.Columns.SERVICE + " IS ? AND " + RemoteTask.Columns
+                RemoteTask.Columns.SERVICE + " = ? AND " + RemoteTask.Columns
                         .ACCOUNT
-                        + " IS ? AND " + RemoteTask.Columns.LISTDBID + " IS ?",
+                        + " = ? AND " + RemoteTask.Columns.LISTDBID + " = ?",
                 new String[]{getServiceName(), getAccountName(),
                         Long.toString(listdbid)});
     }
@@ -426,4 +757,84 @@ public abstract class DBSyncBase implements SynchronizerInterface {
             dbEntry.delete(context);
         }
     }
+
+    /**
+     * Adds an insert or update of the item to the batch, see applyBatch.
+     *
+     * @return the index of the operation, to refer back to an inserted id.
+     */
+    protected static int saveLater(final ArrayList<ContentProviderOperation> ops,
+                                   final DAO item) {
+        if (item._id < 1) {
+            ops.add(ContentProviderOperation.newInsert(item.getBaseUri())
+                    .withValues(item.getContent()).build());
+        } else {
+            ops.add(ContentProviderOperation.newUpdate(item.getUri())
+                    .withValues(item.getContent()).build());
+        }
+        return ops.size() - 1;
+    }
+
+    /**
+     * Adds an insert of the entry to the batch, for a task inserted earlier
+     * in the same batch.
+     *
+     * @param taskOp Index of the task's insert, as returned by saveLater.
+     */
+    protected static void insertLater(final ArrayList<ContentProviderOperation> ops,
+                                      final RemoteTask dbEntry,
+                                      final int taskOp) {
+        ops.add(ContentProviderOperation.newInsert(dbEntry.getBaseUri())
+                .withValues(dbEntry.getContent())
+                .withValueBackReference(RemoteTask.Columns.DBID, taskOp)
+                .build());
+    }
+
+    /**
+     * As deleteLocal, but added to the batch.
+     *
+     * @param task    Task to delete, can be null.
+     * @param dbEntry dbEntry to delete, can be null.
+     */
+    protected static void deleteLater(final ArrayList<ContentProviderOperation> ops,
+                                      final Task task,
+                                      final RemoteTask dbEntry) {
+        if (task != null && task._id > 0) {
+            ops.add(ContentProviderOperation.newDelete(task.getUri()).build());
+        }
+        if (dbEntry != null && dbEntry._id > 0) {
+            ops.add(ContentProviderOperation.newDelete(dbEntry.getUri())
+                    .build());
+        }
+    }
+
+    /**
+     * As below, then reads the state of the list the operations are for,
+     * see rememberLocalState. The list is read even if there is nothing to
+     * apply.
+     */
+    protected void applyBatch(final ArrayList<ContentProviderOperation> ops,
+                              final long listId) throws IOException {
+        applyBatch(ops);
+        rememberLocalState(listId);
+    }
+
+    /**
+     * Applies the operations in one transaction, with one round of change
+     * notifications, and clears them.
+     */
+    protected void applyBatch(final ArrayList<ContentProviderOperation> ops)
+            throws IOException {
+        if (ops.isEmpty()) {
+            return;
+        }
+        try {
+            resolver.applyBatch(MyContentProvider.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            throw new IOException(e);
+        } catch (OperationApplicationException e) {
+            throw new IOException(e);
+        }
+        ops.clear();
+    }
 }
@@ -37,4 +37,11 @@ public interface Monitor {
      * Service is destroying itself. Remove any references.
      */
     public void terminate();
+
+    /**
+     * A monitor which can tell the sync's own changes from others. It is
+     * not paused during syncs.
+     */
+    public interface IgnoresOwnChanges extends Monitor {
+    }
 }
@@ -38,16 +38,14 @@ public class OrgConverter {
 	private static final Pattern PatternId = Pattern.compile(NonsenseIdPattern,
 			Pattern.CASE_INSENSITIVE);
     private static final String TAG = "OrgConverter";
-    private static Random rand;
+    // Shared by the sync workers
+    private static final Random rand = new Random();
 
 	/**
 	 * Generates an id for RemoteTask(List) objects.
 	 */
 	public static String generateId() {
 		final int len = 8;
-		if (rand == null) {
-			rand = new Random();
-		}
 		String hex = Integer.toHexString(rand.nextInt());
 		// Pad with zeros if too short
 		while (hex.length() < len) {
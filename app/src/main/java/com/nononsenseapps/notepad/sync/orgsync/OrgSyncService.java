@@ -35,6 +35,7 @@ import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
 import com.nononsenseapps.notepad.BuildConfig;
+import com.nononsenseapps.notepad.database.ChangeDispatcher;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.prefs.PrefsActivity;
@@ -228,7 +229,8 @@ public class OrgSyncService extends Service {
             // Get monitors if empty
             if (monitors.isEmpty()) {
                 // First db watcher
-                monitors.add(new DBWatcher(this));
+                dbWatcher = new DBWatcher(this);
+                monitors.add(dbWatcher);
                 // Then remote sources
                 for (final SynchronizerInterface syncer: synchronizers) {
                     final Monitor monitor = syncer.getMonitor();
@@ -258,15 +260,26 @@ public class OrgSyncService extends Service {
                     // Falling through
 				case TWO_WAY_SYNC:
                     Log.d(TAG, "Sync-Two-Way: " + msg.arg2);
-                    // Pause monitors
+                    // Pause monitors which would see the sync's own
+                    // changes. The others keep watching.
                     for (final Monitor monitor: monitors) {
-                        monitor.pauseMonitor();
+                        if (!(monitor instanceof Monitor.IgnoresOwnChanges)) {
+                            monitor.pauseMonitor();
+                        }
                     }
-					// Sync each
-                    for (final SynchronizerInterface syncer : synchronizers) {
-                        sendBroadcast(new Intent(SyncAdapter.SYNC_STARTED));
-                        syncer.fullSync();
-                        syncer.postSynchronize();
+                    final ChangeDispatcher dispatcher = ChangeDispatcher
+                            .getInstance(OrgSyncService.this);
+                    dispatcher.setOrigin(dbWatcher);
+                    try {
+                        // Sync each
+                        for (final SynchronizerInterface syncer :
+                                synchronizers) {
+                            sendBroadcast(new Intent(SyncAdapter.SYNC_STARTED));
+                            syncer.fullSync();
+                            syncer.postSynchronize();
+                        }
+                    } finally {
+                        dispatcher.setOrigin(null);
                     }
                     sendBroadcast(new Intent(SyncAdapter.SYNC_FINISHED));
                     // Restart monitors
@@ -289,9 +302,11 @@ public class OrgSyncService extends Service {
 		}
 	}
 
-	private final class DBWatcher extends ContentObserver implements Monitor {
+	private final class DBWatcher extends ContentObserver implements
+			Monitor.IgnoresOwnChanges {
 
 		private final SyncHandler handler;
+		private boolean registered = false;
 
 		// Giving it the service handler, onChange will run on that thread
 		public DBWatcher(SyncHandler handler) {
@@ -299,8 +314,13 @@ public class OrgSyncService extends Service {
 			this.handler = handler;
 		}
 
+		/**
+		 * False so changes made by the sync, which has this as its origin in
+		 * the ChangeDispatcher, don't trigger another sync.
+		 */
+		@Override
 		public boolean deliverSelfNotifications() {
-			return true;
+			return false;
 		}
 
 		@Override
@@ -315,6 +335,11 @@ public class OrgSyncService extends Service {
 
         @Override
         public void startMonitor(final SyncHandler handler) {
+            // Not paused during syncs, don't register twice
+            if (registered) {
+                return;
+            }
+            registered = true;
             // Monitor both lists and tasks
             getContentResolver().registerContentObserver(TaskList.URI, true,
                                                          this);
@@ -323,6 +348,7 @@ public class OrgSyncService extends Service {
 
         @Override
         public void pauseMonitor() {
+            registered = false;
             getContentResolver().unregisterContentObserver(this);
         }
 
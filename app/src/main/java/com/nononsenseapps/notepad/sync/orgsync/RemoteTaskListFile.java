@@ -19,4 +19,49 @@ public class RemoteTaskListFile {
 	public static void setListType(final RemoteTaskList remote, final String s) {
 		remote.field3 = s;
 	}
+
+	/**
+	 * The list's TaskList.Columns.SYNC_STATE when it was last synced.
+	 */
+	public static String getLocalState(final RemoteTaskList remote) {
+		return remote.field4;
+	}
+
+	public static void setLocalState(final RemoteTaskList remote,
+			final String s) {
+		remote.field4 = s;
+	}
+
+	/**
+	 * Hash of the file's content when it was last synced.
+	 */
+	public static String getFileHash(final RemoteTaskList remote) {
+		if (remote.field5 == null) {
+			return null;
+		}
+		return remote.field5.split(" ", 2)[0];
+	}
+
+	/**
+	 * Stamp of the file when it was last synced, see
+	 * DBSyncBase.getRemoteFileStamp. Can be null.
+	 */
+	public static String getFileStamp(final RemoteTaskList remote) {
+		if (remote.field5 == null) {
+			return null;
+		}
+		final String[] parts = remote.field5.split(" ", 2);
+		return parts.length > 1 ? parts[1] : null;
+	}
+
+	public static void setFileState(final RemoteTaskList remote,
+			final String hash, final String stamp) {
+		if (hash == null) {
+			remote.field5 = null;
+		} else if (stamp == null) {
+			remote.field5 = hash;
+		} else {
+			remote.field5 = hash + " " + stamp;
+		}
+	}
 }
@@ -28,13 +28,20 @@ import com.nononsenseapps.notepad.prefs.SyncPrefs;
 import org.cowboyprogrammer.org.OrgFile;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.util.HashMap;
 import java.util.HashSet;
 
 /**
@@ -50,8 +57,15 @@ public class SDSynchronizer extends Synchronizer implements
 	public static final String PREF_ORG_DIR = SyncPrefs.KEY_SD_DIR;
 	public static final String PREF_ORG_SD_ENABLED = SyncPrefs.KEY_SD_ENABLE;
     public final static String SERVICENAME = "SDORG";
+    // A file modified this recently could change again without its
+    // modification time changing, so it gets no stamp
+    private static final long STAMP_MIN_AGE_MS = 3000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int WRITE_BUFFER_SIZE = 8192;
     protected String ORG_DIR;
     protected final boolean configured;
+    // Written by the sync workers
+    private volatile FileWatcher watcher = null;
 
 	public SDSynchronizer(Context context) {
 		super(context);
@@ -136,11 +150,68 @@ public class SDSynchronizer extends Synchronizer implements
      */
     @Override
     public void putRemoteFile(OrgFile orgFile) throws IOException {
-		final File file = new File(ORG_DIR, orgFile.getFilename());
-		final BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-		bw.write(orgFile.treeToString());
-		bw.close();
-	}
+        putRemoteFile(orgFile, orgFile.treeToString());
+    }
+
+    /**
+     * Writes to a temporary file next to it, which is then renamed over the
+     * file. Readers see either the old or the new content, never a part.
+     */
+    @Override
+    protected void putRemoteFile(final OrgFile orgFile, final String content)
+            throws IOException {
+        final String filename = orgFile.getFilename();
+        final File file = new File(ORG_DIR, filename);
+        // Not an org file, so never synced if left behind
+        final File temp = new File(ORG_DIR, "." + filename + ".tmp");
+        beginOwnChange(filename);
+        try {
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                write(out.getChannel(), content);
+                // On disk before it replaces the old version
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not replace " + file.getPath());
+            }
+        } finally {
+            endOwnChange(filename);
+        }
+    }
+
+    /**
+     * Encodes the content a buffer at a time.
+     */
+    private static void write(final FileChannel channel, final String content)
+            throws IOException {
+        final CharsetEncoder encoder = UTF8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.wrap(content);
+        final ByteBuffer bytes = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        boolean done = false;
+        while (!done) {
+            final CoderResult result;
+            if (chars.hasRemaining()) {
+                result = encoder.encode(chars, bytes, true);
+            } else {
+                result = encoder.flush(bytes);
+                done = result.isUnderflow();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
 
     /**
      * Delete the file on the remote end.
@@ -151,7 +222,12 @@ public class SDSynchronizer extends Synchronizer implements
     public void deleteRemoteFile(OrgFile orgFile) {
         if (orgFile != null && orgFile.getFilename() != null) {
             final File file = new File(ORG_DIR, orgFile.getFilename());
-            file.delete();
+            beginOwnChange(orgFile.getFilename());
+            try {
+                file.delete();
+            } finally {
+                endOwnChange(orgFile.getFilename());
+            }
         }
     }
 
@@ -168,7 +244,12 @@ public class SDSynchronizer extends Synchronizer implements
         }
         final File oldFile = new File(ORG_DIR, oldName);
         final File newFile = new File(ORG_DIR, orgFile.getFilename());
-        oldFile.renameTo(newFile);
+        beginOwnChange(oldName, orgFile.getFilename());
+        try {
+            oldFile.renameTo(newFile);
+        } finally {
+            endOwnChange(oldName, orgFile.getFilename());
+        }
     }
 
     /**
@@ -191,6 +272,23 @@ public class SDSynchronizer extends Synchronizer implements
         return br;
     }
 
+    /**
+     * The size and modification time of the file. Null for recently modified
+     * files, since file systems like FAT only keep the time in seconds.
+     *
+     * @param filename Name of the file, without path
+     */
+    @Override
+    protected String getRemoteFileStamp(final String filename) {
+        final File file = new File(ORG_DIR, filename);
+        final long modified = file.lastModified();
+        if (modified == 0
+            || System.currentTimeMillis() - modified < STAMP_MIN_AGE_MS) {
+            return null;
+        }
+        return file.length() + ":" + modified;
+    }
+
     /**
      * @return a set of all remote files.
      */
@@ -224,13 +322,55 @@ public class SDSynchronizer extends Synchronizer implements
 
     @Override
     public Monitor getMonitor() {
-        return new FileWatcher(ORG_DIR);
+        watcher = new FileWatcher(ORG_DIR);
+        return watcher;
+    }
+
+    /**
+     * The watcher, if any, ignores what happens to the files until
+     * endOwnChange.
+     */
+    private void beginOwnChange(final String... filenames) {
+        final FileWatcher w = watcher;
+        if (w != null) {
+            for (String filename : filenames) {
+                w.beginOwnChange(filename);
+            }
+        }
     }
 
-    public class FileWatcher extends FileObserver implements Monitor {
+    private void endOwnChange(final String... filenames) {
+        final FileWatcher w = watcher;
+        if (w != null) {
+            for (String filename : filenames) {
+                w.endOwnChange(filename);
+            }
+        }
+    }
+
+    /**
+     * The size and modification time of the file, empty if it doesn't exist
+     */
+    private String stampOf(final String filename) {
+        final File file = new File(ORG_DIR, filename);
+        if (!file.exists()) {
+            return "";
+        }
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Watches the directory for changes to org files, except those made by
+     * the synchronizer itself. Keeps watching during syncs.
+     */
+    public class FileWatcher extends FileObserver implements
+            Monitor.IgnoresOwnChanges {
 
         public OrgSyncService.SyncHandler handler;
         private int changeId = 0;
+        // How the synchronizer left each file, null while it is changing it
+        private final HashMap<String, String> ownChanges = new HashMap<String,
+                String>();
 
         public FileWatcher(String path) {
             super(path, FileObserver.CREATE | FileObserver.DELETE
@@ -241,11 +381,46 @@ public class SDSynchronizer extends Synchronizer implements
 
         @Override
         public void onEvent(int event, String path) {
+            // Path is null for events on the directory itself
+            if (path != null && (!path.toLowerCase().endsWith(".org")
+                                 || isOwnChange(path))) {
+                return;
+            }
             if (handler != null) {
                 handler.onMonitorChange();
             }
         }
 
+        void beginOwnChange(final String filename) {
+            synchronized (ownChanges) {
+                ownChanges.put(filename, null);
+            }
+        }
+
+        void endOwnChange(final String filename) {
+            synchronized (ownChanges) {
+                ownChanges.put(filename, stampOf(filename));
+            }
+        }
+
+        /**
+         * True while the synchronizer changes the file, and after as long
+         * as nobody else has.
+         */
+        private boolean isOwnChange(final String filename) {
+            synchronized (ownChanges) {
+                if (!ownChanges.containsKey(filename)) {
+                    return false;
+                }
+                final String stamp = ownChanges.get(filename);
+                if (stamp == null || stamp.equals(stampOf(filename))) {
+                    return true;
+                }
+                ownChanges.remove(filename);
+                return false;
+            }
+        }
+
         @Override
         public void startMonitor(final OrgSyncService.SyncHandler handler) {
             this.handler = handler;
@@ -256,6 +431,9 @@ public class SDSynchronizer extends Synchronizer implements
         public void pauseMonitor() {
             stopWatching();
             handler = null;
+            synchronized (ownChanges) {
+                ownChanges.clear();
+            }
         }
 
         @Override
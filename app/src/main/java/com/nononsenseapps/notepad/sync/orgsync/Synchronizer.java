@@ -16,6 +16,7 @@
 
 package com.nononsenseapps.notepad.sync.orgsync;
 
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.util.Pair;
 
@@ -23,14 +24,20 @@ import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.RemoteTaskList;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.util.LongMap;
 
 import org.cowboyprogrammer.org.OrgFile;
 import org.cowboyprogrammer.org.OrgNode;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public abstract class Synchronizer extends DBSyncBase implements
 		SynchronizerInterface {
@@ -45,16 +52,58 @@ public abstract class Synchronizer extends DBSyncBase implements
 	}
 
 	/**
-	 * Performs a full 2-way sync between the DB and the remote source.
+	 * Performs a full 2-way sync between the DB and the remote source. Lists
+	 * and files which have not changed since the last sync are skipped.
+	 * 
+	 * Files are read, parsed, matched to tasks and written on a few worker
+	 * threads. Everything that writes to the database happens on this thread,
+	 * one file at a time and in the same order as before.
 	 * 
 	 * @throws IOException
 	 * @throws ParseException
 	 */
 	public void fullSync() throws IOException, ParseException {
+		final ExecutorService workers = newWorkerPool();
+		try {
+			fullSync(workers);
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	private void fullSync(final ExecutorService workers) throws IOException,
+			ParseException {
 		// For all pairs of files and db entries
-		final List<Pair<OrgFile, Pair<RemoteTaskList, TaskList>>> pairs = getFilesAndDBEntries();
+		final List<Pair<OrgFile, Pair<RemoteTaskList, TaskList>>> pairs = getFilesAndDBEntries(workers);
+
+		// The tasks of all lists which will be synced, in one query
+		final long[] listIds = new long[pairs.size()];
+		int listCount = 0;
+		for (Pair<OrgFile, Pair<RemoteTaskList, TaskList>> pair : pairs) {
+			if (pair.second.second != null
+					&& (pair.first != null || pair.second.first == null)) {
+				listIds[listCount++] = pair.second.second._id;
+			}
+		}
+		final LongMap<ListTasks> tasks = getTasksOfLists(Arrays.copyOf(
+				listIds, listCount));
 
+		// Match the nodes of existing files while earlier files are synced
+		final List<Future<List<Pair<OrgNode, Pair<RemoteTask, Task>>>>> matched = new ArrayList<Future<List<Pair<OrgNode, Pair<RemoteTask, Task>>>>>();
 		for (Pair<OrgFile, Pair<RemoteTaskList, TaskList>> pair : pairs) {
+			if (pair.first != null && pair.second.first != null
+					&& pair.second.second != null) {
+				matched.add(submitMatch(workers, pair.first, pair.second.second,
+						tasksOf(tasks, pair.second.second._id)));
+			} else {
+				matched.add(null);
+			}
+		}
+		final List<PendingWrite> writes = new ArrayList<PendingWrite>();
+
+		for (int i = 0; i < pairs.size(); i++) {
+			final Pair<OrgFile, Pair<RemoteTaskList, TaskList>> pair = pairs
+					.get(i);
 			OrgFile file = pair.first;
 			RemoteTaskList dbEntry = pair.second.first;
 			TaskList list = pair.second.second;
@@ -66,10 +115,12 @@ public abstract class Synchronizer extends DBSyncBase implements
                     OrgConverter.toFileFromList(list, file);
 
 					// Add tasks to File
-					syncTasks(context, list, file);
+					syncTasks(context, list, file, getNodesAndDBEntries(file,
+							list, tasksOf(tasks, list._id)));
 
-					// Save file
-					putRemoteFile(file);
+					// Save file. Not in the background, the name must be
+					// taken before the next new file asks for one.
+					final String hash = putRemoteFileIfChanged(file);
 
                     // If name was not available, rename list as well
                     if (!file.getFilename().equals(OrgConverter
@@ -77,6 +128,7 @@ public abstract class Synchronizer extends DBSyncBase implements
                         list.title = file.getFilename().substring(0,
                                 file.getFilename().length() - 4);
                         list.save(context);
+                        rememberLocalState(list._id);
                     }
 
 					// Create DbEntry
@@ -86,6 +138,7 @@ public abstract class Synchronizer extends DBSyncBase implements
 					dbEntry.service = getServiceName();
 					OrgConverter.toRemoteFromFile(dbEntry, file);
 					dbEntry.save(context);
+					rememberSynced(dbEntry, file, hash);
 
 				} else {
 					// NEW CREATE DB LIST
@@ -103,9 +156,13 @@ public abstract class Synchronizer extends DBSyncBase implements
 					dbEntry.save(context);
 
 					// Now do the tasks
-					if (syncTasks(context, list, file)) {
+					// A new list has no tasks yet
+					if (syncTasks(context, list, file, getNodesAndDBEntries(
+							file, list, new ListTasks()))) {
 						// Something changed in the file.
-						putRemoteFile(file);
+						writes.add(submitWrite(workers, dbEntry, file));
+					} else {
+						rememberSynced(dbEntry, file, false);
 					}
 				}
 			} else {
@@ -147,14 +204,68 @@ public abstract class Synchronizer extends DBSyncBase implements
                         }
 
 						// In both cases, sync tasks
-						if (syncTasks(context, list, file) || shouldSaveFile) {
+						if (syncTasks(context, list, file,
+								await(matched.get(i))) || shouldSaveFile) {
 							// Something changed in the file.
-							putRemoteFile(file);
+							writes.add(submitWrite(workers, dbEntry, file));
+						} else {
+							rememberSynced(dbEntry, file, false);
 						}
 					}
 				}
 			}
 		}
+
+		for (PendingWrite write : writes) {
+			rememberSynced(write.dbEntry, write.file, await(write.hash));
+		}
+		saveSyncStates();
+	}
+
+	/**
+	 * A file being written by a worker.
+	 */
+	private static class PendingWrite {
+		final RemoteTaskList dbEntry;
+		final OrgFile file;
+		// Of the written content
+		final Future<String> hash;
+
+		PendingWrite(final RemoteTaskList dbEntry, final OrgFile file,
+				final Future<String> hash) {
+			this.dbEntry = dbEntry;
+			this.file = file;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Writes the file on a worker. The file must not be changed after this.
+	 */
+	private PendingWrite submitWrite(final ExecutorService workers,
+			final RemoteTaskList dbEntry, final OrgFile file) {
+		return new PendingWrite(dbEntry, file,
+				workers.submit(new Callable<String>() {
+					@Override
+					public String call() throws IOException {
+						return putRemoteFileIfChanged(file);
+					}
+				}));
+	}
+
+	/**
+	 * Matches the nodes of the file to the tasks of the list on a worker.
+	 */
+	private Future<List<Pair<OrgNode, Pair<RemoteTask, Task>>>> submitMatch(
+			final ExecutorService workers, final OrgFile file,
+			final TaskList list, final ListTasks tasks) {
+		return workers
+				.submit(new Callable<List<Pair<OrgNode, Pair<RemoteTask, Task>>>>() {
+					@Override
+					public List<Pair<OrgNode, Pair<RemoteTask, Task>>> call() {
+						return getNodesAndDBEntries(file, list, tasks);
+					}
+				});
 	}
 
 	/**
@@ -223,10 +334,19 @@ public abstract class Synchronizer extends DBSyncBase implements
 		return shouldSave;
 	}
 
+	/**
+	 * The database changes for the file are collected and applied as one
+	 * batch at the end.
+	 * 
+	 * @param pairs As returned by getNodesAndDBEntries for the file and list.
+	 * @return true if the file was changed
+	 */
 	private boolean syncTasks(final Context context, final TaskList list,
-			final OrgFile file) {
-		final List<Pair<OrgNode, Pair<RemoteTask, Task>>> pairs = getNodesAndDBEntries(
-				file, list);
+			final OrgFile file,
+			final List<Pair<OrgNode, Pair<RemoteTask, Task>>> pairs)
+			throws IOException {
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+		final long now = Calendar.getInstance().getTimeInMillis();
 		boolean shouldUpdateFile = false;
 
 		OrgNode prevNode = null;
@@ -256,7 +376,7 @@ public abstract class Synchronizer extends DBSyncBase implements
 					dbEntry.account = getAccountName();
 					dbEntry.service = getServiceName();
 					OrgConverter.toRemoteFromNode(dbEntry, node);
-					dbEntry.save(context);
+					saveLater(ops, dbEntry);
 
 					shouldUpdateFile = true;
 				} else {
@@ -265,24 +385,24 @@ public abstract class Synchronizer extends DBSyncBase implements
 					task = new Task();
 					task.dblist = list._id;
 					OrgConverter.toTaskFromNode(task, node);
-					task.save(context);
+					task.updated = now;
+					final int taskOp = saveLater(ops, task);
 
 					dbEntry = new RemoteTask();
-					dbEntry.dbid = task._id;
 					dbEntry.listdbid = list._id;
 					dbEntry.account = getAccountName();
 					dbEntry.service = getServiceName();
 					shouldUpdateFile = OrgConverter.toRemoteFromNode(dbEntry,
 							node);
-					dbEntry.save(context);
+					insertLater(ops, dbEntry, taskOp);
 
-					replaceNotifications(task, node);
+					replaceNotifications(ops, taskOp, node);
 				}
 			} else {
 				if (task == null) {
 					// DELETE NODE DB
 					//Log.d(TAG, "DELETE NODE DB");
-					deleteLocal(task, dbEntry);
+					deleteLater(ops, task, dbEntry);
                     if (node != null) {
                         deleteNode(node);
                         shouldUpdateFile = true;
@@ -291,7 +411,7 @@ public abstract class Synchronizer extends DBSyncBase implements
 					if (node == null) {
 						// DELETE DB TASK
 						//Log.d(TAG, "DELETE TASK DB");
-						deleteLocal(task, dbEntry);
+						deleteLater(ops, task, dbEntry);
 					} else {
 						// TODO need to check notifications also
 						//Log.d(TAG, "MERGE TASKS");
@@ -303,12 +423,13 @@ public abstract class Synchronizer extends DBSyncBase implements
 							shouldUpdateFile = true;
 						}
 						if (0 < (shouldSave & SAVEDB)) {
-							task.save(context);
+							task.updated = now;
+							saveLater(ops, task);
 						}
                         if (0 < shouldSave) {
                             // Remember this version for later
                             OrgConverter.toRemoteFromNode(dbEntry, node);
-                            dbEntry.save(context);
+                            saveLater(ops, dbEntry);
                         }
                     }
 				}
@@ -320,6 +441,7 @@ public abstract class Synchronizer extends DBSyncBase implements
 			}
 		}
 
+		applyBatch(ops, list._id);
 		return shouldUpdateFile;
 	}
 
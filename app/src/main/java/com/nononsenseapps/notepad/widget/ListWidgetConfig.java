@@ -313,7 +313,7 @@ public class ListWidgetConfig extends FragmentActivity {
 					String listWhere = null;
 					String[] listArg = null;
 					if (listId > 0) {
-						listWhere = Task.Columns.DBLIST + " IS ? AND "
+						listWhere = Task.Columns.DBLIST + " = ? AND "
 								+ Task.Columns.COMPLETED + " IS NULL";
 						listArg = new String[] { Long.toString(listId) };
 					}
@@ -323,7 +323,7 @@ public class ListWidgetConfig extends FragmentActivity {
 					}
 
 					return new CursorLoader(ListWidgetConfig.this, targetUri,
-							Task.Columns.FIELDS,
+							Task.Columns.LIST_FIELDS,
 							listWhere,
 							listArg, sortSpec);
 				}
@@ -353,10 +353,17 @@ public class ListWidgetService extends RemoteViewsService {
 					;
 				}
 
+				Uri listUri = targetUri;
 				String listWhere = null;
 				String[] listArg = null;
-				if (listId > 0) {
-					listWhere = Task.Columns.DBLIST + " IS ? AND "
+				if (listId > 0 && targetUri == Task.URI) {
+					// Only notified when this list changes
+					listUri = Task.getListUri(listId);
+					listWhere = Task.Columns.COMPLETED + " IS NULL";
+					listArg = null;
+				}
+				else if (listId > 0) {
+					listWhere = Task.Columns.DBLIST + " = ? AND "
 							+ Task.Columns.COMPLETED + " IS NULL";
 					listArg = new String[] { Long.toString(listId) };
 				}
@@ -365,8 +372,8 @@ public class ListWidgetService extends RemoteViewsService {
 					listArg = null;
 				}
 
-				mCursor = mContext.getContentResolver().query(targetUri,
-						Task.Columns.FIELDS, listWhere, listArg, sortSpec);
+				mCursor = mContext.getContentResolver().query(listUri,
+						Task.Columns.LIST_FIELDS, listWhere, listArg, sortSpec);
 
 			}
 			// Restore the identity - not sure if it's needed since we're going
@@ -0,0 +1,167 @@
+package com.nononsenseapps.util;
+
+import java.util.ArrayList;
+
+/**
+ * A hash map from primitive long keys to objects, for looking things up by
+ * database id. Unlike HashMap<Long, V> it does not box keys or create an
+ * entry object per mapping.
+ *
+ * Open addressing with linear probing. Null values are not allowed, get
+ * returns null for missing keys.
+ */
+public class LongMap<V> {
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+
+	public LongMap() {
+		this(16);
+	}
+
+	public LongMap(final int expectedSize) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	private static int hash(final long key) {
+		final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the slot of key, or the empty slot where it would go
+	 */
+	private int slotOf(final long key) {
+		final int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] != null && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(final long key) {
+		return (V) values[slotOf(key)];
+	}
+
+	public boolean containsKey(final long key) {
+		return values[slotOf(key)] != null;
+	}
+
+	/**
+	 * Returns the previous value of key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(final long key, final V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed");
+		}
+		int i = slotOf(key);
+		final V old = (V) values[i];
+		if (old == null) {
+			if ((size + 1) * 4 > keys.length * 3) {
+				grow();
+				i = slotOf(key);
+			}
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+		return old;
+	}
+
+	/**
+	 * Returns the removed value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(final long key) {
+		final int mask = keys.length - 1;
+		int i = slotOf(key);
+		final V old = (V) values[i];
+		if (old == null) {
+			return null;
+		}
+		values[i] = null;
+		size--;
+		// Shift back following entries that would no longer be found
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null) {
+				break;
+			}
+			final int home = hash(keys[j]) & mask;
+			// Move j to i if its home is not cyclically in (i, j]
+			if ((i <= j) ? (home <= i || home > j) : (home <= i && home > j)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+		}
+		return old;
+	}
+
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	private void grow() {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				final int j = slotOf(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns all keys, in no particular order
+	 */
+	public long[] keys() {
+		final long[] result = new long[size];
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result[n++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all values, in the same order as keys
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<V> values() {
+		final ArrayList<V> result = new ArrayList<V>(size);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result.add((V) values[i]);
+			}
+		}
+		return result;
+	}
+}
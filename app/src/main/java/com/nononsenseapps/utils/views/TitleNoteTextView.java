@@ -57,6 +57,8 @@ public class TitleNoteTextView extends TextView {
     private String mStyledText;
     private String mTitle = "";
     private String mRest = "";
+    // Start and end pairs in mRest of text to show in bold
+    private int[] mHighlights = new int[0];
 
     public TitleNoteTextView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -273,6 +275,15 @@ public class TitleNoteTextView extends TextView {
                                 Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
                     }
 
+                    if (mHighlights.length > 0 && mStyledText.endsWith(mRest)) {
+                        final int offset = mStyledText.length() - mRest.length();
+                        for (int i = 0; i + 1 < mHighlights.length; i += 2) {
+                            text.setSpan(new StyleSpan(android.graphics.Typeface.BOLD),
+                                    offset + mHighlights[i], offset + mHighlights[i + 1],
+                                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                        }
+                    }
+
                     setText(text, BufferType.SPANNABLE);
 
                     if (mLinkify) {
@@ -348,6 +359,7 @@ public class TitleNoteTextView extends TextView {
 
     public void setTextRest(final String rest) {
         if (rest != null) {
+            mHighlights = new int[0];
             this.mRest = rest;
             // Make sure it starts with a new line
             if (mRest.length() > 0) {
@@ -358,6 +370,42 @@ public class TitleNoteTextView extends TextView {
         }
     }
 
+    /**
+     * Like setTextRest, but the parts of rest between start and end markers
+     * are shown in bold. The markers are removed. Meant for search snippets.
+     */
+    public void setTextRestHighlighted(final String rest, final String start,
+                                       final String end) {
+        if (rest == null) {
+            return;
+        }
+        final boolean newline = rest.length() > 0 && !rest.startsWith("\n");
+        final StringBuilder plain = new StringBuilder(newline ? "\n" : "");
+        final int[] highlights = new int[rest.length()];
+        int count = 0;
+        int pos = 0;
+        while (pos < rest.length()) {
+            final int from = rest.indexOf(start, pos);
+            final int to = from < 0 ? -1 : rest.indexOf(end, from + start.length());
+            if (to < 0) {
+                break;
+            }
+            plain.append(rest, pos, from);
+            highlights[count++] = plain.length();
+            plain.append(rest, from + start.length(), to);
+            highlights[count++] = plain.length();
+            pos = to + end.length();
+        }
+        // Any unmatched marker is dropped with the others
+        plain.append(rest.substring(pos).replace(start, "").replace(end, ""));
+
+        this.mRest = plain.toString();
+        mHighlights = new int[count];
+        System.arraycopy(highlights, 0, mHighlights, 0, count);
+
+        setStyledText(mTitle + mRest);
+    }
+
     public String getTextTitle() {
         return mTitle;
     }
@@ -51,6 +51,9 @@ public class DropboxSynchronizer extends Synchronizer implements
     public static final String PREF_DIR = SyncPrefs.KEY_DROPBOX_DIR;
     public static final String PREF_ENABLED = SyncPrefs.KEY_DROPBOX_ENABLE;
     public final static String SERVICENAME = "DROPBOXORG";
+    // A file modified this recently could change again without its
+    // modification time changing, so it gets no stamp
+    private static final long STAMP_MIN_AGE_MS = 3000;
     protected final boolean enabled;
     protected DbxPath DIR;
     private DbxAccountManager accountManager = null;
@@ -307,6 +310,26 @@ public class DropboxSynchronizer extends Synchronizer implements
         return br;
     }
 
+    /**
+     * The size and modification time of the latest version of the file.
+     * Null for recently modified files, as for SDSynchronizer.
+     *
+     * @param filename Name of the file, without path
+     */
+    @Override
+    protected String getRemoteFileStamp(final String filename) {
+        try {
+            final DbxFileInfo info = fs.getFileInfo(new DbxPath(DIR, filename));
+            final long modified = info.modifiedTime.getTime();
+            if (System.currentTimeMillis() - modified < STAMP_MIN_AGE_MS) {
+                return null;
+            }
+            return info.size + ":" + modified;
+        } catch (DbxException e) {
+            return null;
+        }
+    }
+
     /**
      * Wait until the file has been synced to the newest state. Will wait a
      * maximum of 30s.